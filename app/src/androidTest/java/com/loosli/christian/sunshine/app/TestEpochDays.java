@@ -0,0 +1,90 @@
+package com.loosli.christian.sunshine.app;
+
+import android.text.format.Time;
+
+import junit.framework.TestCase;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Checks EpochDays against the Time, Calendar and SimpleDateFormat code it replaced, on random
+ * instants in a handful of time zones.  The zones have DST changes at odd hours and offsets
+ * that aren't whole hours, but none whose DST changes at midnight, where a day has no midnight.
+ */
+public class TestEpochDays extends TestCase {
+
+    private static final String[] TIME_ZONES = {
+            "UTC",
+            "Europe/Zurich",
+            "America/Los_Angeles",
+            "Asia/Kolkata",
+            "Australia/Lord_Howe",
+            "Pacific/Chatham"
+    };
+
+    private static final int SAMPLES = 5000;
+    // 1971 to 2037, the range Time handles on every platform version
+    private static final long MIN_MILLIS = 365L * EpochDays.DAY_IN_MILLIS;
+    private static final long MAX_MILLIS = 67L * 365 * EpochDays.DAY_IN_MILLIS;
+
+    private final Random mRandom = new Random(20141220);
+
+    @Override
+    protected void tearDown() throws Exception {
+        EpochDays.resetTimeZone();
+        super.tearDown();
+    }
+
+    public void testNormalizeMatchesTime() {
+        for (String timeZoneId : TIME_ZONES) {
+            EpochDays.setTimeZone(TimeZone.getTimeZone(timeZoneId));
+            Time time = new Time(timeZoneId);
+            for (int i = 0; i < SAMPLES; i++) {
+                long millis = randomMillis();
+                time.set(millis);
+                int julianDay = Time.getJulianDay(millis, time.gmtoff);
+                assertEquals("Error: julian day of " + millis + " in " + timeZoneId,
+                        julianDay, EpochDays.toJulianDay(EpochDays.fromMillis(millis)));
+                assertEquals("Error: start of the day of " + millis + " in " + timeZoneId,
+                        time.setJulianDay(julianDay), EpochDays.normalize(millis));
+            }
+        }
+    }
+
+    public void testCivilDateMatchesCalendar() {
+        GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        for (int i = 0; i < SAMPLES; i++) {
+            long millis = randomMillis();
+            int epochDay = EpochDays.fromMillis(millis, 0);
+            calendar.setTimeInMillis(millis);
+            assertEquals(calendar.get(Calendar.YEAR), EpochDays.getYear(epochDay));
+            assertEquals(calendar.get(Calendar.MONTH), EpochDays.getMonth(epochDay));
+            assertEquals(calendar.get(Calendar.DAY_OF_MONTH), EpochDays.getMonthDay(epochDay));
+            assertEquals(calendar.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY,
+                    EpochDays.getWeekDay(epochDay));
+        }
+        // Around the leap days of 2000 and 2100, and before 1970
+        assertEquals(1, EpochDays.getMonth(11016));
+        assertEquals(29, EpochDays.getMonthDay(11016));
+        assertEquals(2, EpochDays.getMonth(47541));
+        assertEquals(1, EpochDays.getMonthDay(47541));
+        assertEquals(1969, EpochDays.getYear(-1));
+        assertEquals(31, EpochDays.getMonthDay(-1));
+    }
+
+    public void testDayNamesMatchSimpleDateFormat() {
+        SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
+        for (int i = 0; i < SAMPLES; i++) {
+            long date = EpochDays.normalize(randomMillis());
+            assertEquals(monthDayFormat.format(date), Utility.getFormattedMonthDay(null, date));
+        }
+    }
+
+    private long randomMillis() {
+        return MIN_MILLIS + (long) (mRandom.nextDouble() * (MAX_MILLIS - MIN_MILLIS));
+    }
+}
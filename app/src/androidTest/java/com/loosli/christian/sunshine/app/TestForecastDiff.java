@@ -0,0 +1,160 @@
+package com.loosli.christian.sunshine.app;
+
+import android.database.MatrixCursor;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.view.ViewGroup;
+
+import com.loosli.christian.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestForecastDiff extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private static final String[] COLUMNS = {
+            WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME
+    };
+
+    /*
+        Mirrors the list the way a RecyclerView sees it: each position holds the date of the
+        row bound there, or null once the row has to be bound again.
+     */
+    private static class MirrorAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+        final List<Long> mBound = new ArrayList<Long>();
+
+        MirrorAdapter(List<ForecastRow> rows) {
+            for (ForecastRow row : rows) {
+                mBound.add(row.date);
+            }
+            registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+                @Override
+                public void onChanged() {
+                    fail("Error: the whole list was invalidated");
+                }
+
+                @Override
+                public void onItemRangeChanged(int positionStart, int itemCount) {
+                    for (int i = positionStart; i < positionStart + itemCount; i++) {
+                        mBound.set(i, null);
+                    }
+                }
+
+                @Override
+                public void onItemRangeInserted(int positionStart, int itemCount) {
+                    for (int i = 0; i < itemCount; i++) {
+                        mBound.add(positionStart, null);
+                    }
+                }
+
+                @Override
+                public void onItemRangeRemoved(int positionStart, int itemCount) {
+                    for (int i = 0; i < itemCount; i++) {
+                        mBound.remove(positionStart);
+                    }
+                }
+
+                @Override
+                public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+                    fail("Error: forecast rows never move");
+                }
+            });
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getItemCount() {
+            return mBound.size();
+        }
+    }
+
+    // Each pair is the day, counted from today, and its high temperature
+    private List<ForecastRow> createRows(int... daysAndHighs) {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (int i = 0; i < daysAndHighs.length; i += 2) {
+            cursor.addRow(new Object[]{i + 1, today + daysAndHighs[i] * DAY_IN_MILLIS, "Clear",
+                    daysAndHighs[i + 1], 5, "99705", 800, 64.7488, -147.353, "North Pole"});
+        }
+        List<ForecastRow> rows = ForecastRow.fromCursor(mContext, cursor);
+        cursor.close();
+        return rows;
+    }
+
+    private ForecastDiff assertDiff(List<ForecastRow> oldRows, List<ForecastRow> newRows) {
+        ForecastDiff diff = ForecastDiff.compute(oldRows, newRows);
+        MirrorAdapter adapter = new MirrorAdapter(oldRows);
+        diff.dispatchTo(adapter);
+
+        assertEquals("Error: wrong number of rows after the diff",
+                newRows.size(), adapter.mBound.size());
+        for (int i = 0; i < newRows.size(); i++) {
+            Long bound = adapter.mBound.get(i);
+            if (bound != null) {
+                assertEquals("Error: row " + i + " still shows another day",
+                        newRows.get(i).date, bound.longValue());
+                ForecastRow oldRow = null;
+                for (ForecastRow row : oldRows) {
+                    if (row.date == bound) {
+                        oldRow = row;
+                    }
+                }
+                assertTrue("Error: row " + i + " changed but wasn't bound again",
+                        oldRow != null && oldRow.hasSameContents(newRows.get(i)));
+            }
+        }
+        return diff;
+    }
+
+    public void testUnchanged() {
+        ForecastDiff diff = assertDiff(createRows(0, 20, 1, 21, 2, 22),
+                createRows(0, 20, 1, 21, 2, 22));
+        assertTrue(diff.isEmpty());
+    }
+
+    public void testSingleDayChanged() {
+        ForecastDiff diff = assertDiff(createRows(0, 20, 1, 21, 2, 22, 3, 23),
+                createRows(0, 20, 1, 21, 2, 30, 3, 23));
+        assertEquals(1, diff.getChangedCount());
+        assertEquals(0, diff.getInsertedCount());
+        assertEquals(0, diff.getRemovedCount());
+    }
+
+    public void testDaysAppendedAndDropped() {
+        // The next day: yesterday leaves the list, two new days arrive at its end
+        ForecastDiff diff = assertDiff(createRows(-1, 19, 0, 20, 1, 21, 2, 22),
+                createRows(0, 20, 1, 21, 2, 22, 3, 23, 4, 24));
+        assertEquals(1, diff.getRemovedCount());
+        assertEquals(2, diff.getInsertedCount());
+    }
+
+    public void testGapsAndChanges() {
+        assertDiff(createRows(0, 20, 2, 22, 4, 24, 6, 26, 8, 28),
+                createRows(0, 20, 1, 21, 2, 25, 3, 23, 6, 26, 7, 27));
+        assertDiff(createRows(0, 20, 1, 21, 2, 22, 3, 23),
+                createRows(3, 23));
+        assertDiff(createRows(), createRows(0, 20, 1, 21));
+        assertDiff(createRows(0, 20, 1, 21), createRows());
+        assertDiff(createRows(5, 20, 6, 21), createRows(0, 20, 1, 21));
+    }
+}
@@ -0,0 +1,135 @@
+package com.loosli.christian.sunshine.app;
+
+import android.database.MatrixCursor;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.loosli.christian.sunshine.app.data.WeatherContract;
+
+import java.util.List;
+
+public class TestForecastRow extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastRow.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int DAYS = 14;
+    private static final int BENCHMARK_RUNS = 200;
+
+    // Laid out like ForecastFragment.FORECAST_COLUMNS, which is what the COL_ indices index
+    private static final String[] COLUMNS = {
+            WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME
+    };
+
+    private static final int[] WEATHER_IDS = {800, 801, 500, 211, 601, 741, 804};
+
+    private MatrixCursor createForecastCursor() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, DAYS);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        for (int i = 0; i < DAYS; i++) {
+            cursor.addRow(new Object[]{i + 1, today + i * DAY_IN_MILLIS, "Clear",
+                    20.5 + i, 10.25 - i, "99705", WEATHER_IDS[i % WEATHER_IDS.length],
+                    64.7488, -147.353, "North Pole"});
+        }
+        return cursor;
+    }
+
+    public void testRowsMatchUtility() {
+        MatrixCursor cursor = createForecastCursor();
+        List<ForecastRow> rows = ForecastRow.fromCursor(mContext, cursor);
+        assertEquals(DAYS, rows.size());
+
+        cursor.moveToPosition(-1);
+        for (ForecastRow row : rows) {
+            assertTrue(cursor.moveToNext());
+            long date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+            int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+            assertEquals(date, row.date);
+            assertEquals(weatherId, row.weatherId);
+            assertEquals(Utility.getFriendlyDayString(mContext, date, false), row.dayText);
+            assertEquals(Utility.getFriendlyDayString(mContext, date, true), row.todayText);
+            assertEquals(Utility.getStringForWeatherCondition(mContext, weatherId),
+                    row.description);
+            assertEquals(Utility.formatTemperature(mContext,
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP)), row.high);
+            assertEquals(Utility.formatTemperature(mContext,
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP)), row.low);
+            assertEquals(mContext.getString(R.string.a11y_low_temp, row.low), row.lowA11y);
+            assertEquals(Utility.getIconResourceForWeatherCondition(weatherId), row.iconResource);
+            assertEquals(Utility.getArtResourceForWeatherCondition(weatherId), row.artResource);
+            assertEquals("North Pole", row.cityName);
+        }
+        cursor.close();
+
+        assertTrue(ForecastRow.fromCursor(mContext, null).isEmpty());
+    }
+
+    /*
+        Not a pass/fail benchmark: logs the UI thread work of binding a row, first as
+        onBindViewHolder did it from the cursor, then from a prepared ForecastRow.
+     */
+    @SuppressWarnings("deprecation")
+    public void testBindBenchmark() {
+        MatrixCursor cursor = createForecastCursor();
+        List<ForecastRow> rows = ForecastRow.fromCursor(mContext, cursor);
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        long start = System.nanoTime();
+        for (int run = 0; run < BENCHMARK_RUNS; run++) {
+            for (int position = 0; position < DAYS; position++) {
+                cursor.moveToPosition(position);
+                int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+                Utility.getIconResourceForWeatherCondition(weatherId);
+                Utility.usingLocalGraphics(mContext);
+                Utility.getFriendlyDayString(mContext,
+                        cursor.getLong(ForecastFragment.COL_WEATHER_DATE), position == 0);
+                String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+                mContext.getString(R.string.a11y_forecast, description);
+                String high = Utility.formatTemperature(mContext,
+                        cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+                mContext.getString(R.string.a11y_high_temp, high);
+                String low = Utility.formatTemperature(mContext,
+                        cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+                mContext.getString(R.string.a11y_low_temp, low);
+                cursor.getString(ForecastFragment.COL_CITY_NAME);
+            }
+        }
+        long cursorNanos = (System.nanoTime() - start) / (BENCHMARK_RUNS * DAYS);
+        int cursorAllocs = Debug.getThreadAllocCount() / (BENCHMARK_RUNS * DAYS);
+
+        Debug.resetThreadAllocCount();
+        start = System.nanoTime();
+        int checksum = 0;
+        for (int run = 0; run < BENCHMARK_RUNS; run++) {
+            for (int position = 0; position < DAYS; position++) {
+                ForecastRow row = rows.get(position);
+                checksum += row.iconResource;
+                checksum += (position == 0 ? row.todayText : row.dayText).length();
+                checksum += row.description.length() + row.descriptionA11y.length();
+                checksum += row.high.length() + row.highA11y.length();
+                checksum += row.low.length() + row.lowA11y.length();
+                checksum += row.cityName.length();
+            }
+        }
+        long rowNanos = (System.nanoTime() - start) / (BENCHMARK_RUNS * DAYS);
+        int rowAllocs = Debug.getThreadAllocCount() / (BENCHMARK_RUNS * DAYS);
+        Debug.stopAllocCounting();
+        cursor.close();
+
+        assertTrue(checksum > 0);
+        Log.d(LOG_TAG, "Bind work per row: from the cursor " + cursorNanos / 1000 + "us, " +
+                cursorAllocs + " allocations; from a ForecastRow " + rowNanos / 1000 + "us, " +
+                rowAllocs + " allocations");
+    }
+}
@@ -0,0 +1,99 @@
+package com.loosli.christian.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.loosli.christian.sunshine.app.utils.PollingCheck;
+
+import java.util.Locale;
+
+public class TestFormatCache extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private Locale mLocale;
+    private String mUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLocale = Locale.getDefault();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnits = prefs.getString(mContext.getString(R.string.pref_units_key), null);
+        Locale.setDefault(Locale.US);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Locale.setDefault(mLocale);
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        if (mUnits == null) {
+            editor.remove(mContext.getString(R.string.pref_units_key));
+        } else {
+            editor.putString(mContext.getString(R.string.pref_units_key), mUnits);
+        }
+        editor.commit();
+        super.tearDown();
+    }
+
+    public void testRepeatedFormattingIsCached() {
+        long inThreeDays = System.currentTimeMillis() + 3 * DAY_IN_MILLIS;
+        long inTenDays = System.currentTimeMillis() + 10 * DAY_IN_MILLIS;
+
+        String temperature = Utility.formatTemperature(mContext, 21.25, true);
+        assertSame("Error: the temperature was formatted again",
+                temperature, Utility.formatTemperature(mContext, 21.25, true));
+        assertNotSame(temperature, Utility.formatTemperature(mContext, 21.25, false));
+        assertEquals(String.format(mContext.getString(R.string.format_temperature), 70.25),
+                Utility.formatTemperature(mContext, 21.25, false));
+
+        String wind = Utility.getFormattedWind(mContext, 5.5f, 100);
+        assertSame(wind, Utility.getFormattedWind(mContext, 5.5f, 100));
+        assertFalse(wind.equals(Utility.getFormattedWind(mContext, 5.5f, 300)));
+
+        String day = Utility.getFriendlyDayString(mContext, inTenDays, false);
+        assertSame(day, Utility.getFriendlyDayString(mContext, inTenDays, false));
+        String name = Utility.getDayName(mContext, inThreeDays);
+        assertSame(name, Utility.getDayName(mContext, inThreeDays));
+        assertFalse("Error: day label styles share a cache entry",
+                Utility.getFriendlyDayString(mContext, System.currentTimeMillis(), true)
+                        .equals(Utility.getFriendlyDayString(mContext, System.currentTimeMillis(), false)));
+
+        String condition = Utility.getStringForWeatherCondition(mContext, 800);
+        assertSame(condition, Utility.getStringForWeatherCondition(mContext, 800));
+    }
+
+    public void testLocaleChangeInvalidates() {
+        long inThreeDays = System.currentTimeMillis() + 3 * DAY_IN_MILLIS;
+        String english = Utility.getDayName(mContext, inThreeDays);
+
+        Locale.setDefault(Locale.GERMANY);
+        String german = Utility.getDayName(mContext, inThreeDays);
+        assertFalse("Error: the day name of the previous locale was kept", english.equals(german));
+    }
+
+    public void testUnitChangeInvalidates() {
+        final String unitsKey = mContext.getString(R.string.pref_units_key);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        prefs.edit().putString(unitsKey, mContext.getString(R.string.pref_units_metric)).commit();
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return Utility.isMetric(mContext);
+            }
+        }.run();
+        String metric = Utility.getFormattedWind(mContext, 10, 0);
+
+        prefs.edit().putString(unitsKey, mContext.getString(R.string.pref_units_imperial)).commit();
+        // Preference listeners hear about the change on the main thread
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return !Utility.isMetric(mContext);
+            }
+        }.run();
+        assertFalse("Error: the wind of the previous unit system was kept",
+                metric.equals(Utility.getFormattedWind(mContext, 10, 0)));
+    }
+}
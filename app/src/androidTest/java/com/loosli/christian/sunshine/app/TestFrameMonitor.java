@@ -0,0 +1,53 @@
+package com.loosli.christian.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+public class TestFrameMonitor extends AndroidTestCase {
+
+    private static final long MILLIS = 1000000;
+
+    public void testHistogramBuckets() {
+        FrameMonitor.Histogram histogram = new FrameMonitor.Histogram("ForecastFragment",
+                FrameMonitor.INTERACTION_SCROLL);
+        histogram.add(16 * MILLIS + MILLIS / 2);
+        histogram.add(16 * MILLIS + MILLIS / 2);
+        histogram.add(7 * MILLIS);
+        histogram.add(34 * MILLIS);
+        histogram.add(2000 * MILLIS);
+
+        assertEquals(5, histogram.frames);
+        assertEquals("Error: frames over 17ms are slow", 2, histogram.slowFrames);
+        assertEquals(1, histogram.counts[0]);
+        assertEquals("Error: 16.5ms belongs in the 16 to 20ms bucket", 2, histogram.counts[3]);
+        assertEquals(1, histogram.counts[6]);
+        assertEquals("Error: the last bucket takes the rest",
+                1, histogram.counts[FrameMonitor.BUCKET_MILLIS.length]);
+        assertEquals(2000 * MILLIS, histogram.maxNanos);
+    }
+
+    public void testCsv() {
+        FrameMonitor.Histogram histogram = new FrameMonitor.Histogram("DetailActivity",
+                FrameMonitor.INTERACTION_TRANSITION);
+        histogram.add(10 * MILLIS);
+        histogram.add(30 * MILLIS);
+
+        String[] fields = histogram.toCsv("1.3").split(",");
+        assertEquals(7 + FrameMonitor.BUCKET_MILLIS.length + 1, fields.length);
+        assertEquals("1.3", fields[0]);
+        assertEquals("DetailActivity", fields[1]);
+        assertEquals(FrameMonitor.INTERACTION_TRANSITION, fields[2]);
+        assertEquals("2", fields[3]);
+        assertEquals("1", fields[4]);
+        assertEquals("Error: the mean should be in microseconds", "20000", fields[5]);
+        assertEquals("30000", fields[6]);
+    }
+
+    public void testDisabledMonitorRecordsNothing() {
+        FrameMonitor monitor = new FrameMonitor(false);
+        monitor.begin("ForecastFragment", FrameMonitor.INTERACTION_SCROLL);
+        monitor.onFrame(40 * MILLIS);
+        monitor.end("ForecastFragment", FrameMonitor.INTERACTION_SCROLL);
+        assertTrue(monitor.getHistograms().isEmpty());
+        monitor.export(mContext);
+    }
+}
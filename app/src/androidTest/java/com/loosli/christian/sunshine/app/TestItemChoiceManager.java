@@ -0,0 +1,136 @@
+package com.loosli.christian.sunshine.app;
+
+import android.database.MatrixCursor;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+
+import com.loosli.christian.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+public class TestItemChoiceManager extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // Items are their own ids, like forecast rows are identified by their date
+    private static class IdAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
+            implements ItemChoiceManager.PositionIndex {
+        final List<Long> mIds = new ArrayList<Long>();
+        final HashMap<Long, Integer> mPositions = new HashMap<Long, Integer>();
+        int mLookups;
+
+        IdAdapter() {
+            setHasStableIds(true);
+        }
+
+        void setIds(Long... ids) {
+            mIds.clear();
+            mIds.addAll(Arrays.asList(ids));
+            mPositions.clear();
+            for (int i = 0; i < mIds.size(); i++) {
+                mPositions.put(mIds.get(i), i);
+            }
+        }
+
+        @Override
+        public int getPositionForId(long id) {
+            mLookups++;
+            Integer position = mPositions.get(id);
+            return position != null ? position : RecyclerView.NO_POSITION;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mIds.get(position);
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getItemCount() {
+            return mIds.size();
+        }
+    }
+
+    public void testSelectionFollowsId() {
+        IdAdapter adapter = new IdAdapter();
+        adapter.setIds(10L, 20L, 30L);
+        ItemChoiceManager icm = new ItemChoiceManager(adapter);
+        icm.setChoiceMode(AbsListView.CHOICE_MODE_SINGLE);
+        icm.mCheckStates.put(1, true);
+        icm.mCheckedIdStates.put(20L, 1);
+
+        // Two items arrive in front of the selected one
+        adapter.setIds(0L, 5L, 10L, 20L, 30L);
+        adapter.notifyItemRangeInserted(0, 2);
+        assertFalse(icm.isItemChecked(1));
+        assertTrue("Error: the selection didn't follow its item", icm.isItemChecked(3));
+        assertEquals(3, icm.getSelectedItemPosition());
+        assertTrue("Error: the position index wasn't used", adapter.mLookups > 0);
+
+        // A refresh that keeps the item, far from where it was
+        Long[] ids = new Long[100];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i == 80 ? 20L : 1000L + i;
+        }
+        adapter.setIds(ids);
+        adapter.notifyDataSetChanged();
+        assertEquals(80, icm.getSelectedItemPosition());
+
+        // The selected item goes away
+        adapter.setIds(10L, 30L);
+        adapter.notifyItemRangeRemoved(1, 1);
+        assertEquals(RecyclerView.NO_POSITION, icm.getSelectedItemPosition());
+        assertEquals(0, icm.mCheckedIdStates.size());
+    }
+
+    public void testForecastAdapterIds() {
+        ForecastAdapter adapter = new ForecastAdapter(mContext, null, new View(mContext),
+                AbsListView.CHOICE_MODE_SINGLE);
+        assertTrue(adapter.hasStableIds());
+
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                WeatherContract.WeatherEntry._ID,
+                WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+                WeatherContract.LocationEntry.COLUMN_CITY_NAME
+        });
+        for (int i = 0; i < 7; i++) {
+            cursor.addRow(new Object[]{i + 1, today + i * DAY_IN_MILLIS, "Clear", 20, 10,
+                    "99705", 800, 64.7488, -147.353, "North Pole"});
+        }
+        adapter.swapCursor(cursor);
+
+        for (int i = 0; i < 7; i++) {
+            long date = today + i * DAY_IN_MILLIS;
+            assertEquals("Error: item ids should be the dates", date, adapter.getItemId(i));
+            assertEquals(i, adapter.getPositionForId(date));
+        }
+        assertEquals(RecyclerView.NO_POSITION, adapter.getPositionForId(today - DAY_IN_MILLIS));
+
+        adapter.swapCursor(null);
+        assertEquals(RecyclerView.NO_POSITION, adapter.getPositionForId(today));
+        cursor.close();
+    }
+}
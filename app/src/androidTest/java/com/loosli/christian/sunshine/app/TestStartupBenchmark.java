@@ -0,0 +1,117 @@
+package com.loosli.christian.sunshine.app;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import com.loosli.christian.sunshine.app.data.WeatherContract;
+import com.loosli.christian.sunshine.app.utils.PollingCheck;
+
+public class TestStartupBenchmark extends ActivityInstrumentationTestCase2<MainActivity> {
+
+    public static final String LOG_TAG = TestStartupBenchmark.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int DAYS = 14;
+    private static final int BENCHMARK_RUNS = 5;
+    private static final long FIRST_FRAME_TIMEOUT = 5000;
+
+    public TestStartupBenchmark() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        insertForecast();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ForecastFragment.sPreInflateRows = true;
+        super.tearDown();
+    }
+
+    // The list only draws rows when the preferred location has a forecast
+    private void insertForecast() {
+        String locationSetting = Utility.getPreferredLocation(getInstrumentation().getTargetContext());
+        Cursor cursor = getInstrumentation().getTargetContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting}, null);
+        assertNotNull(cursor);
+        long locationId;
+        if (cursor.moveToFirst()) {
+            locationId = cursor.getLong(0);
+        } else {
+            ContentValues location = new ContentValues();
+            location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+            location.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "North Pole");
+            location.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 64.7488);
+            location.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -147.353);
+            locationId = Long.parseLong(getInstrumentation().getTargetContext().getContentResolver()
+                    .insert(WeatherContract.LocationEntry.CONTENT_URI, location)
+                    .getLastPathSegment());
+        }
+        cursor.close();
+
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] days = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            ContentValues weather = new ContentValues();
+            weather.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            weather.put(WeatherContract.WeatherEntry.COLUMN_DATE, today + i * DAY_IN_MILLIS);
+            weather.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 1.1);
+            weather.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            weather.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1.3);
+            weather.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 20 + i);
+            weather.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 10 - i);
+            weather.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+            weather.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            weather.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800);
+            days[i] = weather;
+        }
+        getInstrumentation().getTargetContext().getContentResolver()
+                .bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, days);
+    }
+
+    // Launches MainActivity and returns the time to its first frame of forecast rows
+    private long launchAndMeasure() {
+        MainActivity activity = getActivity();
+        final ForecastFragment fragment = (ForecastFragment) activity.getSupportFragmentManager()
+                .findFragmentById(R.id.fragment_forecast);
+        new PollingCheck(FIRST_FRAME_TIMEOUT) {
+            @Override
+            protected boolean check() {
+                return fragment.getFirstFrameNanos() >= 0;
+            }
+        }.run();
+        long firstFrameNanos = fragment.getFirstFrameNanos();
+
+        activity.finish();
+        getInstrumentation().waitForIdleSync();
+        setActivity(null);
+        return firstFrameNanos;
+    }
+
+    /*
+        Time from onCreateView of the forecast list to its first frame with rows, with the rows
+        inflated on the main thread, and with them inflated in the background while the loader
+        runs.  The first launch of each kind warms up the process and is not counted.
+     */
+    public void testTimeToFirstFrame() {
+        long[] nanos = new long[2];
+        for (int preInflate = 0; preInflate < 2; preInflate++) {
+            ForecastFragment.sPreInflateRows = preInflate == 1;
+            launchAndMeasure();
+            for (int run = 0; run < BENCHMARK_RUNS; run++) {
+                nanos[preInflate] += launchAndMeasure();
+            }
+            nanos[preInflate] /= BENCHMARK_RUNS;
+        }
+        Log.d(LOG_TAG, "Time to the first forecast frame: inflating on the main thread " +
+                nanos[0] / 1000 + "us, inflated ahead of time " + nanos[1] / 1000 + "us");
+    }
+}
@@ -0,0 +1,56 @@
+package com.loosli.christian.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+public class TestWeatherConditions extends AndroidTestCase {
+
+    public void testMappings() {
+        assertEquals(R.drawable.ic_storm, Utility.getIconResourceForWeatherCondition(211));
+        assertEquals(R.drawable.art_light_rain, Utility.getArtResourceForWeatherCondition(300));
+        assertEquals(R.drawable.ic_rain, Utility.getIconResourceForWeatherCondition(522));
+        assertEquals(R.drawable.art_snow, Utility.getArtResourceForWeatherCondition(511));
+        assertEquals(R.drawable.ic_fog, Utility.getIconResourceForWeatherCondition(741));
+        assertEquals(R.drawable.ic_clear, Utility.getIconResourceForWeatherCondition(800));
+        assertEquals(R.drawable.art_clouds, Utility.getArtResourceForWeatherCondition(804));
+        assertTrue(Utility.getImageUrlForWeatherCondition(601).endsWith("Fresh_snow.JPG"));
+        assertEquals(mContext.getString(R.string.condition_2xx),
+                Utility.getStringForWeatherCondition(mContext, 232));
+        assertEquals(mContext.getString(R.string.condition_962),
+                Utility.getStringForWeatherCondition(mContext, 962));
+    }
+
+    public void testDustIsAStormEverywhere() {
+        for (int weatherId : new int[]{761, 781}) {
+            assertEquals(WeatherConditions.DUST_STORM, WeatherConditions.getGroup(weatherId));
+            assertEquals(R.drawable.ic_storm, Utility.getIconResourceForWeatherCondition(weatherId));
+            assertEquals(R.drawable.art_storm, Utility.getArtResourceForWeatherCondition(weatherId));
+            assertTrue(Utility.getArtUrlForWeatherCondition(mContext, weatherId).contains("storm"));
+            assertTrue(Utility.getImageUrlForWeatherCondition(weatherId).contains("dust"));
+        }
+    }
+
+    public void testEveryGroupIsComplete() {
+        for (int weatherId = WeatherConditions.FIRST_ID; weatherId <= WeatherConditions.LAST_ID;
+             weatherId++) {
+            boolean known = WeatherConditions.getGroup(weatherId) != WeatherConditions.UNKNOWN;
+            assertEquals("Error: icon and condition group disagree for " + weatherId,
+                    known, Utility.getIconResourceForWeatherCondition(weatherId) != -1);
+            assertEquals("Error: art and condition group disagree for " + weatherId,
+                    known, Utility.getArtResourceForWeatherCondition(weatherId) != -1);
+            assertEquals(known, Utility.getArtUrlForWeatherCondition(mContext, weatherId) != null);
+            assertEquals(known, Utility.getImageUrlForWeatherCondition(weatherId) != null);
+        }
+    }
+
+    public void testUnknownConditions() {
+        for (int weatherId : new int[]{-1, 0, 199, 505, 799, 963, 10000}) {
+            assertEquals(WeatherConditions.UNKNOWN, WeatherConditions.getGroup(weatherId));
+            assertEquals(-1, Utility.getIconResourceForWeatherCondition(weatherId));
+            assertEquals(-1, Utility.getArtResourceForWeatherCondition(weatherId));
+            assertNull(Utility.getArtUrlForWeatherCondition(mContext, weatherId));
+            assertNull(Utility.getImageUrlForWeatherCondition(weatherId));
+            assertEquals(mContext.getString(R.string.condition_unknown, weatherId),
+                    Utility.getStringForWeatherCondition(mContext, weatherId));
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.loosli.christian.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.loosli.christian.sunshine.app.data.WeatherContract.LocationEntry;
+import com.loosli.christian.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Tests that ColumnarCursor reads back what SQLite returned, and measures the memory an open
+    forecast cursor keeps with and without it.
+ */
+public class TestColumnarCursor extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestColumnarCursor.class.getSimpleName();
+
+    private static final int FORECAST_DAYS = 14;
+    private static final int OPEN_CURSORS = 20;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    public void testCopyOf() {
+        MatrixCursor source = new MatrixCursor(new String[]{"id", "value", "name"});
+        source.addRow(new Object[]{1L, 2L, "one"});
+        source.addRow(new Object[]{null, 2.5, null});
+        source.addRow(new Object[]{3L, null, 7L});
+
+        Cursor copy = ColumnarCursor.copyOf(source, 3);
+        assertTrue("Error: source should have been copied", copy instanceof ColumnarCursor);
+        assertTrue("Error: source should have been closed", source.isClosed());
+        assertEquals(3, copy.getCount());
+
+        assertTrue(copy.moveToFirst());
+        assertEquals(Cursor.FIELD_TYPE_INTEGER, copy.getType(0));
+        assertEquals(Cursor.FIELD_TYPE_FLOAT, copy.getType(1));
+        assertEquals(2.0, copy.getDouble(1));
+        assertEquals("one", copy.getString(2));
+
+        assertTrue(copy.moveToNext());
+        assertTrue(copy.isNull(0));
+        assertEquals(0, copy.getLong(0));
+        assertEquals(2.5, copy.getDouble(1));
+        assertNull(copy.getString(2));
+
+        assertTrue(copy.moveToNext());
+        assertEquals(3, copy.getInt(0));
+        assertTrue(copy.isNull(1));
+        assertEquals("Error: a string column keeps numbers as text", "7", copy.getString(2));
+        copy.close();
+
+        MatrixCursor large = new MatrixCursor(new String[]{"id"});
+        large.addRow(new Object[]{1L});
+        large.addRow(new Object[]{2L});
+        assertSame("Error: a result above the limit should be returned as it is",
+                large, ColumnarCursor.copyOf(large, 1));
+        large.close();
+    }
+
+    public void testProviderForecast() {
+        insertForecast();
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue("Error: the forecast should be returned as a ColumnarCursor",
+                cursor instanceof ColumnarCursor);
+        assertEquals(FORECAST_DAYS, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        TestUtilities.validateCurrentRecord("Error: forecast row differs from what was inserted",
+                cursor, TestUtilities.createWeatherValues(getLocationRowId()));
+        cursor.close();
+    }
+
+    /*
+        Not a pass/fail benchmark: the heap an open cursor retains is logged so it can be
+        compared between devices.
+     */
+    public void testRetainedHeap() {
+        insertForecast();
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+
+        Cursor[] cursors = new Cursor[OPEN_CURSORS];
+        long before = getUsedHeap();
+        for (int i = 0; i < OPEN_CURSORS; i++) {
+            cursors[i] = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+            assertEquals(FORECAST_DAYS, cursors[i].getCount());
+        }
+        long windowBytes = (getUsedHeap() - before) / OPEN_CURSORS;
+        for (Cursor cursor : cursors) {
+            cursor.close();
+        }
+
+        before = getUsedHeap();
+        for (int i = 0; i < OPEN_CURSORS; i++) {
+            cursors[i] = ColumnarCursor.copyOf(
+                    db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null),
+                    FORECAST_DAYS);
+            assertEquals(FORECAST_DAYS, cursors[i].getCount());
+        }
+        long columnarBytes = (getUsedHeap() - before) / OPEN_CURSORS;
+        for (Cursor cursor : cursors) {
+            cursor.close();
+        }
+        db.close();
+
+        Log.d(LOG_TAG, "Heap retained per open " + FORECAST_DAYS + " day forecast: CursorWindow " +
+                windowBytes + " bytes, ColumnarCursor " + columnarBytes + " bytes");
+    }
+
+    private void insertForecast() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] values = new ContentValues[FORECAST_DAYS];
+        for (int i = 0; i < FORECAST_DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationRowId);
+            values[i].put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + i * 1000 * 60 * 60 * 24);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    private long getLocationRowId() {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        long locationRowId = cursor.getLong(0);
+        cursor.close();
+        return locationRowId;
+    }
+
+    // CursorWindows live on the native heap, the copied arrays on the Java heap
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return Debug.getNativeHeapAllocatedSize() + runtime.totalMemory() - runtime.freeMemory();
+    }
+}
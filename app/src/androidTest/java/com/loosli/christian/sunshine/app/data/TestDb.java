@@ -16,11 +16,16 @@
 package com.loosli.christian.sunshine.app.data;
 
 import android.content.ContentValues;
+import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
 import android.test.AndroidTestCase;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 
 public class TestDb extends AndroidTestCase {
 
@@ -55,6 +60,8 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HistoryEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.TodayEntry.TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -102,6 +109,9 @@ public class TestDb extends AndroidTestCase {
         // entry columns
         assertTrue("Error: The database doesn't contain all of the required location entry columns",
                 locationColumnHashSet.isEmpty());
+
+        // A new database starts out with incremental auto_vacuum, so maintenance never VACUUMs
+        assertEquals(2, DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null));
         db.close();
     }
 
@@ -234,4 +244,77 @@ public class TestDb extends AndroidTestCase {
         db.close();
         return locationRowId;
     }
-}
\ No newline at end of file
+
+    /*
+        Opens the weather database at an older schema version, the way an older release of the
+        app would have created it.
+     */
+    static class OldVersionDbHelper extends SQLiteOpenHelper {
+        private final int mVersion;
+
+        OldVersionDbHelper(Context context, int version) {
+            super(context, WeatherDbHelper.DATABASE_NAME, null, version);
+            mVersion = version;
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            WeatherDbHelper.createSchema(db, mVersion);
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+
+    static Map<String, String> readSchema(SQLiteDatabase db) {
+        Map<String, String> schema = new HashMap<String, String>();
+        Cursor c = db.rawQuery("SELECT name, sql FROM sqlite_master " +
+                "WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        while (c.moveToNext()) {
+            schema.put(c.getString(0), c.getString(1));
+        }
+        c.close();
+        return schema;
+    }
+
+    /*
+        Upgrades from every migratable version must keep the stored locations and forecasts, and
+        must end up with exactly the schema a fresh install gets.
+     */
+    public void testUpgradeFromEveryVersion() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        Map<String, String> currentSchema = readSchema(db);
+        db.close();
+
+        for (int version = WeatherDbHelper.FIRST_MIGRATABLE_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            deleteTheDatabase();
+
+            OldVersionDbHelper oldHelper = new OldVersionDbHelper(mContext, version);
+            db = oldHelper.getWritableDatabase();
+            long locationRowId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                    TestUtilities.createNorthPoleLocationValues());
+            assertTrue(locationRowId != -1);
+            ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+            assertTrue(db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues) != -1);
+            oldHelper.close();
+
+            WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+            db = dbHelper.getWritableDatabase();
+            assertEquals("Error: upgrade from version " + version + " did not reach the current version",
+                    WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals("Error: upgrade from version " + version + " lost locations",
+                    1, DatabaseUtils.queryNumEntries(db, WeatherContract.LocationEntry.TABLE_NAME));
+
+            Cursor weatherCursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    null, null, null, null, null, null);
+            TestUtilities.validateCursor("Error: upgrade from version " + version + " lost forecasts",
+                    weatherCursor, weatherValues);
+
+            assertEquals("Error: upgrade from version " + version + " produced a different schema",
+                    currentSchema, readSchema(db));
+            dbHelper.close();
+        }
+    }
+}
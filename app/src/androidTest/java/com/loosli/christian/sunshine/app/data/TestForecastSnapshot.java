@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.loosli.christian.sunshine.app.data;
+
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.loosli.christian.sunshine.app.data.WeatherContract.LocationEntry;
+import com.loosli.christian.sunshine.app.data.WeatherContract.TodayEntry;
+import com.loosli.christian.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class TestForecastSnapshot extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int DAYS = 3;
+
+    private static final String[] PROJECTION = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            LocationEntry.COLUMN_CITY_NAME,
+            WeatherEntry.COLUMN_HUMIDITY
+    };
+
+    @Override
+    protected void tearDown() throws Exception {
+        ForecastSnapshot.getFile(mContext).delete();
+        super.tearDown();
+    }
+
+    public void testRoundTrip() {
+        writeSnapshot();
+
+        ForecastSnapshot snapshot = ForecastSnapshot.read(mContext, TestUtilities.TEST_LOCATION);
+        assertNotNull("Error: the snapshot could not be read back", snapshot);
+        assertEquals(DAYS, snapshot.getDayCount());
+
+        Cursor cursor = snapshot.toCursor(PROJECTION, TestUtilities.TEST_DATE + DAY_IN_MILLIS);
+        assertEquals("Error: days before the start date should be left out",
+                DAYS - 1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        long date = TestUtilities.TEST_DATE + DAY_IN_MILLIS;
+        assertEquals("Error: _id should be the date", date, cursor.getLong(0));
+        assertEquals(date, cursor.getLong(1));
+        assertEquals("Asteroids 1", cursor.getString(2));
+        assertEquals(76.0, cursor.getDouble(3));
+        assertEquals("North Pole \u2744", cursor.getString(4));
+        assertTrue("Error: a column the snapshot doesn't have should be null", cursor.isNull(5));
+        cursor.close();
+
+        Bundle today = snapshot.getToday(TestUtilities.TEST_DATE + 2 * DAY_IN_MILLIS);
+        assertEquals(321, today.getInt(TodayEntry.COLUMN_WEATHER_ID));
+        assertEquals("Asteroids 2", today.getString(TodayEntry.COLUMN_SHORT_DESC));
+        assertEquals(64.7772, today.getDouble(TodayEntry.COLUMN_COORD_LAT));
+        assertNull(snapshot.getToday(TestUtilities.TEST_DATE + DAYS * DAY_IN_MILLIS));
+    }
+
+    public void testOtherLocation() {
+        writeSnapshot();
+        assertNull("Error: a snapshot of another location should not be returned",
+                ForecastSnapshot.read(mContext, "94043"));
+    }
+
+    public void testCorrupted() throws IOException {
+        writeSnapshot();
+        File file = ForecastSnapshot.getFile(mContext);
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(randomAccessFile.length() - 1);
+        int last = randomAccessFile.read();
+        randomAccessFile.seek(randomAccessFile.length() - 1);
+        randomAccessFile.write(last ^ 0xff);
+        randomAccessFile.close();
+        assertNull("Error: a snapshot failing its checksum should not be returned",
+                ForecastSnapshot.read(mContext, TestUtilities.TEST_LOCATION));
+
+        writeSnapshot();
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(randomAccessFile.length() - 8);
+        randomAccessFile.close();
+        assertNull("Error: a truncated snapshot should not be returned",
+                ForecastSnapshot.read(mContext, TestUtilities.TEST_LOCATION));
+    }
+
+    private void writeSnapshot() {
+        ForecastSnapshot.Builder builder = new ForecastSnapshot.Builder(
+                TestUtilities.TEST_LOCATION, "North Pole \u2744", 64.7772, -147.3550);
+        for (int i = 0; i < DAYS; i++) {
+            builder.addDay(TestUtilities.TEST_DATE + i * DAY_IN_MILLIS, 321, "Asteroids " + i,
+                    75 + i, 65 - i);
+        }
+        assertTrue("Error: the snapshot was not written", builder.write(mContext));
+        assertFalse("Error: the temporary file was left behind",
+                new File(ForecastSnapshot.getFile(mContext).getPath() + ".tmp").exists());
+    }
+}
@@ -16,20 +16,40 @@
 package com.loosli.christian.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.loosli.christian.sunshine.app.BuildConfig;
+import com.loosli.christian.sunshine.app.EpochDays;
+import com.loosli.christian.sunshine.app.data.WeatherContract.HistoryEntry;
 import com.loosli.christian.sunshine.app.data.WeatherContract.LocationEntry;
+import com.loosli.christian.sunshine.app.data.WeatherContract.SlowQueryEntry;
+import com.loosli.christian.sunshine.app.data.WeatherContract.TodayEntry;
 import com.loosli.christian.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -56,6 +76,11 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                HistoryEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 LocationEntry.CONTENT_URI,
                 null,
@@ -513,4 +538,772 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
-}
\ No newline at end of file
+
+    // Inserts a location and its forecast in a single batch, with the weather rows picking up
+    // the new location id through a back reference.  A failing batch must leave no rows behind.
+    public void testApplyBatch() throws RemoteException, OperationApplicationException {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(0);
+        for (ContentValues values : weatherValues) {
+            values.remove(WeatherEntry.COLUMN_LOC_KEY);
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(operations.size(), results.length);
+        long locationRowId = ContentUris.parseId(results[0].uri);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationRowId)},
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals("Error: batch did not insert every weather row",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+
+        deleteAllRecordsFromProvider();
+
+        // The second weather insert is missing its NOT NULL columns, so the whole batch,
+        // including the location insert before it, has to be rolled back.
+        operations.clear();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(weatherValues[0])
+                .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                .build());
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValue(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE)
+                .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: an invalid batch should not succeed");
+        } catch (android.database.SQLException e) {
+            // expected
+        }
+
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: failed batch left a location behind", 0, cursor.getCount());
+        cursor.close();
+
+        // The rolled back location id is handed out again; writes to the location that gets it
+        // must not be notified under the setting of the rolled back one.
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "12345");
+        long otherRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, otherLocation));
+
+        TestUtilities.TestContentObserver otherLocationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("12345"), true, otherLocationObserver);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(otherRowId));
+        otherLocationObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(otherLocationObserver);
+    }
+
+    // The sync archives past days in the same batch as the new forecast: either both are
+    // committed, or past days stay in the forecast and history is left alone.
+    public void testArchiveInBatch() throws RemoteException, OperationApplicationException {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+        final int pastDays = 5;
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue(cursor.moveToPosition(pastDays));
+        long today = cursor.getLong(0);
+        cursor.close();
+
+        ContentValues newDay = new ContentValues(weatherValues[weatherValues.length - 1]);
+        newDay.put(WeatherEntry.COLUMN_DATE,
+                today + BULK_INSERT_RECORDS_TO_INSERT * WeatherArchiver.DAY_IN_MILLIS);
+        ContentProviderOperation archive = ContentProviderOperation
+                .newDelete(WeatherEntry.ARCHIVE_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " < ?",
+                        new String[]{Long.toString(today)})
+                .build();
+
+        // A batch that fails after the archive step rolls the archiving back as well
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(archive);
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValue(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: an invalid batch should not succeed");
+        } catch (android.database.SQLException e) {
+            // expected
+        }
+        assertRowCount(WeatherEntry.CONTENT_URI, BULK_INSERT_RECORDS_TO_INSERT);
+        assertRowCount(HistoryEntry.CONTENT_URI, 0);
+
+        operations.clear();
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(newDay)
+                .build());
+        operations.add(archive);
+        ContentProviderResult[] results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        assertEquals(pastDays, results[1].count.intValue());
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - pastDays + 1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: a past day is left in the forecast", today, cursor.getLong(0));
+        cursor.close();
+        assertRowCount(HistoryEntry.CONTENT_URI, pastDays);
+    }
+
+    private void assertRowCount(Uri uri, int expectedRows) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        assertEquals("Error: wrong number of rows in " + uri, expectedRows, cursor.getCount());
+        cursor.close();
+    }
+
+    // Writes to one location must only wake the observers of that location, and a single day
+    // must only wake the observers of that day.
+    public void testScopedNotifications() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "12345");
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, otherLocation);
+
+        long otherDate = TestUtilities.TEST_DATE + 1000 * 60 * 60 * 24;
+        TestUtilities.TestContentObserver locationObserver = TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver dayObserver = TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver otherDayObserver = TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver otherLocationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true, locationObserver);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                true, dayObserver);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, otherDate),
+                true, otherDayObserver);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("12345"), true, otherLocationObserver);
+
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationRowId));
+
+        locationObserver.waitForNotificationOrFail();
+        dayObserver.waitForNotificationOrFail();
+        otherDayObserver.waitForNoNotificationOrFail(500);
+        otherLocationObserver.waitForNoNotificationOrFail(0);
+
+        assertEquals("Error: location observer was notified more than once",
+                1, locationObserver.mChangeCount);
+
+        mContext.getContentResolver().unregisterContentObserver(locationObserver);
+        mContext.getContentResolver().unregisterContentObserver(dayObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherDayObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherLocationObserver);
+
+        // A bulk insert covering many days notifies the location once, and still leaves the
+        // other location alone.
+        locationObserver = TestUtilities.getTestContentObserver();
+        otherLocationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true, locationObserver);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("12345"), true, otherLocationObserver);
+
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        locationObserver.waitForNotificationOrFail();
+        otherLocationObserver.waitForNoNotificationOrFail(500);
+        assertEquals("Error: bulk insert notified the location more than once",
+                1, locationObserver.mChangeCount);
+
+        mContext.getContentResolver().unregisterContentObserver(locationObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherLocationObserver);
+    }
+
+    // Past days move into history one row per day; once they are old enough they are rolled up
+    // into weeks without losing any days.
+    public void testArchive() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        long millisecondsInADay = 1000 * 60 * 60 * 24;
+        Bundle extras = new Bundle();
+        extras.putLong(HistoryEntry.EXTRA_BEFORE_DATE, TestUtilities.TEST_DATE + 5 * millisecondsInADay);
+        extras.putInt(HistoryEntry.EXTRA_RETENTION_DAYS, 3650);
+        Bundle result = mContext.getContentResolver().call(HistoryEntry.CONTENT_URI,
+                HistoryEntry.METHOD_ARCHIVE, null, extras);
+        assertEquals("Error: unexpected number of archived rows",
+                5, result.getInt(HistoryEntry.EXTRA_ARCHIVED_ROWS));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: archived rows were left in the weather table", 5, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, HistoryEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: expected one history row per archived day", 5, cursor.getCount());
+        while (cursor.moveToNext()) {
+            assertEquals(HistoryEntry.RESOLUTION_DAY,
+                    cursor.getInt(cursor.getColumnIndex(HistoryEntry.COLUMN_RESOLUTION)));
+        }
+        cursor.close();
+
+        // Far enough in the future that every archived day is rolled up into its week
+        extras.putLong(HistoryEntry.EXTRA_BEFORE_DATE, TestUtilities.TEST_DATE + 100 * millisecondsInADay);
+        result = mContext.getContentResolver().call(HistoryEntry.CONTENT_URI,
+                HistoryEntry.METHOD_ARCHIVE, null, extras);
+        assertEquals("Error: unexpected number of archived rows",
+                5, result.getInt(HistoryEntry.EXTRA_ARCHIVED_ROWS));
+
+        cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, HistoryEntry.COLUMN_DATE + " ASC");
+        assertTrue("Error: days were not rolled up into weeks",
+                cursor.getCount() < BULK_INSERT_RECORDS_TO_INSERT);
+        int days = 0;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        while (cursor.moveToNext()) {
+            assertEquals(HistoryEntry.RESOLUTION_WEEK,
+                    cursor.getInt(cursor.getColumnIndex(HistoryEntry.COLUMN_RESOLUTION)));
+            days += cursor.getInt(cursor.getColumnIndex(HistoryEntry.COLUMN_DAYS));
+            min = Math.min(min, cursor.getDouble(cursor.getColumnIndex(HistoryEntry.COLUMN_MIN_TEMP)));
+            max = Math.max(max, cursor.getDouble(cursor.getColumnIndex(HistoryEntry.COLUMN_MAX_TEMP)));
+            assertEquals(321, cursor.getInt(cursor.getColumnIndex(HistoryEntry.COLUMN_WEATHER_ID)));
+        }
+        cursor.close();
+        assertEquals("Error: days were lost while rolling up", BULK_INSERT_RECORDS_TO_INSERT, days);
+        assertEquals(65.0 - (BULK_INSERT_RECORDS_TO_INSERT - 1), min);
+        assertEquals(75.0 + (BULK_INSERT_RECORDS_TO_INSERT - 1), max);
+
+        // A short retention drops everything
+        extras.putInt(HistoryEntry.EXTRA_RETENTION_DAYS, 1);
+        mContext.getContentResolver().call(HistoryEntry.CONTENT_URI,
+                HistoryEntry.METHOD_ARCHIVE, null, extras);
+        cursor = mContext.getContentResolver().query(HistoryEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: history older than the retention period was kept", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    // Weeks and months start at local midnight like the dates they roll up.  In Zurich local
+    // midnight is the evening before in UTC, which must not move a day into the previous week.
+    // A week across two months is split between them, so that each month gets its own days.
+    public void testArchiveInLocalTime() {
+        TimeZone timeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Zurich"));
+        EpochDays.resetTimeZone();
+        try {
+            // Thursday September 29th to Tuesday October 4th, 2016
+            Calendar calendar = new GregorianCalendar(2016, Calendar.OCTOBER, 1);
+            long october1 = calendar.getTimeInMillis();
+            calendar.set(Calendar.DAY_OF_MONTH, 3);
+            long october3 = calendar.getTimeInMillis();
+            calendar.set(Calendar.MONTH, Calendar.SEPTEMBER);
+            calendar.set(Calendar.DAY_OF_MONTH, 26);
+            long september26 = calendar.getTimeInMillis();
+            calendar.set(Calendar.DAY_OF_MONTH, 1);
+            long september1 = calendar.getTimeInMillis();
+
+            assertEquals(october1, WeatherArchiver.getMonthStart(october3));
+            assertEquals(october1, WeatherArchiver.getMonthStart(october1));
+            assertEquals(september26, WeatherArchiver.getWeekStart(october1));
+            assertEquals(october3, WeatherArchiver.getWeekStart(october3));
+
+            long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+            ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+            ContentValues[] days = new ContentValues[6];
+            for (int i = 0; i < days.length; i++) {
+                days[i] = weatherValues[i];
+                calendar.setTimeInMillis(october1);
+                calendar.add(Calendar.DAY_OF_MONTH, i - 2);
+                days[i].put(WeatherEntry.COLUMN_DATE, calendar.getTimeInMillis());
+            }
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+
+            // Late enough to roll the days up into weeks, too early for months
+            calendar.setTimeInMillis(october1);
+            calendar.add(Calendar.DAY_OF_MONTH, 60);
+            Bundle extras = new Bundle();
+            extras.putLong(HistoryEntry.EXTRA_BEFORE_DATE, calendar.getTimeInMillis());
+            extras.putInt(HistoryEntry.EXTRA_RETENTION_DAYS, 3650);
+            mContext.getContentResolver().call(HistoryEntry.CONTENT_URI,
+                    HistoryEntry.METHOD_ARCHIVE, null, extras);
+            assertHistory(new long[]{september26, october1, october3}, new int[]{2, 2, 2});
+
+            // Late enough for months.  The days of September keep September's temperatures.
+            calendar.setTimeInMillis(october1);
+            calendar.add(Calendar.DAY_OF_MONTH, 300);
+            extras.putLong(HistoryEntry.EXTRA_BEFORE_DATE, calendar.getTimeInMillis());
+            mContext.getContentResolver().call(HistoryEntry.CONTENT_URI,
+                    HistoryEntry.METHOD_ARCHIVE, null, extras);
+            Cursor cursor = assertHistory(new long[]{september1, october1}, new int[]{2, 4});
+            cursor.moveToFirst();
+            assertEquals(HistoryEntry.RESOLUTION_MONTH,
+                    cursor.getInt(cursor.getColumnIndex(HistoryEntry.COLUMN_RESOLUTION)));
+            assertEquals(days[1].getAsDouble(WeatherEntry.COLUMN_MIN_TEMP),
+                    cursor.getDouble(cursor.getColumnIndex(HistoryEntry.COLUMN_MIN_TEMP)));
+            assertEquals(days[1].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    cursor.getDouble(cursor.getColumnIndex(HistoryEntry.COLUMN_MAX_TEMP)));
+            cursor.close();
+        } finally {
+            TimeZone.setDefault(timeZone);
+            EpochDays.resetTimeZone();
+        }
+    }
+
+    // Checks the dates and days of the test location's history; the cursor is left open
+    private Cursor assertHistory(long[] expectedDates, int[] expectedDays) {
+        Cursor cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, HistoryEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: wrong number of history rows", expectedDates.length, cursor.getCount());
+        for (int i = 0; i < expectedDates.length; i++) {
+            assertTrue(cursor.moveToNext());
+            assertEquals(expectedDates[i],
+                    cursor.getLong(cursor.getColumnIndex(HistoryEntry.COLUMN_DATE)));
+            assertEquals(expectedDays[i],
+                    cursor.getInt(cursor.getColumnIndex(HistoryEntry.COLUMN_DAYS)));
+        }
+        return cursor;
+    }
+
+    // The today summary follows every write to the forecast, without anyone asking for it.
+    public void testTodaySummary() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        Uri todayUri = TodayEntry.buildTodayUri(TestUtilities.TEST_LOCATION);
+
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        long millisecondsInADay = 1000 * 60 * 60 * 24;
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        for (int i = 0; i < weatherValues.length; i++) {
+            // Start yesterday, which must not end up in the summary
+            weatherValues[i].put(WeatherEntry.COLUMN_DATE, today + (i - 1) * millisecondsInADay);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        ContentValues expected = new ContentValues();
+        expected.put(TodayEntry.COLUMN_DATE, today);
+        expected.put(TodayEntry.COLUMN_MAX_TEMP, weatherValues[1].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP));
+        expected.put(TodayEntry.COLUMN_MIN_TEMP, weatherValues[1].getAsDouble(WeatherEntry.COLUMN_MIN_TEMP));
+        expected.put(TodayEntry.COLUMN_CITY_NAME, "North Pole");
+        Cursor cursor = mContext.getContentResolver().query(todayUri, null, null, null, null);
+        assertEquals("Error: expected a single summary row", 1, cursor.getCount());
+        TestUtilities.validateCursor("Error validating the today summary after bulk insert",
+                cursor, expected);
+
+        TestUtilities.TestContentObserver todayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(todayUri, true, todayObserver);
+
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(WeatherEntry.COLUMN_MAX_TEMP, 99.0);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, updatedValues,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(today)});
+        todayObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(todayObserver);
+
+        expected.put(TodayEntry.COLUMN_MAX_TEMP, 99.0);
+        cursor = mContext.getContentResolver().query(todayUri, null, null, null, null);
+        TestUtilities.validateCursor("Error validating the today summary after update",
+                cursor, expected);
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        cursor = mContext.getContentResolver().query(todayUri, null, null, null, null);
+        assertEquals("Error: summary outlived its forecast", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    // After midnight the stored summary is a day behind; reads work around it without writing.
+    public void testStaleTodaySummary() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        long millisecondsInADay = 1000 * 60 * 60 * 24;
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        for (int i = 0; i < weatherValues.length; i++) {
+            weatherValues[i].put(WeatherEntry.COLUMN_DATE, today + (i - 1) * millisecondsInADay);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        // As if the summary had been written yesterday
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        ContentValues staleValues = new ContentValues();
+        staleValues.put(TodayEntry.COLUMN_DATE, today - millisecondsInADay);
+        db.update(TodayEntry.TABLE_NAME, staleValues, null, null);
+
+        ContentValues expected = new ContentValues();
+        expected.put(TodayEntry.COLUMN_DATE, today);
+        expected.put(TodayEntry.COLUMN_MAX_TEMP, weatherValues[1].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP));
+        expected.put(TodayEntry.COLUMN_CITY_NAME, "North Pole");
+        Cursor cursor = mContext.getContentResolver().query(
+                TodayEntry.buildTodayUri(TestUtilities.TEST_LOCATION), null, null, null, null);
+        TestUtilities.validateCursor("Error validating the stale today summary", cursor, expected);
+        Bundle todayResult = mContext.getContentResolver().call(TodayEntry.CONTENT_URI,
+                TodayEntry.METHOD_GET_TODAY, TestUtilities.TEST_LOCATION, null);
+        assertEquals(today, todayResult.getLong(TodayEntry.COLUMN_DATE));
+
+        assertEquals("Error: reading the summary wrote it", today - millisecondsInADay,
+                DatabaseUtils.longForQuery(db, "SELECT " + TodayEntry.COLUMN_DATE + " FROM " +
+                        TodayEntry.TABLE_NAME, null));
+        db.close();
+    }
+
+    public void testKeysetPages() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        Uri forecastUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        long afterDate = Long.MIN_VALUE;
+        int pageSize = 4;
+        int rows = 0;
+        while (true) {
+            Cursor page = mContext.getContentResolver().query(
+                    WeatherContract.buildPageUri(forecastUri, afterDate, pageSize),
+                    new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+            assertTrue("Error: page larger than its limit", page.getCount() <= pageSize);
+            if (!page.moveToFirst()) {
+                page.close();
+                break;
+            }
+            do {
+                assertEquals("Error: pages skipped or repeated a day",
+                        weatherValues[rows].getAsLong(WeatherEntry.COLUMN_DATE).longValue(),
+                        page.getLong(0));
+                afterDate = page.getLong(0);
+                rows++;
+            } while (page.moveToNext());
+            page.close();
+        }
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, rows);
+    }
+
+    public void testSlowQueryLog() {
+        mContext.getContentResolver().delete(SlowQueryEntry.CONTENT_URI, null, null);
+        // Log everything
+        mContext.getContentResolver().call(SlowQueryEntry.CONTENT_URI,
+                SlowQueryEntry.METHOD_SET_THRESHOLD, "0", null);
+        try {
+            mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                    TestUtilities.createNorthPoleLocationValues());
+            mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                    LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    new String[]{TestUtilities.TEST_LOCATION}, null).close();
+
+            Cursor cursor = mContext.getContentResolver().query(SlowQueryEntry.CONTENT_URI,
+                    null, null, null, null);
+            assertTrue("Error: nothing was logged", cursor.moveToFirst());
+            // Newest first
+            assertEquals(SlowQueryEntry.OPERATION_QUERY, cursor.getString(
+                    cursor.getColumnIndex(SlowQueryEntry.COLUMN_OPERATION)));
+            assertEquals(WeatherProvider.LOCATION, cursor.getInt(
+                    cursor.getColumnIndex(SlowQueryEntry.COLUMN_MATCH)));
+            assertEquals(1, cursor.getInt(cursor.getColumnIndex(SlowQueryEntry.COLUMN_ROWS)));
+            assertTrue(cursor.moveToNext());
+            assertEquals(SlowQueryEntry.OPERATION_INSERT, cursor.getString(
+                    cursor.getColumnIndex(SlowQueryEntry.COLUMN_OPERATION)));
+            cursor.close();
+
+            // What adb shell dumpsys activity provider prints
+            ContentProviderClient client = mContext.getContentResolver()
+                    .acquireContentProviderClient(SlowQueryEntry.CONTENT_URI);
+            StringWriter dump = new StringWriter();
+            PrintWriter writer = new PrintWriter(dump);
+            client.getLocalContentProvider().dump(null, writer, new String[0]);
+            writer.flush();
+            client.release();
+            assertTrue("Error: the dump is missing the insert",
+                    dump.toString().contains(SlowQueryEntry.OPERATION_INSERT + " " +
+                            LocationEntry.CONTENT_URI));
+        } finally {
+            mContext.getContentResolver().call(SlowQueryEntry.CONTENT_URI,
+                    SlowQueryEntry.METHOD_SET_THRESHOLD,
+                    Long.toString(BuildConfig.SLOW_QUERY_THRESHOLD_MS), null);
+        }
+
+        mContext.getContentResolver().delete(SlowQueryEntry.CONTENT_URI, null, null);
+        Cursor cursor = mContext.getContentResolver().query(SlowQueryEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: the log was not cleared", 0, cursor.getCount());
+        cursor.close();
+
+        for (String threshold : new String[]{null, "", "slow", "-1"}) {
+            try {
+                mContext.getContentResolver().call(SlowQueryEntry.CONTENT_URI,
+                        SlowQueryEntry.METHOD_SET_THRESHOLD, threshold, null);
+                fail("Error: accepted the threshold " + threshold);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /*
+        Deletes leave free pages behind; maintenance should hand them back to the file system.
+     */
+    public void testMaintenance() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_MAINTAIN, null, null);
+        assertNotNull("Error: maintenance returned no page counts", result);
+        assertTrue(result.getLong(WeatherContract.EXTRA_PAGE_SIZE) > 0);
+        assertTrue(result.getLong(WeatherContract.EXTRA_PAGES_BEFORE) > 0);
+        assertEquals("Error: free pages were not vacuumed",
+                0, result.getLong(WeatherContract.EXTRA_FREE_PAGES_AFTER));
+        assertTrue("Error: the database grew", result.getLong(WeatherContract.EXTRA_PAGES_AFTER) <=
+                result.getLong(WeatherContract.EXTRA_PAGES_BEFORE));
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        assertEquals("Error: the database should use incremental auto_vacuum", 2,
+                DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null));
+        assertEquals("wal", DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null));
+        db.close();
+    }
+
+    public void testLocationSearch() {
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        ContentValues mountainView = new ContentValues();
+        mountainView.put(LocationEntry.COLUMN_LOCATION_SETTING, "94043");
+        mountainView.put(LocationEntry.COLUMN_CITY_NAME, "Mountain View, US");
+        mountainView.put(LocationEntry.COLUMN_COORD_LAT, 37.3861);
+        mountainView.put(LocationEntry.COLUMN_COORD_LONG, -122.0839);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, mountainView);
+
+        assertSearch("nor", TestUtilities.TEST_LOCATION);
+        assertSearch("Pole, nORTH", TestUtilities.TEST_LOCATION);
+        assertSearch("997", TestUtilities.TEST_LOCATION);
+        assertSearch("mount vi", "94043");
+        assertSearch("us", "94043");
+        assertSearch("zurich");
+        assertSearch("  ");
+
+        ContentValues renamed = new ContentValues();
+        renamed.put(LocationEntry.COLUMN_CITY_NAME, "Santa Claus Village, FI");
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, renamed,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{TestUtilities.TEST_LOCATION});
+        assertSearch("north");
+        assertSearch("santa", TestUtilities.TEST_LOCATION);
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{"94043"});
+        assertSearch("mount");
+    }
+
+    /*
+        Not a pass/fail benchmark: logs the time of a prefix lookup among thousands of locations.
+     */
+    public void testLocationSearchBenchmark() {
+        final int locations = 5000;
+        final int lookups = 200;
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < locations; i++) {
+                values.put(LocationEntry.COLUMN_LOCATION_SETTING, Integer.toString(10000 + i));
+                values.put(LocationEntry.COLUMN_CITY_NAME, "City" + Integer.toString(i, 36) + ", CH");
+                values.put(LocationEntry.COLUMN_COORD_LAT, 0);
+                values.put(LocationEntry.COLUMN_COORD_LONG, 0);
+                db.insert(LocationEntry.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+
+        Uri uri = LocationEntry.buildLocationSearchUri("city1a",
+                LocationEntry.DEFAULT_SEARCH_LIMIT);
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < lookups; i++) {
+            Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+            assertTrue("Error: the prefix should match", cursor.getCount() > 0);
+            cursor.close();
+        }
+        Log.d(LOG_TAG, "Location search among " + locations + " locations: " +
+                (float) (SystemClock.elapsedRealtime() - start) / lookups + "ms per lookup");
+    }
+
+    public void testNearestLocations() {
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        insertLocation("99701", "Fairbanks, US", 64.8378, -147.7164);
+        insertLocation("94043", "Mountain View, US", 37.3861, -122.0839);
+
+        // Fairbanks is some 20km from the North Pole, Mountain View thousands
+        assertNearest(64.7488, -147.353, 10, 10, TestUtilities.TEST_LOCATION);
+        assertNearest(64.8378, -147.7, 50, 10, "99701", TestUtilities.TEST_LOCATION);
+        assertNearest(64.8378, -147.7, 50, 1, "99701");
+        assertNearest(37.39, -122.08, 5000, 10, "94043", TestUtilities.TEST_LOCATION, "99701");
+        assertNearest(47.3769, 8.5417, 100, 10);
+
+        // Moving a location moves it in the index too
+        ContentValues moved = new ContentValues();
+        moved.put(LocationEntry.COLUMN_COORD_LAT, 47.3769);
+        moved.put(LocationEntry.COLUMN_COORD_LONG, 8.5417);
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, moved,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{"94043"});
+        assertNearest(37.39, -122.08, 100, 10);
+        assertNearest(47.3769, 8.5417, 100, 10, "94043");
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{"94043"});
+        assertNearest(47.3769, 8.5417, 100, 10);
+    }
+
+    public void testAdoptNearby() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        weatherValues.put(WeatherEntry.COLUMN_DATE, today);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        final String newLocation = "North Pole Post Office";
+        TestUtilities.TestContentObserver tco = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(newLocation), true, tco);
+        Bundle extras = new Bundle();
+        extras.putDouble(LocationEntry.COLUMN_COORD_LAT, 64.7511);
+        extras.putDouble(LocationEntry.COLUMN_COORD_LONG, -147.3494);
+        Bundle result = mContext.getContentResolver().call(LocationEntry.CONTENT_URI,
+                LocationEntry.METHOD_ADOPT_NEARBY, newLocation, extras);
+        assertNotNull("Error: no stand-in was found", result);
+        assertEquals(TestUtilities.TEST_LOCATION,
+                result.getString(LocationEntry.COLUMN_LOCATION_SETTING));
+        assertTrue(result.getDouble(LocationEntry.COLUMN_DISTANCE) < 1);
+        tco.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(tco);
+
+        // The stand-in's forecast is served for the new location without being copied
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(newLocation), null, null, null, null);
+        assertEquals("Error: the stand-in's forecast is not served", 1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("North Pole", cursor.getString(
+                cursor.getColumnIndex(LocationEntry.COLUMN_CITY_NAME)));
+        assertEquals(321, cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID)));
+        cursor.close();
+        assertNotNull("Error: the stand-in's today summary is not served",
+                mContext.getContentResolver().call(TodayEntry.CONTENT_URI,
+                        TodayEntry.METHOD_GET_TODAY, newLocation, null));
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: the stand-in's forecast was copied", 1, cursor.getCount());
+        cursor.close();
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: a location row was created", 1, cursor.getCount());
+        cursor.close();
+
+        // The sync stores the location's own forecast, which replaces the stand-in's
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, newLocation);
+        locationValues.put(LocationEntry.COLUMN_CITY_NAME, newLocation);
+        long newLocationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues));
+        weatherValues = TestUtilities.createWeatherValues(newLocationRowId);
+        weatherValues.put(WeatherEntry.COLUMN_DATE, today);
+        weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(newLocation), null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(newLocation, cursor.getString(
+                cursor.getColumnIndex(LocationEntry.COLUMN_CITY_NAME)));
+        assertEquals(800, cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID)));
+        cursor.close();
+
+        // Once the location has a forecast there is nothing to stand in for it
+        assertNull(mContext.getContentResolver().call(LocationEntry.CONTENT_URI,
+                LocationEntry.METHOD_ADOPT_NEARBY, newLocation, extras));
+
+        extras.putDouble(LocationEntry.COLUMN_COORD_LAT, 47.3769);
+        extras.putDouble(LocationEntry.COLUMN_COORD_LONG, 8.5417);
+        assertNull("Error: a forecast far away was adopted",
+                mContext.getContentResolver().call(LocationEntry.CONTENT_URI,
+                        LocationEntry.METHOD_ADOPT_NEARBY, "Zurich", extras));
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation("Zurich"), null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    private void insertLocation(String locationSetting, String cityName, double lat, double lon) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(LocationEntry.COLUMN_CITY_NAME, cityName);
+        values.put(LocationEntry.COLUMN_COORD_LAT, lat);
+        values.put(LocationEntry.COLUMN_COORD_LONG, lon);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+    }
+
+    private void assertNearest(double lat, double lon, double radiusKm, int limit,
+                               String... expectedSettings) {
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.buildNearestUri(lat, lon, radiusKm, limit), null, null, null, null);
+        assertEquals("Error: wrong number of locations within " + radiusKm + "km",
+                expectedSettings.length, cursor.getCount());
+        int settingColumn = cursor.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING);
+        int distanceColumn = cursor.getColumnIndex(LocationEntry.COLUMN_DISTANCE);
+        double lastDistance = 0;
+        for (String expectedSetting : expectedSettings) {
+            assertTrue(cursor.moveToNext());
+            assertEquals(expectedSetting, cursor.getString(settingColumn));
+            double distance = cursor.getDouble(distanceColumn);
+            assertTrue("Error: locations are not ordered by distance",
+                    distance >= lastDistance && distance <= radiusKm);
+            lastDistance = distance;
+        }
+        cursor.close();
+    }
+
+    private void assertSearch(String text, String... expectedSettings) {
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationSearchUri(text, LocationEntry.DEFAULT_SEARCH_LIMIT),
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING}, null, null, null);
+        assertEquals("Error: wrong number of locations found for \"" + text + "\"",
+                expectedSettings.length, cursor.getCount());
+        for (String expectedSetting : expectedSettings) {
+            assertTrue(cursor.moveToNext());
+            assertEquals(expectedSetting, cursor.getString(0));
+        }
+        cursor.close();
+    }
+}
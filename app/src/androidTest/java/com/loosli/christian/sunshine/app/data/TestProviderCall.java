@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.loosli.christian.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.loosli.christian.sunshine.app.data.WeatherContract.LocationEntry;
+import com.loosli.christian.sunshine.app.data.WeatherContract.TodayEntry;
+import com.loosli.christian.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Tests the call() fast paths of WeatherProvider against the query() paths they replace.
+ */
+public class TestProviderCall extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestProviderCall.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int FORECAST_DAYS = 14;
+    private static final int BENCHMARK_RUNS = 200;
+
+    private static final String[] TODAY_COLUMNS = {
+            TodayEntry.COLUMN_WEATHER_ID,
+            TodayEntry.COLUMN_SHORT_DESC,
+            TodayEntry.COLUMN_MAX_TEMP,
+            TodayEntry.COLUMN_MIN_TEMP
+    };
+
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        resolver.delete(LocationEntry.CONTENT_URI, null, null);
+
+        Uri locationUri = resolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] weatherValues = new ContentValues[FORECAST_DAYS];
+        for (int i = 0; i < FORECAST_DAYS; i++) {
+            weatherValues[i] = TestUtilities.createWeatherValues(locationRowId);
+            weatherValues[i].put(WeatherEntry.COLUMN_DATE, mToday + i * DAY_IN_MILLIS);
+            weatherValues[i].put(WeatherEntry.COLUMN_MAX_TEMP, 75 + i);
+        }
+        resolver.bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+    }
+
+    public void testGetToday() {
+        Bundle today = mContext.getContentResolver().call(TodayEntry.CONTENT_URI,
+                TodayEntry.METHOD_GET_TODAY, TestUtilities.TEST_LOCATION, null);
+        assertNotNull("Error: no summary for a location with a forecast", today);
+        assertEquals(mToday, today.getLong(TodayEntry.COLUMN_DATE));
+        assertEquals(321, today.getInt(TodayEntry.COLUMN_WEATHER_ID));
+        assertEquals("Asteroids", today.getString(TodayEntry.COLUMN_SHORT_DESC));
+        assertEquals(75.0, today.getDouble(TodayEntry.COLUMN_MAX_TEMP));
+        assertEquals("North Pole", today.getString(TodayEntry.COLUMN_CITY_NAME));
+
+        assertNull("Error: summary returned for an unknown location",
+                mContext.getContentResolver().call(TodayEntry.CONTENT_URI,
+                        TodayEntry.METHOD_GET_TODAY, "nowhere", null));
+    }
+
+    public void testGetForecast() {
+        Bundle extras = new Bundle();
+        extras.putInt(WeatherEntry.EXTRA_DAYS, 3);
+        Bundle forecast = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_GET_FORECAST, TestUtilities.TEST_LOCATION, extras);
+
+        long[] dates = forecast.getLongArray(WeatherEntry.COLUMN_DATE);
+        double[] high = forecast.getDoubleArray(WeatherEntry.COLUMN_MAX_TEMP);
+        assertEquals(3, dates.length);
+        assertEquals(3, forecast.getIntArray(WeatherEntry.COLUMN_WEATHER_ID).length);
+        for (int i = 0; i < dates.length; i++) {
+            assertEquals(mToday + i * DAY_IN_MILLIS, dates[i]);
+            assertEquals(75.0 + i, high[i]);
+        }
+
+        forecast = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_GET_FORECAST, TestUtilities.TEST_LOCATION, null);
+        assertEquals(FORECAST_DAYS, forecast.getLongArray(WeatherEntry.COLUMN_DATE).length);
+    }
+
+    /*
+        Not a pass/fail benchmark: latency and allocations of both paths are logged so they can
+        be compared between devices.
+     */
+    @SuppressWarnings("deprecation")
+    public void testTodayBenchmark() {
+        ContentResolver resolver = mContext.getContentResolver();
+        Uri todayUri = TodayEntry.buildTodayUri(TestUtilities.TEST_LOCATION);
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_RUNS; i++) {
+            Cursor cursor = resolver.query(todayUri, TODAY_COLUMNS, null, null, null);
+            assertTrue(cursor.moveToFirst());
+            cursor.getInt(0);
+            cursor.getString(1);
+            cursor.getDouble(2);
+            cursor.getDouble(3);
+            cursor.close();
+        }
+        long queryNanos = (System.nanoTime() - start) / BENCHMARK_RUNS;
+        int queryAllocs = Debug.getThreadAllocCount() / BENCHMARK_RUNS;
+
+        Debug.resetThreadAllocCount();
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_RUNS; i++) {
+            Bundle today = resolver.call(TodayEntry.CONTENT_URI, TodayEntry.METHOD_GET_TODAY,
+                    TestUtilities.TEST_LOCATION, null);
+            assertNotNull(today);
+            today.getInt(TodayEntry.COLUMN_WEATHER_ID);
+            today.getString(TodayEntry.COLUMN_SHORT_DESC);
+            today.getDouble(TodayEntry.COLUMN_MAX_TEMP);
+            today.getDouble(TodayEntry.COLUMN_MIN_TEMP);
+        }
+        long callNanos = (System.nanoTime() - start) / BENCHMARK_RUNS;
+        int callAllocs = Debug.getThreadAllocCount() / BENCHMARK_RUNS;
+        Debug.stopAllocCounting();
+
+        Log.d(LOG_TAG, "Today summary per read: query " + queryNanos / 1000 + "us, " +
+                queryAllocs + " allocations; call " + callNanos / 1000 + "us, " +
+                callAllocs + " allocations");
+    }
+}
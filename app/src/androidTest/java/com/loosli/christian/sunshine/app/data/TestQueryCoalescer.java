@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.loosli.christian.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.loosli.christian.sunshine.app.data.WeatherContract.LocationEntry;
+import com.loosli.christian.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TestQueryCoalescer extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryCoalescer.class.getSimpleName();
+
+    private static final int THREADS = 5;
+    private static final int ROUNDS = 200;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    public void testSharedResult() throws InterruptedException {
+        final QueryCoalescer coalescer = new QueryCoalescer();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        final QueryCoalescer.Query query = new QueryCoalescer.Query() {
+            @Override
+            public Cursor run() {
+                runs.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                MatrixCursor result = new MatrixCursor(new String[]{"value"});
+                result.addRow(new Object[]{42L});
+                return ColumnarCursor.copyOf(result, 1);
+            }
+        };
+
+        final AtomicReference<Cursor> leaderResult = new AtomicReference<Cursor>();
+        Thread leader = new Thread() {
+            @Override
+            public void run() {
+                leaderResult.set(coalescer.query("key", query));
+            }
+        };
+        leader.start();
+        while (coalescer.getExecutions() == 0) {
+            Thread.sleep(1);
+        }
+        final AtomicReference<Cursor> followerResult = new AtomicReference<Cursor>();
+        Thread follower = new Thread() {
+            @Override
+            public void run() {
+                followerResult.set(coalescer.query("key", query));
+            }
+        };
+        follower.start();
+        // Give the follower time to join before the leader finishes
+        Thread.sleep(100);
+        release.countDown();
+        leader.join();
+        follower.join();
+
+        assertEquals("Error: the query should have run once", 1, runs.get());
+        assertEquals(1, coalescer.getShared());
+        Cursor first = leaderResult.get();
+        Cursor second = followerResult.get();
+        assertNotSame("Error: each caller should get a cursor of its own", first, second);
+        assertTrue(first.moveToFirst());
+        first.close();
+        assertTrue("Error: closing one cursor should not affect the other", second.moveToFirst());
+        assertEquals(42L, second.getLong(0));
+        second.close();
+    }
+
+    public void testInvalidate() throws InterruptedException {
+        final QueryCoalescer coalescer = new QueryCoalescer();
+        final CountDownLatch release = new CountDownLatch(1);
+        final QueryCoalescer.Query blocking = new QueryCoalescer.Query() {
+            @Override
+            public Cursor run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new MatrixCursor(new String[]{"value"});
+            }
+        };
+        Thread leader = new Thread() {
+            @Override
+            public void run() {
+                coalescer.query("key", blocking).close();
+            }
+        };
+        leader.start();
+        while (coalescer.getExecutions() == 0) {
+            Thread.sleep(1);
+        }
+
+        // A write committed while the first query runs; the next caller must not join it
+        coalescer.invalidate();
+        final AtomicInteger runs = new AtomicInteger();
+        coalescer.query("key", new QueryCoalescer.Query() {
+            @Override
+            public Cursor run() {
+                runs.incrementAndGet();
+                return new MatrixCursor(new String[]{"value"});
+            }
+        }).close();
+        assertEquals("Error: a query after invalidate() should run again", 1, runs.get());
+
+        release.countDown();
+        leader.join();
+        assertEquals(2, coalescer.getExecutions());
+        assertEquals(0, coalescer.getShared());
+    }
+
+    /*
+        Several threads query the forecast of today at the same moment, the way the widgets,
+        Muzei, wear and the list do after a sync.  Every cursor has to hold the right row, and
+        the log shows how many SQL executions the provider saved.
+     */
+    public void testProviderStress() throws Exception {
+        final long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationRowId));
+        final Uri uri = WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+
+        ContentProviderClient client =
+                mContext.getContentResolver().acquireContentProviderClient(uri);
+        QueryCoalescer coalescer =
+                ((WeatherProvider) client.getLocalContentProvider()).getQueryCoalescer();
+        int executionsBefore = coalescer.getExecutions();
+        int sharedBefore = coalescer.getShared();
+
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int round = 0; round < ROUNDS; round++) {
+                            barrier.await();
+                            Cursor cursor = mContext.getContentResolver().query(
+                                    uri, null, null, null, null);
+                            TestUtilities.validateCursor("Error: wrong row in a coalesced query",
+                                    cursor, TestUtilities.createWeatherValues(locationRowId));
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                        barrier.reset();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        client.release();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        int queries = THREADS * ROUNDS;
+        int executions = coalescer.getExecutions() - executionsBefore;
+        int shared = coalescer.getShared() - sharedBefore;
+        assertEquals("Error: every query should have run or been shared",
+                queries, executions + shared);
+        Log.d(LOG_TAG, queries + " concurrent queries ran " + executions + " SQL executions, " +
+                shared + " were shared");
+    }
+}
@@ -34,8 +34,20 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    private static final Uri TEST_WEATHER_STATS = WeatherContract.StatsEntry.buildStatsUri(LOCATION_QUERY, TEST_DATE, 0);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/location/search?q=Lon&limit=10"
+    private static final Uri TEST_LOCATION_SEARCH = WeatherContract.LocationEntry.buildLocationSearchUri("Lon", 10);
+    // content://com.example.android.sunshine.app/location/nearest?lat=51.5&long=-0.1&radius_km=10.0&limit=5"
+    private static final Uri TEST_LOCATION_NEAREST = WeatherContract.LocationEntry.buildNearestUri(51.5, -0.1, 10, 5);
+    // content://com.example.android.sunshine.app/today/London, UK"
+    private static final Uri TEST_TODAY_WITH_LOCATION = WeatherContract.TodayEntry.buildTodayUri(LOCATION_QUERY);
+    // content://com.example.android.sunshine.app/history"
+    private static final Uri TEST_HISTORY_DIR = WeatherContract.HistoryEntry.CONTENT_URI;
+    private static final Uri TEST_HISTORY_WITH_LOCATION_DIR = WeatherContract.HistoryEntry.buildHistoryLocation(LOCATION_QUERY);
+    // content://com.example.android.sunshine.app/slow_queries"
+    private static final Uri TEST_SLOW_QUERIES_DIR = WeatherContract.SlowQueryEntry.CONTENT_URI;
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -51,7 +63,21 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR), WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The WEATHER STATS URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_STATS), WeatherProvider.WEATHER_STATS);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION SEARCH URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_SEARCH), WeatherProvider.LOCATION_SEARCH);
+        assertEquals("Error: The LOCATION NEAREST URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_NEAREST), WeatherProvider.LOCATION_NEAREST);
+        assertEquals("Error: The TODAY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_TODAY_WITH_LOCATION), WeatherProvider.TODAY_WITH_LOCATION);
+        assertEquals("Error: The HISTORY URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_DIR), WeatherProvider.HISTORY);
+        assertEquals("Error: The HISTORY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_WITH_LOCATION_DIR), WeatherProvider.HISTORY_WITH_LOCATION);
+        assertEquals("Error: The SLOW QUERIES URI was matched incorrectly.",
+                testMatcher.match(TEST_SLOW_QUERIES_DIR), WeatherProvider.SLOW_QUERIES);
     }
 }
\ No newline at end of file
@@ -107,6 +107,7 @@ public class TestUtilities extends AndroidTestCase {
     static class TestContentObserver extends ContentObserver {
         final HandlerThread mHT;
         boolean mContentChanged;
+        int mChangeCount;
 
         static TestContentObserver getTestContentObserver() {
             HandlerThread ht = new HandlerThread("ContentObserverThread");
@@ -128,6 +129,7 @@ public class TestUtilities extends AndroidTestCase {
         @Override
         public void onChange(boolean selfChange, Uri uri) {
             mContentChanged = true;
+            mChangeCount++;
         }
 
         public void waitForNotificationOrFail() {
@@ -143,6 +145,21 @@ public class TestUtilities extends AndroidTestCase {
             }.run();
             mHT.quit();
         }
+
+        /*
+            Waits for the given time and fails if any notification arrived in the meantime.
+            Notifications are delivered asynchronously, so there is no event to poll for here.
+         */
+        public void waitForNoNotificationOrFail(long waitMillis) {
+            try {
+                Thread.sleep(waitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            assertFalse("Error: observer was notified of a change it does not care about",
+                    mContentChanged);
+            mHT.quit();
+        }
     }
 
     static TestContentObserver getTestContentObserver() {
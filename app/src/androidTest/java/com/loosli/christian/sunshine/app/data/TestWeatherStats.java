@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.loosli.christian.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.loosli.christian.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.loosli.christian.sunshine.app.data.WeatherContract.LocationEntry;
+import com.loosli.christian.sunshine.app.data.WeatherContract.StatsEntry;
+import com.loosli.christian.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Tests the weather/<location>/stats aggregate, and compares it against pulling the rows into
+    Java and aggregating them there.
+ */
+public class TestWeatherStats extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherStats.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long START_DATE = DAY_IN_MILLIS * 16000;
+
+    // Five years of archived days, enough for the difference between the approaches to show
+    private static final int BENCHMARK_HISTORY_DAYS = 5 * 365;
+    private static final int BENCHMARK_RUNS = 5;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    public void testStats() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+
+        // A week of rain in history, then a clear and a stormy forecast day
+        db.insert(HistoryEntry.TABLE_NAME, null, createHistoryValues(locationRowId,
+                HistoryEntry.RESOLUTION_WEEK, START_DATE, 7, 501, -5, 8, 70));
+        ContentValues clearDay = TestUtilities.createWeatherValues(locationRowId);
+        clearDay.put(WeatherEntry.COLUMN_DATE, START_DATE + 7 * DAY_IN_MILLIS);
+        clearDay.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+        clearDay.put(WeatherEntry.COLUMN_MIN_TEMP, 1);
+        clearDay.put(WeatherEntry.COLUMN_MAX_TEMP, 10);
+        clearDay.put(WeatherEntry.COLUMN_HUMIDITY, 50);
+        db.insert(WeatherEntry.TABLE_NAME, null, clearDay);
+        ContentValues stormyDay = new ContentValues(clearDay);
+        stormyDay.put(WeatherEntry.COLUMN_DATE, START_DATE + 8 * DAY_IN_MILLIS);
+        stormyDay.put(WeatherEntry.COLUMN_WEATHER_ID, 211);
+        stormyDay.put(WeatherEntry.COLUMN_MAX_TEMP, 12);
+        stormyDay.put(WeatherEntry.COLUMN_HUMIDITY, 90);
+        db.insert(WeatherEntry.TABLE_NAME, null, stormyDay);
+        db.close();
+
+        Cursor cursor = mContext.getContentResolver().query(
+                StatsEntry.buildStatsUri(TestUtilities.TEST_LOCATION, 0, 0), null, null, null, null);
+        assertEquals("Error: stats should be a single row", 1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(9, getInt(cursor, StatsEntry.COLUMN_DAYS));
+        assertEquals(-5.0, getDouble(cursor, StatsEntry.COLUMN_MIN_TEMP));
+        assertEquals(12.0, getDouble(cursor, StatsEntry.COLUMN_MAX_TEMP));
+        assertEquals((7 * 70 + 50 + 90) / 9.0, getDouble(cursor, StatsEntry.COLUMN_AVG_HUMIDITY), 1e-9);
+        assertEquals(7, getInt(cursor, StatsEntry.COLUMN_RAIN_DAYS));
+        assertEquals(1, getInt(cursor, StatsEntry.COLUMN_CLEAR_DAYS));
+        assertEquals(1, getInt(cursor, StatsEntry.COLUMN_STORM_DAYS));
+        assertEquals(0, getInt(cursor, StatsEntry.COLUMN_SNOW_DAYS));
+        cursor.close();
+
+        // Only the forecast days
+        cursor = mContext.getContentResolver().query(
+                StatsEntry.buildStatsUri(TestUtilities.TEST_LOCATION,
+                        START_DATE + 7 * DAY_IN_MILLIS, START_DATE + 8 * DAY_IN_MILLIS),
+                new String[]{StatsEntry.COLUMN_DAYS, StatsEntry.COLUMN_MIN_TEMP}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: projection was not applied", 2, cursor.getColumnCount());
+        assertEquals(2, getInt(cursor, StatsEntry.COLUMN_DAYS));
+        assertEquals(1.0, getDouble(cursor, StatsEntry.COLUMN_MIN_TEMP));
+        cursor.close();
+
+        // Unknown locations give an empty aggregate rather than no row at all
+        cursor = mContext.getContentResolver().query(
+                StatsEntry.buildStatsUri("nowhere", 0, 0), null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(0, getInt(cursor, StatsEntry.COLUMN_DAYS));
+        cursor.close();
+    }
+
+    // Stats cursors are notified on weather/<location>, and trimming history changes their
+    // aggregate
+    public void testTrimNotifiesStats() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "12345");
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, otherLocation);
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        db.insert(HistoryEntry.TABLE_NAME, null, createHistoryValues(locationRowId,
+                HistoryEntry.RESOLUTION_WEEK, START_DATE, 7, 501, -5, 8, 70));
+        db.close();
+
+        TestUtilities.TestContentObserver statsObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true, statsObserver);
+        TestUtilities.TestContentObserver otherLocationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("12345"), true, otherLocationObserver);
+
+        Bundle extras = new Bundle();
+        extras.putLong(HistoryEntry.EXTRA_BEFORE_DATE, START_DATE + 10 * DAY_IN_MILLIS);
+        extras.putInt(HistoryEntry.EXTRA_RETENTION_DAYS, 1);
+        mContext.getContentResolver().call(HistoryEntry.CONTENT_URI,
+                HistoryEntry.METHOD_ARCHIVE, null, extras);
+
+        statsObserver.waitForNotificationOrFail();
+        otherLocationObserver.waitForNoNotificationOrFail(500);
+        mContext.getContentResolver().unregisterContentObserver(statsObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherLocationObserver);
+    }
+
+    /*
+        Not a pass/fail benchmark: the timings are logged so they can be compared between
+        devices.  It does check that both approaches agree.
+     */
+    public void testStatsBenchmark() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < BENCHMARK_HISTORY_DAYS; i++) {
+                db.insert(HistoryEntry.TABLE_NAME, null, createHistoryValues(locationRowId,
+                        HistoryEntry.RESOLUTION_DAY, START_DATE + i * DAY_IN_MILLIS, 1,
+                        i % 7 == 0 ? 500 : 800, i % 30 - 10, i % 30, 40 + i % 50));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+
+        long sqlTime = 0;
+        long javaTime = 0;
+        double sqlAverage = 0;
+        double javaAverage = 0;
+        for (int run = 0; run < BENCHMARK_RUNS; run++) {
+            long start = SystemClock.elapsedRealtime();
+            Cursor cursor = mContext.getContentResolver().query(
+                    StatsEntry.buildStatsUri(TestUtilities.TEST_LOCATION, 0, 0),
+                    null, null, null, null);
+            assertTrue(cursor.moveToFirst());
+            sqlAverage = getDouble(cursor, StatsEntry.COLUMN_AVG_HUMIDITY);
+            cursor.close();
+            sqlTime += SystemClock.elapsedRealtime() - start;
+
+            start = SystemClock.elapsedRealtime();
+            cursor = mContext.getContentResolver().query(
+                    HistoryEntry.buildHistoryLocation(TestUtilities.TEST_LOCATION),
+                    new String[]{HistoryEntry.COLUMN_DAYS, HistoryEntry.COLUMN_HUMIDITY},
+                    null, null, null);
+            int days = 0;
+            double humidity = 0;
+            while (cursor.moveToNext()) {
+                days += cursor.getInt(0);
+                humidity += cursor.getDouble(1) * cursor.getInt(0);
+            }
+            javaAverage = humidity / days;
+            cursor.close();
+            javaTime += SystemClock.elapsedRealtime() - start;
+        }
+
+        assertEquals("Error: SQL and Java aggregates differ", javaAverage, sqlAverage, 1e-9);
+        Log.d(LOG_TAG, "Aggregating " + BENCHMARK_HISTORY_DAYS + " days: SQL " +
+                sqlTime / BENCHMARK_RUNS + "ms, Java " + javaTime / BENCHMARK_RUNS + "ms");
+    }
+
+    static ContentValues createHistoryValues(long locationRowId, int resolution, long date,
+                                             int days, int weatherId, double min, double max,
+                                             double humidity) {
+        ContentValues values = new ContentValues();
+        values.put(HistoryEntry.COLUMN_LOC_KEY, locationRowId);
+        values.put(HistoryEntry.COLUMN_RESOLUTION, resolution);
+        values.put(HistoryEntry.COLUMN_DATE, date);
+        values.put(HistoryEntry.COLUMN_DAYS, days);
+        values.put(HistoryEntry.COLUMN_WEATHER_ID, weatherId);
+        values.put(HistoryEntry.COLUMN_SHORT_DESC, "Asteroids");
+        values.put(HistoryEntry.COLUMN_MIN_TEMP, min);
+        values.put(HistoryEntry.COLUMN_MAX_TEMP, max);
+        values.put(HistoryEntry.COLUMN_HUMIDITY, humidity);
+        values.put(HistoryEntry.COLUMN_PRESSURE, 1.3);
+        values.put(HistoryEntry.COLUMN_WIND_SPEED, 5.5);
+        values.put(HistoryEntry.COLUMN_DEGREES, 1.1);
+        return values;
+    }
+
+    private static int getInt(Cursor cursor, String column) {
+        return cursor.getInt(cursor.getColumnIndex(column));
+    }
+
+    private static double getDouble(Cursor cursor, String column) {
+        return cursor.getDouble(cursor.getColumnIndex(column));
+    }
+}
@@ -0,0 +1,39 @@
+package com.loosli.christian.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.loosli.christian.sunshine.app.data.WeatherContract.LocationEntry;
+import com.loosli.christian.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestLocationIdCache extends AndroidTestCase {
+
+    private static final String LOCATION_SETTING = "99705";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    // The observer that drops the map may not have run yet when a location inserted right
+    // before is looked up; the lookup must still find it, or the sync inserts it twice.
+    public void testInsertBeforeLookupIsFound() {
+        LocationIdCache cache = new LocationIdCache(mContext.getContentResolver());
+        assertEquals(-1, cache.getLocationId(LOCATION_SETTING));
+
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION_SETTING);
+        values.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        values.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        values.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        long locationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+
+        assertEquals(locationId, cache.getLocationId(LOCATION_SETTING));
+        assertEquals(locationId, cache.getLocationId(LOCATION_SETTING));
+        assertEquals(-1, cache.getLocationId("12345"));
+    }
+}
@@ -1,10 +1,15 @@
 package com.loosli.christian.sunshine.app;
 
+import android.annotation.TargetApi;
+import android.os.Build;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
+import android.transition.Transition;
 
 public class DetailActivity extends AppCompatActivity {
 
+    private static final String LOG_TAG = DetailActivity.class.getSimpleName();
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -28,5 +33,48 @@ public class DetailActivity extends AppCompatActivity {
             // Being here means we are in animation mode
             supportPostponeEnterTransition();
         }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            monitorSharedElementTransition();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        FrameMonitor.get().export(this);
+    }
+
+    // The same transition runs when entering and, reversed, when returning to the list
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void monitorSharedElementTransition() {
+        Transition transition = getWindow().getSharedElementEnterTransition();
+        if (transition == null) {
+            return;
+        }
+        transition.addListener(new Transition.TransitionListener() {
+            @Override
+            public void onTransitionStart(Transition transition) {
+                FrameMonitor.get().begin(LOG_TAG, FrameMonitor.INTERACTION_TRANSITION);
+            }
+
+            @Override
+            public void onTransitionEnd(Transition transition) {
+                FrameMonitor.get().end(LOG_TAG, FrameMonitor.INTERACTION_TRANSITION);
+            }
+
+            @Override
+            public void onTransitionCancel(Transition transition) {
+                FrameMonitor.get().end(LOG_TAG, FrameMonitor.INTERACTION_TRANSITION);
+            }
+
+            @Override
+            public void onTransitionPause(Transition transition) {
+            }
+
+            @Override
+            public void onTransitionResume(Transition transition) {
+            }
+        });
     }
 }
@@ -97,7 +97,16 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             mTransitionAnimation = arguments.getBoolean(DetailFragment.DETAIL_TRANSITION_ANIMATION, false);
         }
 
-        View rootView = inflater.inflate(R.layout.fragment_detail_start, container, false);
+        // In two-pane mode the card is inflated ahead of time, and the next one right after
+        View rootView = null;
+        if (getActivity() instanceof ViewPreInflater.Provider && container != null) {
+            ViewPreInflater preInflater = ((ViewPreInflater.Provider) getActivity()).getViewPreInflater();
+            rootView = preInflater.take(R.layout.fragment_detail_start);
+            preInflater.prepare(R.layout.fragment_detail_start, container, 1);
+        }
+        if (rootView == null) {
+            rootView = inflater.inflate(R.layout.fragment_detail_start, container, false);
+        }
         mIconView = (ImageView) rootView.findViewById(R.id.detail_icon);
         mDateView = (TextView) rootView.findViewById(R.id.detail_date_textview);
         mDescriptionView = (TextView) rootView.findViewById(R.id.detail_forecast_textview);
@@ -0,0 +1,144 @@
+package com.loosli.christian.sunshine.app;
+
+import java.util.TimeZone;
+
+/**
+ * Date arithmetic on epoch days, the number of days since 1970-01-01, in the local time zone.
+ * <p/>
+ * Everything here is plain integer math on a cached {@link TimeZone}, so unlike
+ * {@link android.text.format.Time} or {@link java.util.Calendar} nothing is allocated per call.
+ * The results match what the app computed with Time before: a day starts at local midnight,
+ * and a stored date is the millisecond of that midnight.
+ */
+public final class EpochDays {
+
+    public static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // Julian day number of 1970-01-01
+    public static final int EPOCH_JULIAN_DAY = 2440588;
+
+    // TimeZone.getDefault() returns a new clone on every call, so the zone is looked up once
+    // and again when TimeZoneChangedReceiver hears that it changed
+    private static volatile TimeZone sTimeZone = TimeZone.getDefault();
+
+    private EpochDays() {
+    }
+
+    /**
+     * Picks up a change of the default time zone.
+     */
+    public static void resetTimeZone() {
+        sTimeZone = TimeZone.getDefault();
+    }
+
+    static void setTimeZone(TimeZone timeZone) {
+        sTimeZone = timeZone;
+    }
+
+    /**
+     * @return the local epoch day the instant falls on
+     */
+    public static int fromMillis(long millis) {
+        return fromMillis(millis, sTimeZone.getOffset(millis));
+    }
+
+    /**
+     * @return the epoch day the instant falls on at the given UTC offset
+     */
+    public static int fromMillis(long millis, int offsetMillis) {
+        return (int) floorDiv(millis + offsetMillis, DAY_IN_MILLIS);
+    }
+
+    /**
+     * @return the instant of local midnight starting the epoch day
+     */
+    public static long toMillis(int epochDay) {
+        long localMidnight = epochDay * DAY_IN_MILLIS;
+        TimeZone timeZone = sTimeZone;
+        // The offset at UTC midnight is a first guess; the offset at the instant it points to is
+        // right unless a DST change falls within those few hours
+        int offset = timeZone.getOffset(localMidnight);
+        offset = timeZone.getOffset(localMidnight - offset);
+        return localMidnight - offset;
+    }
+
+    /**
+     * @return the instant of local midnight starting the day the given instant falls on
+     */
+    public static long normalize(long millis) {
+        return toMillis(fromMillis(millis));
+    }
+
+    public static int toJulianDay(int epochDay) {
+        return epochDay + EPOCH_JULIAN_DAY;
+    }
+
+    /**
+     * @return the day of the week, 0 for Sunday to 6 for Saturday
+     */
+    public static int getWeekDay(int epochDay) {
+        // 1970-01-01 was a Thursday
+        return (int) floorMod(epochDay + 4, 7);
+    }
+
+    /*
+        The civil date of an epoch day, after Howard Hinnant's civil_from_days algorithm.  Days
+        are counted in 400 year eras starting on March 1st, which puts leap days at the end of
+        each year.
+     */
+
+    public static int getYear(int epochDay) {
+        long z = epochDay + 719468L;
+        long era = floorDiv(z, 146097);
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = getYearOfEra(dayOfEra);
+        int year = (int) (era * 400) + yearOfEra;
+        return getMonthIndex(dayOfEra, yearOfEra) >= 10 ? year + 1 : year;
+    }
+
+    /**
+     * @return the month, 0 for January to 11 for December
+     */
+    public static int getMonth(int epochDay) {
+        int dayOfEra = getDayOfEra(epochDay);
+        int monthIndex = getMonthIndex(dayOfEra, getYearOfEra(dayOfEra));
+        return monthIndex < 10 ? monthIndex + 2 : monthIndex - 10;
+    }
+
+    /**
+     * @return the day of the month, from 1
+     */
+    public static int getMonthDay(int epochDay) {
+        int dayOfEra = getDayOfEra(epochDay);
+        int yearOfEra = getYearOfEra(dayOfEra);
+        int monthIndex = getMonthIndex(dayOfEra, yearOfEra);
+        return getDayOfYear(dayOfEra, yearOfEra) - (153 * monthIndex + 2) / 5 + 1;
+    }
+
+    private static int getDayOfEra(int epochDay) {
+        long z = epochDay + 719468L;
+        return (int) (z - floorDiv(z, 146097) * 146097);
+    }
+
+    private static int getYearOfEra(int dayOfEra) {
+        return (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    }
+
+    private static int getDayOfYear(int dayOfEra, int yearOfEra) {
+        return dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    }
+
+    // Months counted from March, 0 for March to 11 for February
+    private static int getMonthIndex(int dayOfEra, int yearOfEra) {
+        return (5 * getDayOfYear(dayOfEra, yearOfEra) + 2) / 153;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        return (x % y != 0 && ((x ^ y) < 0)) ? quotient - 1 : quotient;
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+}
@@ -12,25 +12,35 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.loosli.christian.sunshine.app.data.WeatherContract;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
  * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
  */
-public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
+public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder>
+        implements ItemChoiceManager.PositionIndex {
 
-    private static final int VIEW_TYPE_TODAY = 0;
-    private static final int VIEW_TYPE_FUTURE_DAY = 1;
+    static final int VIEW_TYPE_TODAY = 0;
+    static final int VIEW_TYPE_FUTURE_DAY = 1;
 
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
 
     private Cursor mCursor;
+    // The rows of mCursor, formatted for display
+    private List<ForecastRow> mRows = Collections.emptyList();
+    // Item id, the date of the row, -> position; rebuilt whenever mRows changes
+    private final HashMap<Long, Integer> mPositionsById = new HashMap<Long, Integer>();
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
     final private ItemChoiceManager mICM;
+    // Handed to onCreateViewHolder by createViewHolder(RecyclerView, int, View)
+    private View mPreInflatedView;
 
     /**
      * Cache of the children views for a forecast list item.
@@ -57,9 +67,11 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            if (adapterPosition == RecyclerView.NO_POSITION) {
+                // The row is being removed or the adapter is mid-update
+                return;
+            }
+            mClickHandler.onClick(mRows.get(adapterPosition).date, this);
             mICM.onClick(this);
         }
     }
@@ -72,6 +84,8 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mContext = context;
         mClickHandler = dh;
         mEmptyView = emptyView;
+        // Before the ItemChoiceManager registers its observer, after which it can't change
+        setHasStableIds(true);
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
     }
@@ -86,18 +100,12 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     @Override
     public ForecastAdapterViewHolder onCreateViewHolder(ViewGroup viewGroup, int viewType) {
         if ( viewGroup instanceof RecyclerView ) {
-            int layoutId = -1;
-            switch (viewType) {
-                case VIEW_TYPE_TODAY: {
-                    layoutId = R.layout.list_item_forecast_today;
-                    break;
-                }
-                case VIEW_TYPE_FUTURE_DAY: {
-                    layoutId = R.layout.list_item_forecast;
-                    break;
-                }
+            View view = mPreInflatedView;
+            mPreInflatedView = null;
+            if (view == null) {
+                view = LayoutInflater.from(viewGroup.getContext())
+                        .inflate(getLayoutForViewType(viewType), viewGroup, false);
             }
-            View view = LayoutInflater.from(viewGroup.getContext()).inflate(layoutId, viewGroup, false);
             view.setFocusable(true);
             return new ForecastAdapterViewHolder(view);
         } else {
@@ -105,28 +113,38 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         }
     }
 
-    @Override
-    public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
-        int defaultImage;
-        boolean useLongToday;
+    /**
+     * Creates a view holder around a view of {@link #getLayoutForViewType} inflated ahead of
+     * time, ready to be put in the RecycledViewPool of the RecyclerView.
+     */
+    ForecastAdapterViewHolder createViewHolder(RecyclerView recyclerView, int viewType,
+                                               View view) {
+        mPreInflatedView = view;
+        return createViewHolder(recyclerView, viewType);
+    }
 
-        switch (getItemViewType(position)) {
+    static int getLayoutForViewType(int viewType) {
+        switch (viewType) {
             case VIEW_TYPE_TODAY:
-                defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
-                useLongToday = true;
-                break;
+                return R.layout.list_item_forecast_today;
+            case VIEW_TYPE_FUTURE_DAY:
+                return R.layout.list_item_forecast;
             default:
-                defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
-                useLongToday = false;
+                throw new IllegalArgumentException("Unknown view type: " + viewType);
         }
+    }
 
-        if ( Utility.usingLocalGraphics(mContext) ) {
+    @Override
+    public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
+        ForecastRow row = mRows.get(position);
+        boolean useLongToday = getItemViewType(position) == VIEW_TYPE_TODAY;
+        int defaultImage = useLongToday ? row.artResource : row.iconResource;
+
+        if (row.artUrl == null) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
             Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+                    .load(row.artUrl)
                     .error(defaultImage)
                     .crossFade()
                     .into(forecastAdapterViewHolder.mIconView);
@@ -136,38 +154,23 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         // the animator can use this to re-find the original view
         ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
 
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
-
-        // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
+        forecastAdapterViewHolder.mDateView.setText(useLongToday ? row.todayText : row.dayText);
 
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
-
-        // Find TextView and set weather forecast on it
-        forecastAdapterViewHolder.mDescriptionView.setText(description);
-        forecastAdapterViewHolder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        forecastAdapterViewHolder.mDescriptionView.setText(row.description);
+        forecastAdapterViewHolder.mDescriptionView.setContentDescription(row.descriptionA11y);
 
         // For accessibility, we don't want a content description for the icon field
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
-        forecastAdapterViewHolder.mHighTempView.setText(highString);
-        forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
-
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
-        forecastAdapterViewHolder.mLowTempView.setText(lowString);
-        forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
-
-        String location = mCursor.getString(ForecastFragment.COL_CITY_NAME);
-        if (location != null && useLongToday) {
-            forecastAdapterViewHolder.mLocationView.setText(location);
+        forecastAdapterViewHolder.mHighTempView.setText(row.high);
+        forecastAdapterViewHolder.mHighTempView.setContentDescription(row.highA11y);
+
+        forecastAdapterViewHolder.mLowTempView.setText(row.low);
+        forecastAdapterViewHolder.mLowTempView.setContentDescription(row.lowA11y);
+
+        if (row.cityName != null && useLongToday) {
+            forecastAdapterViewHolder.mLocationView.setText(row.cityName);
         }
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
@@ -196,13 +199,49 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        return mRows.size();
     }
 
+    /**
+     * Rows are identified by their date, which stays the same while the forecast of the day
+     * is updated.
+     */
+    @Override
+    public long getItemId(int position) {
+        return mRows.get(position).date;
+    }
+
+    @Override
+    public int getPositionForId(long id) {
+        Integer position = mPositionsById.get(id);
+        return position != null ? position : RecyclerView.NO_POSITION;
+    }
+
+    /**
+     * Cursors from {@link ForecastLoader} come with their rows formatted and with the changes
+     * from the rows shown, so only the rows that changed are bound again.  The snapshot shown at
+     * a cold start comes formatted too but without changes, and like any other cursor, which is
+     * formatted here, it replaces the list as a whole.
+     */
     public void swapCursor(Cursor newCursor) {
+        ForecastDiff diff = null;
         mCursor = newCursor;
-        notifyDataSetChanged();
+        if (newCursor instanceof ForecastLoader.ForecastCursor) {
+            ForecastLoader.ForecastCursor forecastCursor = (ForecastLoader.ForecastCursor) newCursor;
+            diff = forecastCursor.getDiff(mRows);
+            mRows = forecastCursor.getRows();
+        } else {
+            mRows = ForecastRow.fromCursor(mContext, newCursor);
+        }
+        mPositionsById.clear();
+        for (int i = 0; i < mRows.size(); i++) {
+            mPositionsById.put(mRows.get(i).date, i);
+        }
+        if (diff != null) {
+            diff.dispatchTo(this);
+        } else {
+            notifyDataSetChanged();
+        }
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
@@ -0,0 +1,139 @@
+package com.loosli.christian.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.List;
+
+/**
+ * The item events that turn one forecast list into another, so that a sync only rebinds the
+ * rows it changed.
+ * <p/>
+ * Both lists are ordered by date and hold each date once, so a single merge pass finds the
+ * days that were removed, inserted or changed, in time linear in the length of the lists.
+ * Days never change places in such lists, which leaves no moves to report.  Consecutive
+ * events of the same kind are reported as one range.
+ */
+final class ForecastDiff {
+
+    private static final int REMOVE = 0;
+    private static final int INSERT = 1;
+    private static final int CHANGE = 2;
+
+    // (operation, position, count) triples, in the order they are dispatched
+    private int[] mOps = new int[3 * 4];
+    private int mOpCount;
+
+    private int mRemoved;
+    private int mInserted;
+    private int mChanged;
+
+    private ForecastDiff() {
+    }
+
+    static ForecastDiff compute(List<ForecastRow> oldRows, List<ForecastRow> newRows) {
+        ForecastDiff diff = new ForecastDiff();
+        int oldSize = oldRows.size();
+        int newSize = newRows.size();
+        int oldIndex = 0;
+        int newIndex = 0;
+        // Position in the list as it stands after the events so far
+        int position = 0;
+        while (oldIndex < oldSize || newIndex < newSize) {
+            if (newIndex == newSize || (oldIndex < oldSize &&
+                    oldRows.get(oldIndex).date < newRows.get(newIndex).date)) {
+                diff.add(REMOVE, position);
+                oldIndex++;
+            } else if (oldIndex == oldSize ||
+                    oldRows.get(oldIndex).date > newRows.get(newIndex).date) {
+                diff.add(INSERT, position++);
+                newIndex++;
+            } else {
+                if (!oldRows.get(oldIndex).hasSameContents(newRows.get(newIndex))) {
+                    diff.add(CHANGE, position);
+                }
+                position++;
+                oldIndex++;
+                newIndex++;
+            }
+        }
+
+        // The first row can have a layout of its own.  When another day becomes the first,
+        // the rows now at the first two positions have to be bound again in their new layout.
+        if (oldSize > 0 && newSize > 0 && oldRows.get(0).date != newRows.get(0).date) {
+            diff.add(CHANGE, 0);
+            if (newSize > 1) {
+                diff.add(CHANGE, 1);
+            }
+        }
+        return diff;
+    }
+
+    private void add(int operation, int position) {
+        switch (operation) {
+            case REMOVE:
+                mRemoved++;
+                break;
+            case INSERT:
+                mInserted++;
+                break;
+            default:
+                mChanged++;
+        }
+        if (mOpCount > 0) {
+            int last = 3 * (mOpCount - 1);
+            if (mOps[last] == operation) {
+                // Removed rows all leave from the same position; others follow each other
+                int next = operation == REMOVE ? mOps[last + 1] : mOps[last + 1] + mOps[last + 2];
+                if (position == next) {
+                    mOps[last + 2]++;
+                    return;
+                }
+            }
+        }
+        if (3 * mOpCount == mOps.length) {
+            int[] ops = new int[mOps.length * 2];
+            System.arraycopy(mOps, 0, ops, 0, mOps.length);
+            mOps = ops;
+        }
+        int next = 3 * mOpCount++;
+        mOps[next] = operation;
+        mOps[next + 1] = position;
+        mOps[next + 2] = 1;
+    }
+
+    /**
+     * @return whether the lists hold the same rows
+     */
+    boolean isEmpty() {
+        return mOpCount == 0;
+    }
+
+    int getRemovedCount() {
+        return mRemoved;
+    }
+
+    int getInsertedCount() {
+        return mInserted;
+    }
+
+    int getChangedCount() {
+        return mChanged;
+    }
+
+    void dispatchTo(RecyclerView.Adapter<?> adapter) {
+        for (int i = 0; i < 3 * mOpCount; i += 3) {
+            int position = mOps[i + 1];
+            int count = mOps[i + 2];
+            switch (mOps[i]) {
+                case REMOVE:
+                    adapter.notifyItemRangeRemoved(position, count);
+                    break;
+                case INSERT:
+                    adapter.notifyItemRangeInserted(position, count);
+                    break;
+                default:
+                    adapter.notifyItemRangeChanged(position, count);
+            }
+        }
+    }
+}
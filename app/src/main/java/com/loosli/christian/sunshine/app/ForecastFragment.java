@@ -13,13 +13,14 @@ import android.preference.PreferenceManager;
 import android.support.design.widget.AppBarLayout;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
+import android.support.v4.os.TraceCompat;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -44,10 +45,19 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private int mChoiceMode;
     private boolean mHoldForTransition;
     private long mInitialSelectedDate = -1;
+    // Once the real forecast is in, a late snapshot must not replace it
+    private boolean mForecastLoaded;
+    // Time from onCreateView to the first frame that shows forecast rows
+    private long mCreateViewNanos;
+    private long mFirstFrameNanos = -1;
+
+    // Lets benchmarks compare the first frame with and without rows inflated ahead of time
+    static boolean sPreInflateRows = true;
 
     private static final String SELECTED_KEY = "selected_position";
 
     private static final int FORECAST_LOADER = 0;
+    private static final int SNAPSHOT_LOADER = 1;
     // For the forecast view we're showing only a small subset of the stored data.
     // Specify the columns we need.
     private static final String[] FORECAST_COLUMNS = {
@@ -157,6 +167,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                              Bundle savedInstanceState) {
 
 
+        mCreateViewNanos = System.nanoTime();
+        mFirstFrameNanos = -1;
         View rootView = inflater.inflate(R.layout.fragment_main, container, false);
 
         // Get a reference to the RecyclerView, and attach this adapter to it.
@@ -187,6 +199,40 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // specify an adapter (see also next example)
         mRecyclerView.setAdapter(mForecastAdapter);
 
+        // The rows that fill the screen are inflated in the background while the loader runs,
+        // and wait in the pool for the first bind
+        int rowsOnScreen = getRowsOnScreen();
+        RecyclerView.RecycledViewPool viewPool = new RecyclerView.RecycledViewPool();
+        viewPool.setMaxRecycledViews(ForecastAdapter.VIEW_TYPE_FUTURE_DAY, rowsOnScreen);
+        mRecyclerView.setRecycledViewPool(viewPool);
+        preInflateRows(ForecastAdapter.VIEW_TYPE_FUTURE_DAY, rowsOnScreen);
+
+        mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (mRecyclerView.getChildCount() > 0) {
+                    mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                    mFirstFrameNanos = System.nanoTime() - mCreateViewNanos;
+                    if (BuildConfig.DEBUG) {
+                        Log.d(LOG_TAG, "First forecast frame after "
+                                + mFirstFrameNanos / 1000000 + " ms");
+                    }
+                }
+                return true;
+            }
+        });
+
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    FrameMonitor.get().end(LOG_TAG, FrameMonitor.INTERACTION_SCROLL);
+                } else {
+                    FrameMonitor.get().begin(LOG_TAG, FrameMonitor.INTERACTION_SCROLL);
+                }
+            }
+        });
+
         final View parallaxView = rootView.findViewById(R.id.parallax_bar);
         if (null != parallaxView) {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
@@ -246,10 +292,55 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if ( mHoldForTransition ) {
             getActivity().supportPostponeEnterTransition();
         }
+        // Only now does the activity tell whether the list starts with the large today item
+        if (mUseTodayLayout) {
+            preInflateRows(ForecastAdapter.VIEW_TYPE_TODAY, 1);
+        }
+        // On a cold start, the forecast of the last sync is shown until the real one loads
+        if (getLoaderManager().getLoader(FORECAST_LOADER) == null) {
+            getLoaderManager().initLoader(SNAPSHOT_LOADER, null, this);
+        }
         getLoaderManager().initLoader(FORECAST_LOADER, null, this);
         super.onActivityCreated(savedInstanceState);
     }
 
+    private int getRowsOnScreen() {
+        TypedValue rowHeight = new TypedValue();
+        getActivity().getTheme().resolveAttribute(android.R.attr.listPreferredItemHeight,
+                rowHeight, true);
+        float rowPixels = rowHeight.getDimension(getResources().getDisplayMetrics());
+        if (rowPixels <= 0) {
+            return 5;
+        }
+        return (int) (getResources().getDisplayMetrics().heightPixels / rowPixels) + 1;
+    }
+
+    // Inflates rows of a view type off the main thread and puts them in the RecycledViewPool
+    private void preInflateRows(final int viewType, int count) {
+        if (!sPreInflateRows || !(getActivity() instanceof ViewPreInflater.Provider)) {
+            return;
+        }
+        final RecyclerView recyclerView = mRecyclerView;
+        final ForecastAdapter adapter = mForecastAdapter;
+        ((ViewPreInflater.Provider) getActivity()).getViewPreInflater().inflate(
+                ForecastAdapter.getLayoutForViewType(viewType), recyclerView, count,
+                new ViewPreInflater.Callback() {
+                    @Override
+                    public void onInflated(int layoutId, View view) {
+                        recyclerView.getRecycledViewPool().putRecycledView(
+                                adapter.createViewHolder(recyclerView, viewType, view));
+                    }
+                });
+    }
+
+    /**
+     * @return the time from onCreateView to the first frame showing forecast rows, in
+     * nanoseconds, or -1 while there was no such frame
+     */
+    long getFirstFrameNanos() {
+        return mFirstFrameNanos;
+    }
+
     // since we read the location when we create the loader, all we need to do is restart things
     void onLocationChanged() {
         getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
@@ -290,8 +381,10 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // This is called when a new Loader needs to be created.  This
-        // fragment only uses one loader, so we don't care about checking the id.
+        // This is called when a new Loader needs to be created.
+        if (i == SNAPSHOT_LOADER) {
+            return new ForecastSnapshotLoader(getActivity(), FORECAST_COLUMNS);
+        }
 
         // To only show current and future dates, filter the query to return weather only for
         // dates after or including today.
@@ -303,7 +396,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
                 locationSetting, System.currentTimeMillis());
 
-        return new CursorLoader(getActivity(),
+        return new ForecastLoader(getActivity(),
                 weatherForLocationUri,
                 FORECAST_COLUMNS,
                 null,
@@ -313,7 +406,24 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mForecastAdapter.swapCursor(data);
+        if (loader.getId() == SNAPSHOT_LOADER) {
+            if (data != null && !mForecastLoaded) {
+                mForecastAdapter.swapCursor(data);
+                updateEmptyView();
+            }
+            return;
+        }
+        if (!mForecastLoaded) {
+            mForecastLoaded = true;
+            // Done with the snapshot, whether it was shown or not
+            getLoaderManager().destroyLoader(SNAPSHOT_LOADER);
+        }
+        TraceCompat.beginSection("ForecastFragment.swapCursor");
+        try {
+            mForecastAdapter.swapCursor(data);
+        } finally {
+            TraceCompat.endSection();
+        }
         updateEmptyView();
         if ( data.getCount() == 0 ) {
             getActivity().supportStartPostponedEnterTransition();
@@ -328,16 +438,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                         int position = mForecastAdapter.getSelectedItemPosition();
                         if (position == RecyclerView.NO_POSITION &&
                                 -1 != mInitialSelectedDate) {
-                            Cursor data = mForecastAdapter.getCursor();
-                            int count = data.getCount();
-                            int dateColumn = data.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-                            for ( int i = 0; i < count; i++ ) {
-                                data.moveToPosition(i);
-                                if ( data.getLong(dateColumn) == mInitialSelectedDate ) {
-                                    position = i;
-                                    break;
-                                }
-                            }
+                            position = mForecastAdapter.getPositionForId(mInitialSelectedDate);
                         }
                         if (position == RecyclerView.NO_POSITION) position = 0;
                         // If we don't need to restart the loader, and there's a desired position to restore
@@ -367,10 +468,15 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if (null != mRecyclerView) {
             mRecyclerView.clearOnScrollListeners();
         }
+        FrameMonitor.get().end(LOG_TAG, FrameMonitor.INTERACTION_SCROLL);
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
+        if (loader.getId() == SNAPSHOT_LOADER) {
+            // Replaced by the real forecast by now, or never shown
+            return;
+        }
         mForecastAdapter.swapCursor(null);
     }
 
@@ -0,0 +1,67 @@
+package com.loosli.christian.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+import java.util.List;
+
+/**
+ * A CursorLoader for the forecast list that also formats its rows on the loader thread, and
+ * works out there how they differ from the rows it loaded before.  The cursor it delivers is a
+ * {@link ForecastCursor} carrying the {@link ForecastRow}s and that {@link ForecastDiff}.
+ */
+class ForecastLoader extends CursorLoader {
+
+    /**
+     * The loaded cursor together with its rows, formatted for display.
+     */
+    static final class ForecastCursor extends CursorWrapper {
+        private final List<ForecastRow> mRows;
+        private final List<ForecastRow> mPreviousRows;
+        private final ForecastDiff mDiff;
+
+        ForecastCursor(Cursor cursor, List<ForecastRow> rows, List<ForecastRow> previousRows,
+                       ForecastDiff diff) {
+            super(cursor);
+            mRows = rows;
+            mPreviousRows = previousRows;
+            mDiff = diff;
+        }
+
+        List<ForecastRow> getRows() {
+            return mRows;
+        }
+
+        /**
+         * @return the events turning {@code shownRows} into these rows, or null if they
+         * weren't computed against {@code shownRows}, e.g. after a load was cancelled
+         */
+        ForecastDiff getDiff(List<ForecastRow> shownRows) {
+            return shownRows == mPreviousRows ? mDiff : null;
+        }
+    }
+
+    // Only touched by loadInBackground, which runs one load at a time
+    private volatile List<ForecastRow> mLastRows;
+
+    ForecastLoader(Context context, Uri uri, String[] projection, String selection,
+                   String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null) {
+            return null;
+        }
+        List<ForecastRow> previousRows = mLastRows;
+        List<ForecastRow> rows = ForecastRow.fromCursor(getContext(), cursor);
+        mLastRows = rows;
+        return new ForecastCursor(cursor, rows, previousRows,
+                previousRows != null ? ForecastDiff.compute(previousRows, rows) : null);
+    }
+}
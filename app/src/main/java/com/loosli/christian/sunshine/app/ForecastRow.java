@@ -0,0 +1,90 @@
+package com.loosli.christian.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One day of the forecast list, with every string the row shows already formatted.
+ * <p/>
+ * Rows are built by {@link ForecastLoader} on its background thread, so that
+ * {@link ForecastAdapter#onBindViewHolder} only hands prepared strings and resource ids to its
+ * views.  The texts depend on the units, the locale and the current day at the time the rows
+ * were built; the loader builds new ones whenever the forecast or the units change.
+ */
+final class ForecastRow {
+
+    final long date;
+    final int weatherId;
+    // Date text of a list item, and of the large item for today, "Today, June 24"
+    final String dayText;
+    final String todayText;
+    final String description;
+    final String descriptionA11y;
+    final String high;
+    final String highA11y;
+    final String low;
+    final String lowA11y;
+    final String cityName;
+    final int iconResource;
+    final int artResource;
+    // Set when the art pack is not the local one
+    final String artUrl;
+
+    private ForecastRow(Context context, Cursor cursor, boolean isMetric,
+                        boolean localGraphics) {
+        date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        dayText = Utility.getFriendlyDayString(context, date, false);
+        todayText = Utility.getFriendlyDayString(context, date, true);
+        description = Utility.getStringForWeatherCondition(context, weatherId);
+        descriptionA11y = context.getString(R.string.a11y_forecast, description);
+        high = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP), isMetric);
+        highA11y = context.getString(R.string.a11y_high_temp, high);
+        low = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP), isMetric);
+        lowA11y = context.getString(R.string.a11y_low_temp, low);
+        cityName = cursor.getString(ForecastFragment.COL_CITY_NAME);
+        iconResource = Utility.getIconResourceForWeatherCondition(weatherId);
+        artResource = Utility.getArtResourceForWeatherCondition(weatherId);
+        artUrl = localGraphics ? null : Utility.getArtUrlForWeatherCondition(context, weatherId);
+    }
+
+    /**
+     * @return whether both rows show the same thing.  The a11y strings and resources follow
+     * from the compared fields.
+     */
+    boolean hasSameContents(ForecastRow other) {
+        return date == other.date
+                && weatherId == other.weatherId
+                && dayText.equals(other.dayText)
+                && todayText.equals(other.todayText)
+                && description.equals(other.description)
+                && high.equals(other.high)
+                && low.equals(other.low)
+                && TextUtils.equals(cityName, other.cityName)
+                && TextUtils.equals(artUrl, other.artUrl);
+    }
+
+    /**
+     * Formats every row of a cursor with the FORECAST_COLUMNS of {@link ForecastFragment}.
+     * The preferences are read once for all of them.
+     */
+    static List<ForecastRow> fromCursor(Context context, Cursor cursor) {
+        if (cursor == null) {
+            return new ArrayList<ForecastRow>(0);
+        }
+        boolean isMetric = Utility.isMetric(context);
+        boolean localGraphics = Utility.usingLocalGraphics(context);
+        ArrayList<ForecastRow> rows = new ArrayList<ForecastRow>(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            rows.add(new ForecastRow(context, cursor, isMetric, localGraphics));
+        }
+        return rows;
+    }
+}
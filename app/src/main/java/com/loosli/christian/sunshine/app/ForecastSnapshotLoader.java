@@ -0,0 +1,76 @@
+package com.loosli.christian.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.loosli.christian.sunshine.app.data.ForecastSnapshot;
+import com.loosli.christian.sunshine.app.data.WeatherContract;
+
+import java.util.List;
+
+/**
+ * Reads the {@link ForecastSnapshot} of the preferred location on the loader thread and
+ * formats its rows there, so a cold start can show the forecast of the last sync without
+ * touching the file on the main thread.  Delivers a {@link ForecastLoader.ForecastCursor}
+ * with no diff, or null when there is no snapshot with days from today on.
+ */
+class ForecastSnapshotLoader extends AsyncTaskLoader<Cursor> {
+
+    private final String[] mProjection;
+    private Cursor mCursor;
+
+    ForecastSnapshotLoader(Context context, String[] projection) {
+        super(context);
+        mProjection = projection;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        ForecastSnapshot snapshot = ForecastSnapshot.read(getContext(),
+                Utility.getPreferredLocation(getContext()));
+        if (snapshot == null) {
+            return null;
+        }
+        Cursor cursor = snapshot.toCursor(mProjection,
+                WeatherContract.normalizeDate(System.currentTimeMillis()));
+        if (cursor.getCount() == 0) {
+            cursor.close();
+            return null;
+        }
+        List<ForecastRow> rows = ForecastRow.fromCursor(getContext(), cursor);
+        return new ForecastLoader.ForecastCursor(cursor, rows, null, null);
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        mCursor = cursor;
+        if (isStarted()) {
+            super.deliverResult(cursor);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mCursor != null) {
+            deliverResult(mCursor);
+        } else {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mCursor != null && !mCursor.isClosed()) {
+            mCursor.close();
+        }
+        mCursor = null;
+    }
+}
@@ -0,0 +1,184 @@
+package com.loosli.christian.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.LruCache;
+import android.util.SparseArray;
+
+import java.util.Locale;
+
+/**
+ * The strings {@link Utility} formatted before, so that showing the same forecast again, in
+ * the list, the detail pane, the widgets or the notification, formats nothing.
+ * <p/>
+ * Temperatures and winds are kept per unit system and keyed by their exact value; day labels
+ * by their epoch day and style; condition descriptions by weather id.  Everything is dropped
+ * when the locale changes.  Day labels are also dropped when the day or the time zone changes,
+ * since "Today" and "Tomorrow" move with them.  The units preference is read once and again
+ * when it changes.
+ * <p/>
+ * Utility looks a string up here, and formats and puts it if it is missing.  All methods are
+ * thread safe; the loader, the widgets and the sync adapter format in their own threads.
+ */
+final class FormatCache implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    // Styles of day labels, see the Utility method of the same name
+    static final int DAY_FRIENDLY = 0;
+    static final int DAY_FRIENDLY_LONG_TODAY = 1;
+    static final int DAY_FULL_FRIENDLY = 2;
+    static final int DAY_NAME = 3;
+    static final int DAY_MONTH_DAY = 4;
+    private static final int DAY_STYLES = 5;
+
+    // Two weeks of highs and lows, with room for the history and a few locations
+    private static final int MAX_VALUES = 256;
+    private static final int MAX_DAYS = 128;
+
+    private static FormatCache sInstance;
+
+    private final Context mContext;
+    private final String mUnitsKey;
+    private final LruCache<Long, String> mMetricTemperatures = new LruCache<Long, String>(MAX_VALUES);
+    private final LruCache<Long, String> mImperialTemperatures = new LruCache<Long, String>(MAX_VALUES);
+    private final LruCache<Long, String> mMetricWinds = new LruCache<Long, String>(MAX_VALUES);
+    private final LruCache<Long, String> mImperialWinds = new LruCache<Long, String>(MAX_VALUES);
+    private final LruCache<Integer, String> mDays = new LruCache<Integer, String>(MAX_DAYS);
+    private final SparseArray<String> mConditions = new SparseArray<String>();
+    private Locale mLocale;
+    private int mToday;
+    // Null until read, and again after the preference changed
+    private Boolean mMetric;
+
+    static synchronized FormatCache get(Context context) {
+        if (sInstance == null) {
+            sInstance = new FormatCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private FormatCache(Context context) {
+        mContext = context;
+        mUnitsKey = context.getString(R.string.pref_units_key);
+        mLocale = Locale.getDefault();
+        mToday = EpochDays.fromMillis(System.currentTimeMillis());
+        // The preferences only keep a weak reference to their listeners, this one lives as long
+        // as the process
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .registerOnSharedPreferenceChangeListener(this);
+    }
+
+    /**
+     * Picks up a change of the default time zone, which moves the current day.
+     */
+    static synchronized void onTimeZoneChanged() {
+        if (sInstance != null) {
+            sInstance.resetDays();
+        }
+    }
+
+    synchronized boolean isMetric() {
+        if (mMetric == null) {
+            mMetric = Utility.readIsMetric(mContext);
+        }
+        return mMetric;
+    }
+
+    /**
+     * @return the current epoch day, dropping the day labels of the previous one at midnight
+     */
+    synchronized int getToday() {
+        checkLocale();
+        int today = EpochDays.fromMillis(System.currentTimeMillis());
+        if (today != mToday) {
+            mDays.evictAll();
+            mToday = today;
+        }
+        return mToday;
+    }
+
+    synchronized String getTemperature(double temperature, boolean isMetric) {
+        checkLocale();
+        return temperatures(isMetric).get(Double.doubleToLongBits(temperature));
+    }
+
+    synchronized void putTemperature(double temperature, boolean isMetric, String formatted) {
+        temperatures(isMetric).put(Double.doubleToLongBits(temperature), formatted);
+    }
+
+    synchronized String getWind(float windSpeed, float degrees, boolean isMetric) {
+        checkLocale();
+        return winds(isMetric).get(windKey(windSpeed, degrees));
+    }
+
+    synchronized void putWind(float windSpeed, float degrees, boolean isMetric, String formatted) {
+        winds(isMetric).put(windKey(windSpeed, degrees), formatted);
+    }
+
+    /**
+     * @param today the day {@link #getToday} returned when the label was looked up
+     */
+    synchronized String getDay(int epochDay, int style, int today) {
+        return today == mToday ? mDays.get(epochDay * DAY_STYLES + style) : null;
+    }
+
+    synchronized void putDay(int epochDay, int style, int today, String formatted) {
+        if (today == mToday) {
+            mDays.put(epochDay * DAY_STYLES + style, formatted);
+        }
+    }
+
+    synchronized String getCondition(int weatherId) {
+        checkLocale();
+        return mConditions.get(weatherId);
+    }
+
+    synchronized void putCondition(int weatherId, String formatted) {
+        mConditions.put(weatherId, formatted);
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if (mUnitsKey.equals(key)) {
+            synchronized (this) {
+                mMetric = null;
+            }
+        }
+    }
+
+    synchronized void clear() {
+        mMetricTemperatures.evictAll();
+        mImperialTemperatures.evictAll();
+        mMetricWinds.evictAll();
+        mImperialWinds.evictAll();
+        mConditions.clear();
+        mMetric = null;
+        resetDays();
+    }
+
+    private synchronized void resetDays() {
+        mDays.evictAll();
+        mToday = EpochDays.fromMillis(System.currentTimeMillis());
+    }
+
+    private void checkLocale() {
+        Locale locale = Locale.getDefault();
+        if (!locale.equals(mLocale)) {
+            clear();
+            mLocale = locale;
+        }
+    }
+
+    private LruCache<Long, String> temperatures(boolean isMetric) {
+        return isMetric ? mMetricTemperatures : mImperialTemperatures;
+    }
+
+    private LruCache<Long, String> winds(boolean isMetric) {
+        return isMetric ? mMetricWinds : mImperialWinds;
+    }
+
+    private static long windKey(float windSpeed, float degrees) {
+        return ((long) Float.floatToIntBits(windSpeed) << 32)
+                | (Float.floatToIntBits(degrees) & 0xffffffffL);
+    }
+}
@@ -0,0 +1,232 @@
+package com.loosli.christian.sunshine.app;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records how long frames take while the user scrolls or a transition runs, in one histogram
+ * per screen and interaction, e.g. "ForecastFragment" and "scroll".
+ * <p/>
+ * Interactions are marked with {@link #begin} and {@link #end}; while any is active, the
+ * monitor follows the Choreographer and adds the time between two frames to the histograms of
+ * all active interactions.  {@link #export} appends the histograms, with the app version, to
+ * {@link #EXPORT_FILE} in the app's files and starts new ones.
+ * <p/>
+ * The monitor only runs when {@link BuildConfig#FRAME_MONITOR} is set, and needs the
+ * Choreographer of Jelly Bean.  Otherwise every method does nothing.  All of them are called on
+ * the main thread.
+ */
+class FrameMonitor {
+
+    private static final String LOG_TAG = FrameMonitor.class.getSimpleName();
+
+    static final String EXPORT_FILE = "frame_histograms.csv";
+    static final String INTERACTION_SCROLL = "scroll";
+    static final String INTERACTION_TRANSITION = "shared_element_transition";
+
+    // A frame that misses the vsync of a 60Hz display, with some slack for its jitter
+    static final long SLOW_FRAME_NANOS = 17000000;
+    // Upper bounds of the histogram buckets in milliseconds; the last bucket takes the rest
+    static final int[] BUCKET_MILLIS = {8, 12, 16, 20, 25, 33, 50, 66, 100, 150, 250, 500, 1000};
+
+    /**
+     * Frame durations of one interaction on one screen.
+     */
+    static class Histogram {
+        final String screen;
+        final String interaction;
+        final long[] counts = new long[BUCKET_MILLIS.length + 1];
+        long frames;
+        long slowFrames;
+        long totalNanos;
+        long maxNanos;
+
+        Histogram(String screen, String interaction) {
+            this.screen = screen;
+            this.interaction = interaction;
+        }
+
+        void add(long frameNanos) {
+            long millis = frameNanos / 1000000;
+            int bucket = 0;
+            while (bucket < BUCKET_MILLIS.length && millis >= BUCKET_MILLIS[bucket]) {
+                bucket++;
+            }
+            counts[bucket]++;
+            frames++;
+            totalNanos += frameNanos;
+            maxNanos = Math.max(maxNanos, frameNanos);
+            if (frameNanos > SLOW_FRAME_NANOS) {
+                slowFrames++;
+            }
+        }
+
+        /**
+         * @return a CSV line of the version, screen, interaction, frame and slow frame counts,
+         * the mean and max in microseconds, and the count of each bucket
+         */
+        String toCsv(String version) {
+            StringBuilder line = new StringBuilder();
+            line.append(version).append(',').append(screen).append(',').append(interaction)
+                    .append(',').append(frames).append(',').append(slowFrames)
+                    .append(',').append(frames > 0 ? totalNanos / frames / 1000 : 0)
+                    .append(',').append(maxNanos / 1000);
+            for (long count : counts) {
+                line.append(',').append(count);
+            }
+            return line.toString();
+        }
+    }
+
+    private static FrameMonitor sInstance;
+
+    // Keyed by screen and interaction, in the order they were first seen
+    private final Map<String, Histogram> mHistograms = new LinkedHashMap<String, Histogram>();
+    private final List<Histogram> mActive = new ArrayList<Histogram>();
+    private final boolean mEnabled;
+    private Object mFrameCallback;
+    private boolean mFramePosted;
+    private long mLastFrameNanos;
+
+    static FrameMonitor get() {
+        if (sInstance == null) {
+            sInstance = new FrameMonitor(BuildConfig.FRAME_MONITOR
+                    && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN);
+        }
+        return sInstance;
+    }
+
+    FrameMonitor(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    void begin(String screen, String interaction) {
+        if (!mEnabled) {
+            return;
+        }
+        String key = screen + '/' + interaction;
+        Histogram histogram = mHistograms.get(key);
+        if (histogram == null) {
+            histogram = new Histogram(screen, interaction);
+            mHistograms.put(key, histogram);
+        }
+        if (mActive.contains(histogram)) {
+            return;
+        }
+        mActive.add(histogram);
+        if (!mFramePosted) {
+            mLastFrameNanos = 0;
+            postFrameCallback();
+        }
+    }
+
+    void end(String screen, String interaction) {
+        if (!mEnabled) {
+            return;
+        }
+        mActive.remove(mHistograms.get(screen + '/' + interaction));
+    }
+
+    /**
+     * Adds the duration of a frame to the histograms of the active interactions, and logs it
+     * if the frame was slow.
+     */
+    void onFrame(long frameNanos) {
+        for (Histogram histogram : mActive) {
+            histogram.add(frameNanos);
+        }
+        if (frameNanos > SLOW_FRAME_NANOS && !mActive.isEmpty() && BuildConfig.DEBUG) {
+            Histogram histogram = mActive.get(mActive.size() - 1);
+            Log.d(LOG_TAG, "Slow frame of " + frameNanos / 1000 + "us in " + histogram.screen
+                    + " during " + histogram.interaction);
+        }
+    }
+
+    List<Histogram> getHistograms() {
+        return new ArrayList<Histogram>(mHistograms.values());
+    }
+
+    /**
+     * Appends the histograms to the export file in the background, and starts new ones.
+     */
+    void export(Context context) {
+        if (!mEnabled || mHistograms.isEmpty()) {
+            return;
+        }
+        final StringBuilder lines = new StringBuilder();
+        for (Histogram histogram : mHistograms.values()) {
+            if (histogram.frames > 0) {
+                lines.append(histogram.toCsv(BuildConfig.VERSION_NAME)).append('\n');
+            }
+        }
+        // Interactions still running go on in new histograms
+        mHistograms.clear();
+        List<Histogram> active = new ArrayList<Histogram>(mActive);
+        mActive.clear();
+        for (Histogram histogram : active) {
+            Histogram next = new Histogram(histogram.screen, histogram.interaction);
+            mHistograms.put(histogram.screen + '/' + histogram.interaction, next);
+            mActive.add(next);
+        }
+        if (lines.length() == 0) {
+            return;
+        }
+
+        final File file = new File(context.getFilesDir(), EXPORT_FILE);
+        AsyncTask.execute(new Runnable() {
+            @Override
+            public void run() {
+                Writer writer = null;
+                try {
+                    writer = new FileWriter(file, true);
+                    writer.write(lines.toString());
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Could not export frame histograms", e);
+                } finally {
+                    if (writer != null) {
+                        try {
+                            writer.close();
+                        } catch (IOException e) {
+                            Log.w(LOG_TAG, "Could not close " + file, e);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+        if (mFrameCallback == null) {
+            mFrameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    mFramePosted = false;
+                    if (mActive.isEmpty()) {
+                        return;
+                    }
+                    if (mLastFrameNanos != 0) {
+                        onFrame(frameTimeNanos - mLastFrameNanos);
+                    }
+                    mLastFrameNanos = frameTimeNanos;
+                    postFrameCallback();
+                }
+            };
+        }
+        mFramePosted = true;
+        Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+    }
+}
@@ -26,10 +26,22 @@ import android.widget.AbsListView;
 import android.widget.Checkable;
 
 /**
- * The ItemChoiceManager class keeps track of which positions have been selected.  Note that it
- * doesn't take advantage of new adapter features to track changes in the underlying data.
+ * The ItemChoiceManager class keeps track of which positions have been selected.  With an
+ * adapter that has stable ids, the selection follows its items across data changes.
  */
 public class ItemChoiceManager {
+
+    /**
+     * Implemented by adapters with stable ids that can look up the position of an id directly,
+     * which spares the search around the last known position.
+     */
+    public interface PositionIndex {
+        /**
+         * @return the position of the item with the id, or RecyclerView.NO_POSITION
+         */
+        int getPositionForId(long id);
+    }
+
     private final String LOG_TAG = MainActivity.class.getSimpleName();
     private final String SELECTED_ITEMS_KEY = "SIK";
     private int mChoiceMode;
@@ -42,6 +54,26 @@ public class ItemChoiceManager {
             if (mAdapter != null && mAdapter.hasStableIds())
                 confirmCheckedPositionsById(mAdapter.getItemCount());
         }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            onChanged();
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            onChanged();
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            onChanged();
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            onChanged();
+        }
     };
 
     private ItemChoiceManager() {
@@ -51,6 +83,7 @@ public class ItemChoiceManager {
 
     public ItemChoiceManager(RecyclerView.Adapter adapter) {
         mAdapter = adapter;
+        mAdapter.registerAdapterDataObserver(mAdapterDataObserver);
     }
 
     /**
@@ -107,6 +140,11 @@ public class ItemChoiceManager {
             case AbsListView.CHOICE_MODE_MULTIPLE: {
                 boolean checked = mCheckStates.get(position, false);
                 mCheckStates.put(position, !checked);
+                if (checked) {
+                    mCheckedIdStates.delete(mAdapter.getItemId(position));
+                } else {
+                    mCheckedIdStates.put(mAdapter.getItemId(position), position);
+                }
                 // We directly call onBindViewHolder here because notifying that an item has
                 // changed on an item that has the focus causes it to lose focus, which makes
                 // keyboard navigation a bit annoying
@@ -156,11 +194,27 @@ public class ItemChoiceManager {
         // Clear out the positional check states, we'll rebuild it below from IDs.
         mCheckStates.clear();
 
+        if (mAdapter instanceof PositionIndex) {
+            PositionIndex index = (PositionIndex) mAdapter;
+            for (int checkedIndex = 0; checkedIndex < mCheckedIdStates.size(); checkedIndex++) {
+                final int position = index.getPositionForId(mCheckedIdStates.keyAt(checkedIndex));
+                if (position == RecyclerView.NO_POSITION) {
+                    mCheckedIdStates.removeAt(checkedIndex);
+                    checkedIndex--;
+                } else {
+                    mCheckStates.put(position, true);
+                    mCheckedIdStates.setValueAt(checkedIndex, position);
+                }
+            }
+            return;
+        }
+
         for (int checkedIndex = 0; checkedIndex < mCheckedIdStates.size(); checkedIndex++) {
             final long id = mCheckedIdStates.keyAt(checkedIndex);
             final int lastPos = mCheckedIdStates.valueAt(checkedIndex);
 
-            final long lastPosId = mAdapter.getItemId(lastPos);
+            final long lastPosId = lastPos < oldItemCount
+                    ? mAdapter.getItemId(lastPos) : RecyclerView.NO_ID;
             if (id != lastPosId) {
                 // Look around to see if the ID is nearby. If not, uncheck it.
                 final int start = Math.max(0, lastPos - CHECK_POSITION_SEARCH_DISTANCE);
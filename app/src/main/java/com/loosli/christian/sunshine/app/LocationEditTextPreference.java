@@ -5,6 +5,7 @@ import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.database.Cursor;
 import android.os.Bundle;
 import android.preference.EditTextPreference;
 import android.text.Editable;
@@ -12,14 +13,20 @@ import android.text.TextWatcher;
 import android.util.AttributeSet;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AdapterView;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.Filter;
+import android.widget.FilterQueryProvider;
+import android.widget.ListPopupWindow;
+import android.widget.SimpleCursorAdapter;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 import com.google.android.gms.common.GooglePlayServicesNotAvailableException;
 import com.google.android.gms.common.GooglePlayServicesRepairableException;
 import com.google.android.gms.location.places.ui.PlacePicker;
+import com.loosli.christian.sunshine.app.data.WeatherContract;
 
 /**
  * Created by ChristianL on 10.03.16.
@@ -28,6 +35,18 @@ public class LocationEditTextPreference extends EditTextPreference {
     static final private int DEFAULT_MINIMUM_LOCATION_LENGTH = 2;
     private int mMinLength;
 
+    private static final String[] SUGGESTION_COLUMNS = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
+    };
+    private static final int COL_LOCATION_SETTING = 2;
+
+    // Saved locations matching what has been typed so far, shown below the text field
+    private ListPopupWindow mSuggestions;
+    private SimpleCursorAdapter mSuggestionAdapter;
+    private boolean mSuggestionPicked;
+
     public LocationEditTextPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
         TypedArray a = context.getTheme().obtainStyledAttributes(
@@ -93,7 +112,8 @@ public class LocationEditTextPreference extends EditTextPreference {
     protected void showDialog(Bundle state) {
         super.showDialog(state);
 
-        EditText et = getEditText();
+        final EditText et = getEditText();
+        setUpSuggestions(et);
         et.addTextChangedListener(new TextWatcher() {
 
 
@@ -122,7 +142,79 @@ public class LocationEditTextPreference extends EditTextPreference {
                         positiveButton.setEnabled(true);
                     }
                 }
+
+                // The suggestions only exist while the dialog is showing
+                final ListPopupWindow suggestions = mSuggestions;
+                if (suggestions == null) {
+                    return;
+                }
+                if (mSuggestionPicked) {
+                    mSuggestionPicked = false;
+                    suggestions.dismiss();
+                } else {
+                    // Filtering runs the query on a worker thread
+                    mSuggestionAdapter.getFilter().filter(s, new Filter.FilterListener() {
+                        @Override
+                        public void onFilterComplete(int count) {
+                            if (count > 0 && suggestions == mSuggestions) {
+                                suggestions.show();
+                            } else {
+                                suggestions.dismiss();
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private void setUpSuggestions(final EditText et) {
+        final Context context = getContext();
+        mSuggestionAdapter = new SimpleCursorAdapter(context,
+                android.R.layout.simple_list_item_2,
+                null,
+                new String[]{WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                new int[]{android.R.id.text1, android.R.id.text2},
+                0);
+        mSuggestionAdapter.setFilterQueryProvider(new FilterQueryProvider() {
+            @Override
+            public Cursor runQuery(CharSequence constraint) {
+                if (constraint == null || constraint.length() == 0) {
+                    return null;
+                }
+                return context.getContentResolver().query(
+                        WeatherContract.LocationEntry.buildLocationSearchUri(constraint.toString(),
+                                WeatherContract.LocationEntry.DEFAULT_SEARCH_LIMIT),
+                        SUGGESTION_COLUMNS, null, null, null);
+            }
+        });
+
+        mSuggestions = new ListPopupWindow(context);
+        mSuggestions.setAnchorView(et);
+        mSuggestions.setAdapter(mSuggestionAdapter);
+        mSuggestions.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                Cursor cursor = mSuggestionAdapter.getCursor();
+                if (cursor != null && cursor.moveToPosition(position)) {
+                    mSuggestionPicked = true;
+                    et.setText(cursor.getString(COL_LOCATION_SETTING));
+                    et.setSelection(et.length());
+                }
             }
         });
     }
+
+    @Override
+    protected void onDialogClosed(boolean positiveResult) {
+        super.onDialogClosed(positiveResult);
+        if (mSuggestions != null) {
+            mSuggestions.dismiss();
+            mSuggestions = null;
+            // Closes the last suggestion cursor
+            mSuggestionAdapter.changeCursor(null);
+            mSuggestionAdapter = null;
+        }
+    }
 }
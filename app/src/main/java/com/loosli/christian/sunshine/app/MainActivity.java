@@ -1,12 +1,11 @@
 package com.loosli.christian.sunshine.app;
 
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.ActivityOptionsCompat;
+import android.support.v4.os.TraceCompat;
 import android.support.v4.util.Pair;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
@@ -14,14 +13,14 @@ import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewGroup;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 import com.loosli.christian.sunshine.app.data.WeatherContract;
-import com.loosli.christian.sunshine.app.gcm.RegistrationIntentService;
-import com.loosli.christian.sunshine.app.sync.SunshineSyncAdapter;
 
-public class MainActivity extends AppCompatActivity implements ForecastFragment.Callback {
+public class MainActivity extends AppCompatActivity implements ForecastFragment.Callback,
+        ViewPreInflater.Provider, StartupInitializer.Callback {
 
     public static final String SENT_TOKEN_TO_SERVER = "sentTokenToServer";
     private static final String DETAILFRAGMENT_TAG = "DFTAG";
@@ -29,14 +28,34 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
     private final String LOG_TAG = MainActivity.class.getSimpleName();
     private boolean mTwoPane;
     private String mLocation;
+    private ViewPreInflater mViewPreInflater;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
+        TraceCompat.beginSection("MainActivity.onCreate");
+        try {
+            super.onCreate(savedInstanceState);
+            createViews(savedInstanceState);
+
+            // Nothing of this is needed for the first forecast, so it runs in the background
+            new StartupInitializer(this, this).execute();
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    private void createViews(Bundle savedInstanceState) {
         mLocation = Utility.getPreferredLocation(this);
         Uri contentUri = getIntent() != null ? getIntent().getData() : null;
 
-        setContentView(R.layout.activity_main);
+        // Before setContentView, so the forecast fragment can hand it work from onCreateView
+        mViewPreInflater = new ViewPreInflater(this);
+        TraceCompat.beginSection("MainActivity.setContentView");
+        try {
+            setContentView(R.layout.activity_main);
+        } finally {
+            TraceCompat.endSection();
+        }
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
         getSupportActionBar().setDisplayShowTitleEnabled(false);
@@ -46,6 +65,9 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
             // (res/layout-sw600dp). If this view is present, then the activity should be
             // in two-pane mode.
             mTwoPane = true;
+            // The detail card for the first selection inflates while the forecast loads
+            mViewPreInflater.prepare(R.layout.fragment_detail_start,
+                    (ViewGroup) findViewById(R.id.weather_detail_container), 1);
             // In two-pane mode, show the detail view in this activity by
             // adding or replacing the detail fragment using a
             // fragment transaction.
@@ -72,25 +94,23 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
         if (contentUri != null) {
             forecastFragment.setInitialSelectedDate(WeatherContract.WeatherEntry.getDateFromUri(contentUri));
         }
+    }
 
-        SunshineSyncAdapter.initializeSyncAdapter(this);
-
-        // If Google Play Services is up to date, we'll want to register GCM. If it is not, we'll
-        // skip the registration and this device will not receive any downstream messages from
-        // our fake server. Because weather alerts are not a core feature of the app, this should
-        // not affect the behavior of the app, from a user perspective.
-        if (checkPlayServices()) {
-            // Because this is the initial creation of the app, we'll want to be certain we have
-            // a token. If we do not, then we will start the IntentService that will register this
-            // application with GCM.
-            SharedPreferences sharedPreferences =
-                    PreferenceManager.getDefaultSharedPreferences(this);
-            boolean sentToken = sharedPreferences.getBoolean(SENT_TOKEN_TO_SERVER, false);
-            if (!sentToken) {
-                Intent intent = new Intent(this, RegistrationIntentService.class);
-                startService(intent);
-            }
-        }
+    @Override
+    protected void onStop() {
+        super.onStop();
+        FrameMonitor.get().export(this);
+    }
+
+    @Override
+    protected void onDestroy() {
+        mViewPreInflater.quit();
+        super.onDestroy();
+    }
+
+    @Override
+    public ViewPreInflater getViewPreInflater() {
+        return mViewPreInflater;
     }
 
     @Override
@@ -160,24 +180,22 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
     }
 
     /**
-     * Check the device to make sure it has the Google Play Services APK. If
-     * it doesn't, display a dialog that allows users to download the APK from
+     * Once the {@link StartupInitializer} has checked the device for the Google Play Services
+     * APK: if it doesn't have it, display a dialog that allows users to download the APK from
      * the Google Play Store or enable it in the device's system settings.
      */
-
-    private boolean checkPlayServices() {
+    @Override
+    public void onPlayServicesChecked(int resultCode) {
+        if (resultCode == ConnectionResult.SUCCESS || isFinishing()) {
+            return;
+        }
         GoogleApiAvailability apiAvailability = GoogleApiAvailability.getInstance();
-        int resultCode = apiAvailability.isGooglePlayServicesAvailable(this);
-        if (resultCode != ConnectionResult.SUCCESS) {
-            if (apiAvailability.isUserResolvableError(resultCode)) {
-                apiAvailability.getErrorDialog(this, resultCode,
-                        PLAY_SERVICES_RESOLUTION_REQUEST).show();
-            } else {
-                Log.i(LOG_TAG, "This device is not supported.");
-                finish();
-            }
-            return false;
+        if (apiAvailability.isUserResolvableError(resultCode)) {
+            apiAvailability.getErrorDialog(this, resultCode,
+                    PLAY_SERVICES_RESOLUTION_REQUEST).show();
+        } else {
+            Log.i(LOG_TAG, "This device is not supported.");
+            finish();
         }
-        return true;
     }
 }
@@ -1,8 +1,10 @@
 package com.loosli.christian.sunshine.app;
 
 import android.annotation.TargetApi;
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.ListPreference;
@@ -44,6 +46,7 @@ public class SettingsActivity extends PreferenceActivity
         // updated when the preference changes.
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
+        bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_history_retention_key)));
 //        bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
 
         // If we are using a PlacePicker location, we need to show attributions.
@@ -219,6 +222,17 @@ public class SettingsActivity extends PreferenceActivity
                 }
 
                 Utility.resetLocationStatus(this);
+
+                // Show the forecast of a stored location close by until the sync brings the
+                // new location's own
+                final Context appContext = getApplicationContext();
+                new AsyncTask<Void, Void, Void>() {
+                    @Override
+                    protected Void doInBackground(Void... params) {
+                        Utility.adoptNearbyForecast(appContext);
+                        return null;
+                    }
+                }.execute();
                 SunshineSyncAdapter.syncImmediately(this);
             }
         } else {
@@ -0,0 +1,92 @@
+package com.loosli.christian.sunshine.app;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.preference.PreferenceManager;
+import android.support.v4.os.TraceCompat;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.GoogleApiAvailability;
+import com.loosli.christian.sunshine.app.gcm.RegistrationIntentService;
+import com.loosli.christian.sunshine.app.sync.SunshineSyncAdapter;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Does the startup work that {@link MainActivity} needs, but not for its first frame, on a
+ * background thread: it sets up the sync account, which may go through the AccountManager,
+ * checks for Google Play Services and, if they are there, registers with GCM unless that was
+ * done before.
+ * <p/>
+ * Each step is a trace section, so that systrace shows them next to the activity's own.  Only
+ * what the user has to see, the Play Services error dialog, goes back to the activity.
+ */
+class StartupInitializer extends AsyncTask<Void, Void, Integer> {
+
+    interface Callback {
+        /**
+         * Called on the main thread with the result of
+         * {@link GoogleApiAvailability#isGooglePlayServicesAvailable}.
+         */
+        void onPlayServicesChecked(int resultCode);
+    }
+
+    private final Context mContext;
+    // The activity may be gone by the time the checks are done
+    private final WeakReference<Callback> mCallback;
+
+    StartupInitializer(Context context, Callback callback) {
+        mContext = context.getApplicationContext();
+        mCallback = new WeakReference<Callback>(callback);
+    }
+
+    @Override
+    protected Integer doInBackground(Void... params) {
+        TraceCompat.beginSection("StartupInitializer.syncAdapter");
+        try {
+            SunshineSyncAdapter.initializeSyncAdapter(mContext);
+        } finally {
+            TraceCompat.endSection();
+        }
+
+        int resultCode;
+        TraceCompat.beginSection("StartupInitializer.playServices");
+        try {
+            resultCode = GoogleApiAvailability.getInstance().isGooglePlayServicesAvailable(mContext);
+        } finally {
+            TraceCompat.endSection();
+        }
+
+        // If Google Play Services is up to date, we'll want to register GCM. If it is not, we'll
+        // skip the registration and this device will not receive any downstream messages from
+        // our fake server. Because weather alerts are not a core feature of the app, this should
+        // not affect the behavior of the app, from a user perspective.
+        if (resultCode == ConnectionResult.SUCCESS) {
+            TraceCompat.beginSection("StartupInitializer.gcmRegistration");
+            try {
+                // Because this is the initial creation of the app, we'll want to be certain we
+                // have a token. If we do not, then we will start the IntentService that will
+                // register this application with GCM.
+                SharedPreferences sharedPreferences =
+                        PreferenceManager.getDefaultSharedPreferences(mContext);
+                boolean sentToken = sharedPreferences.getBoolean(MainActivity.SENT_TOKEN_TO_SERVER, false);
+                if (!sentToken) {
+                    mContext.startService(new Intent(mContext, RegistrationIntentService.class));
+                }
+            } finally {
+                TraceCompat.endSection();
+            }
+        }
+        return resultCode;
+    }
+
+    @Override
+    protected void onPostExecute(Integer resultCode) {
+        Callback callback = mCallback.get();
+        if (callback != null) {
+            callback.onPlayServicesChecked(resultCode);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.loosli.christian.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Lets {@link EpochDays} and the {@link FormatCache} know that the device moved to another time
+ * zone.
+ */
+public class TimeZoneChangedReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        EpochDays.resetTimeZone();
+        FormatCache.onTimeZoneChanged();
+    }
+}
@@ -4,13 +4,16 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.Bundle;
 import android.preference.PreferenceManager;
-import android.text.format.Time;
 
+import com.loosli.christian.sunshine.app.data.ForecastSnapshot;
+import com.loosli.christian.sunshine.app.data.WeatherContract;
 import com.loosli.christian.sunshine.app.sync.SunshineSyncAdapter;
 
 import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.text.DateFormatSymbols;
+import java.text.DecimalFormatSymbols;
 import java.util.Date;
 import java.util.Locale;
 
@@ -52,23 +55,87 @@ public class Utility {
                 context.getString(R.string.pref_location_default));
     }
 
+    /**
+     * Has the forecast of a stored location near the preferred location stand in for it, if it
+     * has coordinates and no forecast of its own yet.  Touches the database, so don't call it
+     * on the main thread.
+     *
+     * @return the location setting whose forecast is shown, or null
+     */
+    public static String adoptNearbyForecast(Context context) {
+        if (!isLocationLatLonAvailable(context)) {
+            return null;
+        }
+        Bundle extras = new Bundle();
+        extras.putDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                getLocationLatitude(context));
+        extras.putDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+                getLocationLongitude(context));
+        Bundle result = context.getContentResolver().call(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                WeatherContract.LocationEntry.METHOD_ADOPT_NEARBY,
+                getPreferredLocation(context), extras);
+        return result != null
+                ? result.getString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)
+                : null;
+    }
+
+    /**
+     * @return today's weather of the location from the forecast snapshot, keyed like the
+     * METHOD_GET_TODAY result, or null if the snapshot has none
+     */
+    public static Bundle getTodayFromSnapshot(Context context, String locationSetting) {
+        ForecastSnapshot snapshot = ForecastSnapshot.read(context, locationSetting);
+        if (snapshot == null) {
+            return null;
+        }
+        return snapshot.getToday(WeatherContract.normalizeDate(System.currentTimeMillis()));
+    }
+
     public static boolean isMetric(Context context) {
+        return FormatCache.get(context).isMetric();
+    }
+
+    // The preference itself, which FormatCache reads once and again when it changes
+    static boolean readIsMetric(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_units_key),
                 context.getString(R.string.pref_units_metric))
                 .equals(context.getString(R.string.pref_units_metric));
     }
 
+    /**
+     * @return how many days of past forecasts to keep in the history archive
+     */
+    public static int getHistoryRetentionDays(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return Integer.parseInt(prefs.getString(context.getString(R.string.pref_history_retention_key),
+                context.getString(R.string.pref_history_retention_default)));
+    }
+
     public static String formatTemperature(Context context, double temperature) {
+        return formatTemperature(context, temperature, isMetric(context));
+    }
+
+    /**
+     * Like {@link #formatTemperature(Context, double)}, for callers formatting many values that
+     * read the units preference once.
+     */
+    public static String formatTemperature(Context context, double temperature, boolean isMetric) {
+        FormatCache cache = FormatCache.get(context);
+        String formatted = cache.getTemperature(temperature, isMetric);
+        if (formatted != null) {
+            return formatted;
+        }
+
         // Data stored in Celsius by default.  If user prefers to see in Fahrenheit, convert
         // the values here.
-        String suffix = "\u00B0";
-        if (!isMetric(context)) {
-            temperature = (temperature * 1.8) + 32;
-        }
+        double shown = isMetric ? temperature : (temperature * 1.8) + 32;
 
         // For presentation, assume the user doesn't care about tenths of a degree.
-        return String.format(context.getString(R.string.format_temperature), temperature);
+        formatted = String.format(context.getString(R.string.format_temperature), shown);
+        cache.putTemperature(temperature, isMetric, formatted);
+        return formatted;
     }
 
     static String formatDate(long dateInMilliseconds) {
@@ -91,29 +158,37 @@ public class Utility {
         // For the next 5 days: "Wednesday" (just the day name)
         // For all days after that: "Mon Jun 8"
 
-        Time time = new Time();
-        time.setToNow();
-        long currentTime = System.currentTimeMillis();
-        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
-        int currentJulianDay = Time.getJulianDay(currentTime, time.gmtoff);
+        int day = EpochDays.fromMillis(dateInMillis);
+        FormatCache cache = FormatCache.get(context);
+        int currentDay = cache.getToday();
+        int style = displayLongToday ? FormatCache.DAY_FRIENDLY_LONG_TODAY : FormatCache.DAY_FRIENDLY;
+        String formatted = cache.getDay(day, style, currentDay);
+        if (formatted != null) {
+            return formatted;
+        }
 
         // If the date we're building the String for is today's date, the format
         // is "Today, June 24"
-        if (displayLongToday && julianDay == currentJulianDay) {
+        if (displayLongToday && day == currentDay) {
             String today = context.getString(R.string.today);
             int formatId = R.string.format_full_friendly_date;
-            return String.format(context.getString(
+            formatted = String.format(context.getString(
                     formatId,
                     today,
                     getFormattedMonthDay(context, dateInMillis)));
-        } else if (julianDay < currentJulianDay + 7) {
+        } else if (day < currentDay + 7) {
             // If the input date is less than a week in the future, just return the day name.
-            return getDayName(context, dateInMillis);
+            formatted = getDayName(context, dateInMillis);
         } else {
-            // Otherwise, use the form "Mon Jun 3"
-            SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
-            return shortenedDateFormat.format(dateInMillis);
+            // Otherwise, use the form "Mon Jun 03"
+            DateNames names = DateNames.get();
+            StringBuilder builder = new StringBuilder(16)
+                    .append(names.shortWeekdays[EpochDays.getWeekDay(day) + 1]).append(' ')
+                    .append(names.shortMonths[EpochDays.getMonth(day)]).append(' ');
+            formatted = names.appendTwoDigits(builder, EpochDays.getMonthDay(day)).toString();
         }
+        cache.putDay(day, style, currentDay, formatted);
+        return formatted;
     }
 
     /**
@@ -125,13 +200,22 @@ public class Utility {
      * @return a user-friendly representation of the date.
      */
     public static String getFullFriendlyDayString(Context context, long dateInMillis) {
+        int epochDay = EpochDays.fromMillis(dateInMillis);
+        FormatCache cache = FormatCache.get(context);
+        int currentDay = cache.getToday();
+        String formatted = cache.getDay(epochDay, FormatCache.DAY_FULL_FRIENDLY, currentDay);
+        if (formatted != null) {
+            return formatted;
+        }
 
         String day = getDayName(context, dateInMillis);
         int formatId = R.string.format_full_friendly_date;
-        return String.format(context.getString(
+        formatted = String.format(context.getString(
                 formatId,
                 day,
                 getFormattedMonthDay(context, dateInMillis)));
+        cache.putDay(epochDay, FormatCache.DAY_FULL_FRIENDLY, currentDay, formatted);
+        return formatted;
     }
 
     /**
@@ -146,21 +230,23 @@ public class Utility {
         // If the date is today, return the localized version of "Today" instead of the actual
         // day name.
 
-        Time t = new Time();
-        t.setToNow();
-        int julianDay = Time.getJulianDay(dateInMillis, t.gmtoff);
-        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), t.gmtoff);
-        if (julianDay == currentJulianDay) {
-            return context.getString(R.string.today);
-        } else if (julianDay == currentJulianDay + 1) {
-            return context.getString(R.string.tomorrow);
+        int day = EpochDays.fromMillis(dateInMillis);
+        FormatCache cache = FormatCache.get(context);
+        int currentDay = cache.getToday();
+        String name = cache.getDay(day, FormatCache.DAY_NAME, currentDay);
+        if (name != null) {
+            return name;
+        }
+        if (day == currentDay) {
+            name = context.getString(R.string.today);
+        } else if (day == currentDay + 1) {
+            name = context.getString(R.string.tomorrow);
         } else {
-            Time time = new Time();
-            time.setToNow();
             // Otherwise, the format is just the day of the week (e.g "Wednesday".
-            SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
-            return dayFormat.format(dateInMillis);
+            name = DateNames.get().weekdays[EpochDays.getWeekDay(day) + 1];
         }
+        cache.putDay(day, FormatCache.DAY_NAME, currentDay, name);
+        return name;
     }
 
     /**
@@ -172,21 +258,76 @@ public class Utility {
      * @return The day in the form of a string formatted "December 6"
      */
     public static String getFormattedMonthDay(Context context, long dateInMillis) {
-        Time time = new Time();
-        time.setToNow();
-        SimpleDateFormat dbDateFormat = new SimpleDateFormat(Utility.DATE_FORMAT);
-        SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
-        String monthDayString = monthDayFormat.format(dateInMillis);
-        return monthDayString;
+        int day = EpochDays.fromMillis(dateInMillis);
+        FormatCache cache = FormatCache.get(context);
+        int currentDay = cache.getToday();
+        String formatted = cache.getDay(day, FormatCache.DAY_MONTH_DAY, currentDay);
+        if (formatted != null) {
+            return formatted;
+        }
+        DateNames names = DateNames.get();
+        StringBuilder builder = new StringBuilder(16)
+                .append(names.months[EpochDays.getMonth(day)]).append(' ');
+        formatted = names.appendTwoDigits(builder, EpochDays.getMonthDay(day)).toString();
+        cache.putDay(day, FormatCache.DAY_MONTH_DAY, currentDay, formatted);
+        return formatted;
+    }
+
+    /*
+        Day and month names of the current locale, as SimpleDateFormat would print them for
+        "EEEE", "EEE", "MMMM" and "MMM".  They are looked up once per locale instead of building
+        a SimpleDateFormat for every date shown.  Weekdays are indexed like Calendar, from 1 for
+        Sunday; months from 0 for January.
+     */
+    private static final class DateNames {
+        private static DateNames sInstance;
+
+        final Locale locale;
+        final String[] weekdays;
+        final String[] shortWeekdays;
+        final String[] months;
+        final String[] shortMonths;
+        final char zeroDigit;
+
+        private DateNames(Locale locale) {
+            DateFormatSymbols symbols = DateFormatSymbols.getInstance(locale);
+            this.locale = locale;
+            weekdays = symbols.getWeekdays();
+            shortWeekdays = symbols.getShortWeekdays();
+            months = symbols.getMonths();
+            shortMonths = symbols.getShortMonths();
+            zeroDigit = DecimalFormatSymbols.getInstance(locale).getZeroDigit();
+        }
+
+        static synchronized DateNames get() {
+            Locale locale = Locale.getDefault();
+            if (sInstance == null || !sInstance.locale.equals(locale)) {
+                sInstance = new DateNames(locale);
+            }
+            return sInstance;
+        }
+
+        StringBuilder appendTwoDigits(StringBuilder builder, int value) {
+            return builder.append((char) (zeroDigit + value / 10))
+                    .append((char) (zeroDigit + value % 10));
+        }
     }
 
     public static String getFormattedWind(Context context, float windSpeed, float degrees) {
+        FormatCache cache = FormatCache.get(context);
+        boolean isMetric = cache.isMetric();
+        String formatted = cache.getWind(windSpeed, degrees, isMetric);
+        if (formatted != null) {
+            return formatted;
+        }
+
         int windFormat;
-        if (Utility.isMetric(context)) {
+        float shownSpeed = windSpeed;
+        if (isMetric) {
             windFormat = R.string.format_wind_kmh;
         } else {
             windFormat = R.string.format_wind_mph;
-            windSpeed = .621371192237334f * windSpeed;
+            shownSpeed = .621371192237334f * windSpeed;
         }
 
         // From wind direction in degrees, determine compass direction as a string (e.g NW)
@@ -210,7 +351,9 @@ public class Utility {
         } else if (degrees >= 292.5 || degrees < 22.5) {
             direction = "NW";
         }
-        return String.format(context.getString(windFormat), windSpeed, direction);
+        formatted = String.format(context.getString(windFormat), shownSpeed, direction);
+        cache.putWind(windSpeed, degrees, isMetric, formatted);
+        return formatted;
     }
 
     /**
@@ -221,32 +364,7 @@ public class Utility {
      * @return resource id for the corresponding icon. -1 if no relation is found.
      */
     public static int getIconResourceForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.ic_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.ic_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.ic_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.ic_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.ic_fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.ic_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.ic_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.ic_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.ic_cloudy;
-        }
-        return -1;
+        return WeatherConditions.getIconResource(weatherId);
     }
 
     /**
@@ -273,36 +391,14 @@ public class Utility {
      * @return url for the corresponding weather artwork. null if no relation is found.
      */
     public static String getArtUrlForWeatherCondition(Context context, int weatherId) {
+        String artKey = WeatherConditions.getArtKey(weatherId);
+        if (artKey == null) {
+            return null;
+        }
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         String formatArtUrl = prefs.getString(context.getString(R.string.pref_art_pack_key),
                 context.getString(R.string.pref_art_pack_sunshine));
-
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return String.format(Locale.US, formatArtUrl, "storm");
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return String.format(Locale.US, formatArtUrl, "light_rain");
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return String.format(Locale.US, formatArtUrl, "rain");
-        } else if (weatherId == 511) {
-            return String.format(Locale.US, formatArtUrl, "snow");
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return String.format(Locale.US, formatArtUrl, "rain");
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return String.format(Locale.US, formatArtUrl, "snow");
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return String.format(Locale.US, formatArtUrl, "fog");
-        } else if (weatherId == 761 || weatherId == 781) {
-            return String.format(Locale.US, formatArtUrl, "storm");
-        } else if (weatherId == 800) {
-            return String.format(Locale.US, formatArtUrl, "clear");
-        } else if (weatherId == 801) {
-            return String.format(Locale.US, formatArtUrl, "light_clouds");
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return String.format(Locale.US, formatArtUrl, "clouds");
-        }
-        return null;
+        return String.format(Locale.US, formatArtUrl, artKey);
     }
 
 
@@ -314,34 +410,23 @@ public class Utility {
      * @return resource id for the corresponding icon. -1 if no relation is found.
      */
     public static int getArtResourceForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.art_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.art_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.art_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.art_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.art_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.art_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.art_fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.art_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.art_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.art_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.art_clouds;
-        }
-        return -1;
+        return ART_RESOURCES[WeatherConditions.getGroup(weatherId)];
     }
 
+    // Indexed by the groups of WeatherConditions
+    private static final int[] ART_RESOURCES = {
+            -1,
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_fog,
+            R.drawable.art_storm,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds
+    };
+
     /**
      * Helper method to provide the string according to the weather
      * condition id returned by the OpenWeatherMap call.
@@ -351,176 +436,82 @@ public class Utility {
      * @return string for the weather condition. null if no relation is found.
      */
     public static String getStringForWeatherCondition(Context context, int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        int stringId;
-        if (weatherId >= 200 && weatherId <= 232) {
-            stringId = R.string.condition_2xx;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            stringId = R.string.condition_3xx;
-        } else switch (weatherId) {
-            case 500:
-                stringId = R.string.condition_500;
-                break;
-            case 501:
-                stringId = R.string.condition_501;
-                break;
-            case 502:
-                stringId = R.string.condition_502;
-                break;
-            case 503:
-                stringId = R.string.condition_503;
-                break;
-            case 504:
-                stringId = R.string.condition_504;
-                break;
-            case 511:
-                stringId = R.string.condition_511;
-                break;
-            case 520:
-                stringId = R.string.condition_520;
-                break;
-            case 531:
-                stringId = R.string.condition_531;
-                break;
-            case 600:
-                stringId = R.string.condition_600;
-                break;
-            case 601:
-                stringId = R.string.condition_601;
-                break;
-            case 602:
-                stringId = R.string.condition_602;
-                break;
-            case 611:
-                stringId = R.string.condition_611;
-                break;
-            case 612:
-                stringId = R.string.condition_612;
-                break;
-            case 615:
-                stringId = R.string.condition_615;
-                break;
-            case 616:
-                stringId = R.string.condition_616;
-                break;
-            case 620:
-                stringId = R.string.condition_620;
-                break;
-            case 621:
-                stringId = R.string.condition_621;
-                break;
-            case 622:
-                stringId = R.string.condition_622;
-                break;
-            case 701:
-                stringId = R.string.condition_701;
-                break;
-            case 711:
-                stringId = R.string.condition_711;
-                break;
-            case 721:
-                stringId = R.string.condition_721;
-                break;
-            case 731:
-                stringId = R.string.condition_731;
-                break;
-            case 741:
-                stringId = R.string.condition_741;
-                break;
-            case 751:
-                stringId = R.string.condition_751;
-                break;
-            case 761:
-                stringId = R.string.condition_761;
-                break;
-            case 762:
-                stringId = R.string.condition_762;
-                break;
-            case 771:
-                stringId = R.string.condition_771;
-                break;
-            case 781:
-                stringId = R.string.condition_781;
-                break;
-            case 800:
-                stringId = R.string.condition_800;
-                break;
-            case 801:
-                stringId = R.string.condition_801;
-                break;
-            case 802:
-                stringId = R.string.condition_802;
-                break;
-            case 803:
-                stringId = R.string.condition_803;
-                break;
-            case 804:
-                stringId = R.string.condition_804;
-                break;
-            case 900:
-                stringId = R.string.condition_900;
-                break;
-            case 901:
-                stringId = R.string.condition_901;
-                break;
-            case 902:
-                stringId = R.string.condition_902;
-                break;
-            case 903:
-                stringId = R.string.condition_903;
-                break;
-            case 904:
-                stringId = R.string.condition_904;
-                break;
-            case 905:
-                stringId = R.string.condition_905;
-                break;
-            case 906:
-                stringId = R.string.condition_906;
-                break;
-            case 951:
-                stringId = R.string.condition_951;
-                break;
-            case 952:
-                stringId = R.string.condition_952;
-                break;
-            case 953:
-                stringId = R.string.condition_953;
-                break;
-            case 954:
-                stringId = R.string.condition_954;
-                break;
-            case 955:
-                stringId = R.string.condition_955;
-                break;
-            case 956:
-                stringId = R.string.condition_956;
-                break;
-            case 957:
-                stringId = R.string.condition_957;
-                break;
-            case 958:
-                stringId = R.string.condition_958;
-                break;
-            case 959:
-                stringId = R.string.condition_959;
-                break;
-            case 960:
-                stringId = R.string.condition_960;
-                break;
-            case 961:
-                stringId = R.string.condition_961;
-                break;
-            case 962:
-                stringId = R.string.condition_962;
-                break;
-            default:
-                return context.getString(R.string.condition_unknown, weatherId);
+        FormatCache cache = FormatCache.get(context);
+        String condition = cache.getCondition(weatherId);
+        if (condition == null) {
+            condition = formatWeatherCondition(context, weatherId);
+            cache.putCondition(weatherId, condition);
+        }
+        return condition;
+    }
+
+    private static String formatWeatherCondition(Context context, int weatherId) {
+        int index = WeatherConditions.indexOf(weatherId);
+        int stringId = index >= 0 ? CONDITION_STRINGS[index] : 0;
+        if (stringId == 0) {
+            return context.getString(R.string.condition_unknown, weatherId);
         }
         return context.getString(stringId);
     }
 
+    // Descriptions of the conditions, indexed like the tables of WeatherConditions
+    private static final int[] CONDITION_STRINGS = WeatherConditions.buildTable(new int[][]{
+            {200, 232, R.string.condition_2xx},
+            {300, 321, R.string.condition_3xx},
+            {500, 500, R.string.condition_500},
+            {501, 501, R.string.condition_501},
+            {502, 502, R.string.condition_502},
+            {503, 503, R.string.condition_503},
+            {504, 504, R.string.condition_504},
+            {511, 511, R.string.condition_511},
+            {520, 520, R.string.condition_520},
+            {531, 531, R.string.condition_531},
+            {600, 600, R.string.condition_600},
+            {601, 601, R.string.condition_601},
+            {602, 602, R.string.condition_602},
+            {611, 611, R.string.condition_611},
+            {612, 612, R.string.condition_612},
+            {615, 615, R.string.condition_615},
+            {616, 616, R.string.condition_616},
+            {620, 620, R.string.condition_620},
+            {621, 621, R.string.condition_621},
+            {622, 622, R.string.condition_622},
+            {701, 701, R.string.condition_701},
+            {711, 711, R.string.condition_711},
+            {721, 721, R.string.condition_721},
+            {731, 731, R.string.condition_731},
+            {741, 741, R.string.condition_741},
+            {751, 751, R.string.condition_751},
+            {761, 761, R.string.condition_761},
+            {762, 762, R.string.condition_762},
+            {771, 771, R.string.condition_771},
+            {781, 781, R.string.condition_781},
+            {800, 800, R.string.condition_800},
+            {801, 801, R.string.condition_801},
+            {802, 802, R.string.condition_802},
+            {803, 803, R.string.condition_803},
+            {804, 804, R.string.condition_804},
+            {900, 900, R.string.condition_900},
+            {901, 901, R.string.condition_901},
+            {902, 902, R.string.condition_902},
+            {903, 903, R.string.condition_903},
+            {904, 904, R.string.condition_904},
+            {905, 905, R.string.condition_905},
+            {906, 906, R.string.condition_906},
+            {951, 951, R.string.condition_951},
+            {952, 952, R.string.condition_952},
+            {953, 953, R.string.condition_953},
+            {954, 954, R.string.condition_954},
+            {955, 955, R.string.condition_955},
+            {956, 956, R.string.condition_956},
+            {957, 957, R.string.condition_957},
+            {958, 958, R.string.condition_958},
+            {959, 959, R.string.condition_959},
+            {960, 960, R.string.condition_960},
+            {961, 961, R.string.condition_961},
+            {962, 962, R.string.condition_962}
+    });
+
     /*
  * Helper method to provide the correct image according to the weather condition id returned
  * by the OpenWeatherMap call.
@@ -529,42 +520,7 @@ public class Utility {
  * @return A string URL to an appropriate image or null if no mapping is found
  */
     public static String getImageUrlForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-//        http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg
-//        http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg
-//        http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG
-//        http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg
-//        http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG
-//        http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg
-//        http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg
-//        http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg
-//        http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg
-//        http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg
-        if (weatherId >= 200 && weatherId <= 232) {
-            return "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg";
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg";
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg";
-        } else if (weatherId == 511) {
-            return "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG";
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg";
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG";
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg";
-        } else if (weatherId == 761 || weatherId == 781) {
-            return "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg";
-        } else if (weatherId == 800) {
-            return "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg";
-        } else if (weatherId == 801) {
-            return "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg";
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg";
-        }
-        return null;
+        return WeatherConditions.getImageUrl(weatherId);
     }
 
     /**
@@ -0,0 +1,144 @@
+package com.loosli.christian.sunshine.app;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayDeque;
+
+/**
+ * Inflates layouts ahead of time on a background thread, so that the main thread finds the
+ * views ready when it needs them instead of paying for the inflation in its first frames.
+ * <p/>
+ * Views are inflated with a clone of the activity's LayoutInflater, so they get the same theme
+ * and the same AppCompat widgets.  The layouts inflated this way must not create Handlers or
+ * touch their parent beyond generating layout params.  If an inflation fails, the remaining
+ * ones of that request are dropped and the main thread inflates as it always did.
+ * <p/>
+ * Inflated views are handed to a {@link Callback} on the main thread, or kept until
+ * {@link #take(int)} asks for them.  Everything but the background inflation itself happens on
+ * the main thread.
+ */
+class ViewPreInflater {
+
+    private static final String LOG_TAG = ViewPreInflater.class.getSimpleName();
+
+    /**
+     * Implemented by activities that share their pre-inflater with their fragments.
+     */
+    interface Provider {
+        ViewPreInflater getViewPreInflater();
+    }
+
+    interface Callback {
+        void onInflated(int layoutId, View view);
+    }
+
+    private final LayoutInflater mInflater;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    // Views kept for take(), and how many more of each layout are on their way there
+    private final SparseArray<ArrayDeque<View>> mViews = new SparseArray<ArrayDeque<View>>();
+    private final SparseIntArray mPending = new SparseIntArray();
+    private boolean mQuit;
+
+    ViewPreInflater(Context context) {
+        mInflater = LayoutInflater.from(context).cloneInContext(context);
+        mThread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Inflates {@code count} views of the layout and hands each to the callback as it is ready.
+     *
+     * @param parent gives the views their layout params; they are not attached to it
+     */
+    void inflate(final int layoutId, final ViewGroup parent, final int count,
+                 final Callback callback) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    final View view;
+                    try {
+                        view = mInflater.inflate(layoutId, parent, false);
+                    } catch (RuntimeException e) {
+                        // InflateException, or a widget that insists on the main thread
+                        Log.w(LOG_TAG, "Could not inflate layout " + layoutId + " ahead of time", e);
+                        final int dropped = count - i;
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (callback == null) {
+                                    mPending.put(layoutId, mPending.get(layoutId) - dropped);
+                                }
+                            }
+                        });
+                        return;
+                    }
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (mQuit) {
+                                return;
+                            }
+                            if (callback != null) {
+                                callback.onInflated(layoutId, view);
+                            } else {
+                                mPending.put(layoutId, mPending.get(layoutId) - 1);
+                                ArrayDeque<View> views = mViews.get(layoutId);
+                                if (views == null) {
+                                    views = new ArrayDeque<View>();
+                                    mViews.put(layoutId, views);
+                                }
+                                views.add(view);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Makes sure {@code count} views of the layout are kept or on their way, for
+     * {@link #take(int)}.
+     */
+    void prepare(int layoutId, ViewGroup parent, int count) {
+        ArrayDeque<View> views = mViews.get(layoutId);
+        int missing = count - mPending.get(layoutId) - (views != null ? views.size() : 0);
+        if (!mQuit && missing > 0) {
+            mPending.put(layoutId, mPending.get(layoutId) + missing);
+            inflate(layoutId, parent, missing, null);
+        }
+    }
+
+    /**
+     * @return a view of the layout inflated ahead of time, or null if none is ready
+     */
+    View take(int layoutId) {
+        ArrayDeque<View> views = mViews.get(layoutId);
+        return views != null ? views.poll() : null;
+    }
+
+    /**
+     * Stops the background thread and drops the views that weren't taken.
+     */
+    void quit() {
+        mQuit = true;
+        mThread.quit();
+        mViews.clear();
+        mPending.clear();
+    }
+}
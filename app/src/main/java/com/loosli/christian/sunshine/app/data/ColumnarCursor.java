@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.loosli.christian.sunshine.app.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+/**
+ * A read-only cursor over one primitive array per column.
+ * <p/>
+ * A SQLiteCursor keeps its rows in a CursorWindow, which reserves up to 2MB for as long as the
+ * cursor stays open, e.g. while a CursorAdapter holds it.  Small results such as the forecast of
+ * a location only need a few hundred bytes, so {@link #copyOf(Cursor, int)} copies them out here
+ * and closes the window right away.
+ */
+class ColumnarCursor extends AbstractCursor {
+
+    private final String[] mColumnNames;
+    private final int[] mTypes;
+    private final long[][] mLongs;
+    private final double[][] mDoubles;
+    private final String[][] mStrings;
+    private final boolean[][] mNulls;
+    private final int mCount;
+
+    private ColumnarCursor(String[] columnNames, int count) {
+        int columnCount = columnNames.length;
+        mColumnNames = columnNames;
+        mCount = count;
+        mTypes = new int[columnCount];
+        mLongs = new long[columnCount][];
+        mDoubles = new double[columnCount][];
+        mStrings = new String[columnCount][];
+        mNulls = new boolean[columnCount][];
+    }
+
+    /**
+     * A cursor of its own over the rows of another.  The arrays are never written after
+     * {@link #copyOf(Cursor, int)}, so they are shared rather than copied again.
+     */
+    ColumnarCursor(ColumnarCursor other) {
+        mColumnNames = other.mColumnNames;
+        mCount = other.mCount;
+        mTypes = other.mTypes;
+        mLongs = other.mLongs;
+        mDoubles = other.mDoubles;
+        mStrings = other.mStrings;
+        mNulls = other.mNulls;
+    }
+
+    /**
+     * Copies a result of at most {@code maxRows} rows into a ColumnarCursor and closes the
+     * original.  Larger results, and results holding blobs, are returned unchanged.
+     */
+    static Cursor copyOf(Cursor cursor, int maxRows) {
+        if (cursor == null || cursor.getCount() > maxRows) {
+            return cursor;
+        }
+
+        int count = cursor.getCount();
+        int columnCount = cursor.getColumnCount();
+        ColumnarCursor copy = new ColumnarCursor(cursor.getColumnNames(), count);
+
+        // SQLite types values rather than columns, so each column gets the widest type it holds
+        for (int column = 0; column < columnCount; column++) {
+            int type = Cursor.FIELD_TYPE_NULL;
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                int valueType = cursor.getType(column);
+                if (valueType == Cursor.FIELD_TYPE_BLOB) {
+                    cursor.moveToPosition(-1);
+                    return cursor;
+                }
+                if (type == Cursor.FIELD_TYPE_NULL || valueType == Cursor.FIELD_TYPE_STRING
+                        || (type == Cursor.FIELD_TYPE_INTEGER && valueType == Cursor.FIELD_TYPE_FLOAT)) {
+                    type = valueType;
+                }
+            }
+            copy.mTypes[column] = type;
+            copy.mNulls[column] = new boolean[count];
+            switch (type) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    copy.mLongs[column] = new long[count];
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    copy.mDoubles[column] = new double[count];
+                    break;
+                default:
+                    copy.mStrings[column] = new String[count];
+            }
+        }
+
+        cursor.moveToPosition(-1);
+        for (int row = 0; cursor.moveToNext(); row++) {
+            for (int column = 0; column < columnCount; column++) {
+                if (cursor.isNull(column)) {
+                    copy.mNulls[column][row] = true;
+                    continue;
+                }
+                switch (copy.mTypes[column]) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        copy.mLongs[column][row] = cursor.getLong(column);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        copy.mDoubles[column][row] = cursor.getDouble(column);
+                        break;
+                    default:
+                        copy.mStrings[column][row] = cursor.getString(column);
+                }
+            }
+        }
+        cursor.close();
+        return copy;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public int getType(int column) {
+        return mNulls[column][getRow()] ? Cursor.FIELD_TYPE_NULL : mTypes[column];
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mNulls[column][getRow()];
+    }
+
+    @Override
+    public String getString(int column) {
+        int row = getRow();
+        if (mNulls[column][row]) {
+            return null;
+        }
+        switch (mTypes[column]) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return Long.toString(mLongs[column][row]);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return Double.toString(mDoubles[column][row]);
+            default:
+                return mStrings[column][row];
+        }
+    }
+
+    @Override
+    public long getLong(int column) {
+        int row = getRow();
+        if (mNulls[column][row]) {
+            return 0;
+        }
+        switch (mTypes[column]) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return mLongs[column][row];
+            case Cursor.FIELD_TYPE_FLOAT:
+                return (long) mDoubles[column][row];
+            default:
+                return Long.parseLong(mStrings[column][row]);
+        }
+    }
+
+    @Override
+    public double getDouble(int column) {
+        int row = getRow();
+        if (mNulls[column][row]) {
+            return 0;
+        }
+        switch (mTypes[column]) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return mLongs[column][row];
+            case Cursor.FIELD_TYPE_FLOAT:
+                return mDoubles[column][row];
+            default:
+                return Double.parseDouble(mStrings[column][row]);
+        }
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    private int getRow() {
+        checkPosition();
+        return getPosition();
+    }
+}
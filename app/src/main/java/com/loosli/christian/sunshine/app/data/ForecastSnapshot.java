@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.loosli.christian.sunshine.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * The forecast of the preferred location as of the last sync, in a small file next to the
+ * database.  Reading it is one read of a few kilobytes and a checksum, with no SQLite to open
+ * and no join to run, so the forecast list can show it right away while the real data loads,
+ * and the Today widget and the wear bridge have something when the provider has nothing.
+ * <p/>
+ * The file is a header of magic, version, payload length and CRC32 of the payload, followed by
+ * the payload.  A new snapshot is written to a temporary file and renamed over the old one, so
+ * a reader sees either the old or the new file, never a partial one.  Anything that doesn't
+ * check out, including a snapshot of another location, reads as no snapshot.
+ */
+public final class ForecastSnapshot {
+
+    private static final String LOG_TAG = ForecastSnapshot.class.getSimpleName();
+
+    static final String FILE_NAME = "forecast.snapshot";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // "SUNS"
+    private static final int MAGIC = 0x53554e53;
+    // Bump when the payload layout changes; older files are then ignored
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * 4;
+    // Far above two weeks of days; anything larger is not a snapshot we wrote
+    private static final int MAX_FILE_SIZE = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String mLocationSetting;
+    private final String mCityName;
+    private final double mCoordLat;
+    private final double mCoordLong;
+    private final int mDayCount;
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    private final String[] mShortDescs;
+    private final double[] mMaxTemps;
+    private final double[] mMinTemps;
+
+    private ForecastSnapshot(String locationSetting, String cityName, double coordLat,
+                             double coordLong, int dayCount, long[] dates, int[] weatherIds,
+                             String[] shortDescs, double[] maxTemps, double[] minTemps) {
+        mLocationSetting = locationSetting;
+        mCityName = cityName;
+        mCoordLat = coordLat;
+        mCoordLong = coordLong;
+        mDayCount = dayCount;
+        mDates = dates;
+        mWeatherIds = weatherIds;
+        mShortDescs = shortDescs;
+        mMaxTemps = maxTemps;
+        mMinTemps = minTemps;
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public int getDayCount() {
+        return mDayCount;
+    }
+
+    /**
+     * The days from startDate on as a cursor over the given columns, which may be qualified
+     * with a table name.  The _id of a row is its date, which is unique within a location.
+     * Columns the snapshot doesn't have are null.
+     */
+    public Cursor toCursor(String[] projection, long startDate) {
+        int[] fields = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            String column = projection[i];
+            fields[i] = getField(column.substring(column.lastIndexOf('.') + 1));
+        }
+        int first = getFirstDay(startDate);
+        MatrixCursor cursor = new MatrixCursor(projection, mDayCount - first);
+        Object[] row = new Object[projection.length];
+        for (int day = first; day < mDayCount; day++) {
+            for (int i = 0; i < fields.length; i++) {
+                row[i] = getValue(fields[i], day);
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * @return the first day from today on, under the keys of the METHOD_GET_TODAY result, or
+     * null if the snapshot has no such day
+     */
+    public Bundle getToday(long today) {
+        int day = getFirstDay(today);
+        if (day == mDayCount) {
+            return null;
+        }
+        Bundle bundle = new Bundle();
+        bundle.putLong(WeatherContract.TodayEntry.COLUMN_DATE, mDates[day]);
+        bundle.putInt(WeatherContract.TodayEntry.COLUMN_WEATHER_ID, mWeatherIds[day]);
+        bundle.putString(WeatherContract.TodayEntry.COLUMN_SHORT_DESC, mShortDescs[day]);
+        bundle.putDouble(WeatherContract.TodayEntry.COLUMN_MAX_TEMP, mMaxTemps[day]);
+        bundle.putDouble(WeatherContract.TodayEntry.COLUMN_MIN_TEMP, mMinTemps[day]);
+        bundle.putString(WeatherContract.TodayEntry.COLUMN_CITY_NAME, mCityName);
+        bundle.putDouble(WeatherContract.TodayEntry.COLUMN_COORD_LAT, mCoordLat);
+        bundle.putDouble(WeatherContract.TodayEntry.COLUMN_COORD_LONG, mCoordLong);
+        return bundle;
+    }
+
+    private int getFirstDay(long startDate) {
+        int day = 0;
+        while (day < mDayCount && mDates[day] < startDate) {
+            day++;
+        }
+        return day;
+    }
+
+    private static final int FIELD_NONE = -1;
+    private static final int FIELD_DATE = 0;
+    private static final int FIELD_WEATHER_ID = 1;
+    private static final int FIELD_SHORT_DESC = 2;
+    private static final int FIELD_MAX_TEMP = 3;
+    private static final int FIELD_MIN_TEMP = 4;
+    private static final int FIELD_LOCATION_SETTING = 5;
+    private static final int FIELD_CITY_NAME = 6;
+    private static final int FIELD_COORD_LAT = 7;
+    private static final int FIELD_COORD_LONG = 8;
+
+    private static int getField(String column) {
+        if (column.equals(WeatherContract.WeatherEntry._ID) ||
+                column.equals(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+            return FIELD_DATE;
+        } else if (column.equals(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID)) {
+            return FIELD_WEATHER_ID;
+        } else if (column.equals(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC)) {
+            return FIELD_SHORT_DESC;
+        } else if (column.equals(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP)) {
+            return FIELD_MAX_TEMP;
+        } else if (column.equals(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP)) {
+            return FIELD_MIN_TEMP;
+        } else if (column.equals(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)) {
+            return FIELD_LOCATION_SETTING;
+        } else if (column.equals(WeatherContract.LocationEntry.COLUMN_CITY_NAME)) {
+            return FIELD_CITY_NAME;
+        } else if (column.equals(WeatherContract.LocationEntry.COLUMN_COORD_LAT)) {
+            return FIELD_COORD_LAT;
+        } else if (column.equals(WeatherContract.LocationEntry.COLUMN_COORD_LONG)) {
+            return FIELD_COORD_LONG;
+        }
+        return FIELD_NONE;
+    }
+
+    private Object getValue(int field, int day) {
+        switch (field) {
+            case FIELD_DATE:
+                return mDates[day];
+            case FIELD_WEATHER_ID:
+                return mWeatherIds[day];
+            case FIELD_SHORT_DESC:
+                return mShortDescs[day];
+            case FIELD_MAX_TEMP:
+                return mMaxTemps[day];
+            case FIELD_MIN_TEMP:
+                return mMinTemps[day];
+            case FIELD_LOCATION_SETTING:
+                return mLocationSetting;
+            case FIELD_CITY_NAME:
+                return mCityName;
+            case FIELD_COORD_LAT:
+                return mCoordLat;
+            case FIELD_COORD_LONG:
+                return mCoordLong;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the snapshot of the location, or null if there is no valid one for it
+     */
+    public static ForecastSnapshot read(Context context, String locationSetting) {
+        File file = getFile(context);
+        if (!file.exists()) {
+            return null;
+        }
+        // A plain read: the file is too small for a mapping to pay off, and the checksum needs
+        // the bytes in an array anyway
+        byte[] bytes;
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                long length = randomAccessFile.length();
+                if (length > MAX_FILE_SIZE) {
+                    return null;
+                }
+                bytes = new byte[(int) length];
+                randomAccessFile.readFully(bytes);
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error reading the forecast snapshot", e);
+            return null;
+        }
+        ByteBuffer payload = checkHeader(bytes);
+        if (payload == null) {
+            return null;
+        }
+        try {
+            return parse(payload, locationSetting);
+        } catch (BufferUnderflowException e) {
+            Log.w(LOG_TAG, "Truncated forecast snapshot", e);
+            return null;
+        }
+    }
+
+    // The payload if magic, version, length and checksum all match
+    private static ByteBuffer checkHeader(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC ||
+                buffer.getInt() != VERSION) {
+            return null;
+        }
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length != buffer.remaining()) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, HEADER_SIZE, length);
+        if ((int) crc.getValue() != checksum) {
+            Log.w(LOG_TAG, "Forecast snapshot fails its checksum");
+            return null;
+        }
+        return buffer.slice();
+    }
+
+    private static ForecastSnapshot parse(ByteBuffer payload, String locationSetting) {
+        String snapshotLocationSetting = getString(payload);
+        if (!snapshotLocationSetting.equals(locationSetting)) {
+            return null;
+        }
+        String cityName = getString(payload);
+        double coordLat = payload.getDouble();
+        double coordLong = payload.getDouble();
+        int dayCount = payload.getInt();
+        if (dayCount < 0) {
+            return null;
+        }
+        long[] dates = new long[dayCount];
+        int[] weatherIds = new int[dayCount];
+        String[] shortDescs = new String[dayCount];
+        double[] maxTemps = new double[dayCount];
+        double[] minTemps = new double[dayCount];
+        for (int day = 0; day < dayCount; day++) {
+            dates[day] = payload.getLong();
+            weatherIds[day] = payload.getInt();
+            shortDescs[day] = getString(payload);
+            maxTemps[day] = payload.getDouble();
+            minTemps[day] = payload.getDouble();
+        }
+        return new ForecastSnapshot(snapshotLocationSetting, cityName, coordLat, coordLong,
+                dayCount, dates, weatherIds, shortDescs, maxTemps, minTemps);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                length, UTF_8);
+        buffer.position(buffer.position() + length);
+        return string;
+    }
+
+    static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Collects the forecast of one location and replaces the snapshot with it.  Days are
+     * expected in ascending date order, as a sync produces them.
+     */
+    public static class Builder {
+        private final ByteArrayOutputStream mDays = new ByteArrayOutputStream();
+        private final DataOutputStream mDaysOut = new DataOutputStream(mDays);
+        private final String mLocationSetting;
+        private final String mCityName;
+        private final double mCoordLat;
+        private final double mCoordLong;
+        private int mDayCount;
+
+        public Builder(String locationSetting, String cityName, double coordLat,
+                       double coordLong) {
+            mLocationSetting = locationSetting;
+            mCityName = cityName;
+            mCoordLat = coordLat;
+            mCoordLong = coordLong;
+        }
+
+        public Builder addDay(long date, int weatherId, String shortDesc, double maxTemp,
+                              double minTemp) {
+            try {
+                mDaysOut.writeLong(date);
+                mDaysOut.writeInt(weatherId);
+                writeString(mDaysOut, shortDesc);
+                mDaysOut.writeDouble(maxTemp);
+                mDaysOut.writeDouble(minTemp);
+            } catch (IOException e) {
+                // A ByteArrayOutputStream doesn't throw
+                throw new IllegalStateException(e);
+            }
+            mDayCount++;
+            return this;
+        }
+
+        /**
+         * Writes the snapshot to a temporary file, syncs it and renames it over the current
+         * one.
+         *
+         * @return whether the snapshot was replaced
+         */
+        public boolean write(Context context) {
+            File file = getFile(context);
+            File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+            try {
+                ByteArrayOutputStream payload = new ByteArrayOutputStream(mDays.size() + 256);
+                DataOutputStream payloadOut = new DataOutputStream(payload);
+                writeString(payloadOut, mLocationSetting);
+                writeString(payloadOut, mCityName);
+                payloadOut.writeDouble(mCoordLat);
+                payloadOut.writeDouble(mCoordLong);
+                payloadOut.writeInt(mDayCount);
+                mDays.writeTo(payloadOut);
+                byte[] bytes = payload.toByteArray();
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+
+                FileOutputStream out = new FileOutputStream(tempFile);
+                try {
+                    DataOutputStream fileOut = new DataOutputStream(out);
+                    fileOut.writeInt(MAGIC);
+                    fileOut.writeInt(VERSION);
+                    fileOut.writeInt(bytes.length);
+                    fileOut.writeInt((int) crc.getValue());
+                    fileOut.write(bytes);
+                    fileOut.flush();
+                    // On disk before the rename makes it visible
+                    out.getFD().sync();
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Error writing the forecast snapshot", e);
+                tempFile.delete();
+                return false;
+            }
+            if (!tempFile.renameTo(file)) {
+                Log.w(LOG_TAG, "Error replacing the forecast snapshot");
+                tempFile.delete();
+                return false;
+            }
+            return true;
+        }
+
+        private static void writeString(DataOutputStream out, String string) throws IOException {
+            byte[] bytes = (string != null ? string : "").getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
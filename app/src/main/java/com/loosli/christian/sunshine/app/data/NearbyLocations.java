@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.loosli.christian.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+
+import com.loosli.christian.sunshine.app.data.WeatherContract.LocationEntry;
+import com.loosli.christian.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Finds the stored locations near a point, and the one whose forecast can stand in for a new
+ * location nearby.
+ * <p/>
+ * A bounding box around the point is looked up in the R*Tree, or with the coordinate index
+ * where the platform SQLite has no R*Tree module, and the few rows inside it are then filtered
+ * and ordered by their great-circle distance.  Every method expects to be called from
+ * {@link WeatherProvider}, and none of them writes.
+ */
+class NearbyLocations {
+
+    static final double EARTH_RADIUS_KM = 6371;
+
+    static final String[] COLUMNS = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG,
+            LocationEntry.COLUMN_DISTANCE
+    };
+
+    // Nearby locations looked at by findStandIn() for one with a current forecast
+    private static final int STAND_IN_CANDIDATES = 5;
+
+    private static final String SQL_LOCATION_COLUMNS = "l." + LocationEntry._ID + ", " +
+            "l." + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+            "l." + LocationEntry.COLUMN_CITY_NAME + ", " +
+            "l." + LocationEntry.COLUMN_COORD_LAT + ", " +
+            "l." + LocationEntry.COLUMN_COORD_LONG;
+
+    //SELECT l.* FROM location_rtree AS r INNER JOIN location AS l ON l._id = r.id
+    //  WHERE r.min_lat <= ? AND r.max_lat >= ? AND r.min_long <= ? AND r.max_long >= ?
+    private static final String SQL_SPATIAL_BOX = "SELECT " + SQL_LOCATION_COLUMNS +
+            " FROM " + LocationEntry.SPATIAL_TABLE_NAME + " AS r INNER JOIN " +
+            LocationEntry.TABLE_NAME + " AS l ON l." + LocationEntry._ID + " = r.id" +
+            " WHERE r.min_lat <= ? AND r.max_lat >= ? AND r.min_long <= ? AND r.max_long >= ?";
+
+    //SELECT l.* FROM location AS l
+    //  WHERE coord_lat <= ? AND coord_lat >= ? AND coord_long <= ? AND coord_long >= ?
+    private static final String SQL_INDEXED_BOX = "SELECT " + SQL_LOCATION_COLUMNS +
+            " FROM " + LocationEntry.TABLE_NAME + " AS l" +
+            " WHERE l." + LocationEntry.COLUMN_COORD_LAT + " <= ?" +
+            " AND l." + LocationEntry.COLUMN_COORD_LAT + " >= ?" +
+            " AND l." + LocationEntry.COLUMN_COORD_LONG + " <= ?" +
+            " AND l." + LocationEntry.COLUMN_COORD_LONG + " >= ?";
+
+    private static final String sCurrentForecastSelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ?";
+
+    private static class Candidate {
+        long id;
+        String locationSetting;
+        String cityName;
+        double lat;
+        double lon;
+        double distance;
+    }
+
+    private static final Comparator<Candidate> BY_DISTANCE = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate lhs, Candidate rhs) {
+            return Double.compare(lhs.distance, rhs.distance);
+        }
+    };
+
+    private NearbyLocations() {
+    }
+
+    /**
+     * @return whether the database has the R*Tree, rather than the coordinate index
+     */
+    static boolean hasSpatialIndex(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[]{LocationEntry.SPATIAL_TABLE_NAME}) != 0;
+    }
+
+    /**
+     * @return the locations within {@code radiusKm} of the point, nearest first, with the
+     * columns of {@link #COLUMNS}
+     */
+    static Cursor query(SQLiteDatabase db, boolean spatialIndex, double lat, double lon,
+                        double radiusKm, int limit) {
+        ArrayList<Candidate> candidates = find(db, spatialIndex, lat, lon, radiusKm, limit);
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, candidates.size());
+        for (Candidate candidate : candidates) {
+            cursor.addRow(new Object[]{candidate.id, candidate.locationSetting,
+                    candidate.cityName, candidate.lat, candidate.lon, candidate.distance});
+        }
+        return cursor;
+    }
+
+    /**
+     * Looks for the nearest location within {@code radiusKm} with a forecast from today on,
+     * unless the given location setting has one of its own already.
+     *
+     * @return the location setting and distance of that location, or null
+     */
+    static Bundle findStandIn(SQLiteDatabase db, boolean spatialIndex, String locationSetting,
+                              double lat, double lon, double radiusKm, long today) {
+        long locationId = -1;
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{locationSetting},
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                locationId = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (locationId != -1 && hasForecast(db, locationId, today)) {
+            return null;
+        }
+
+        for (Candidate candidate : find(db, spatialIndex, lat, lon, radiusKm, STAND_IN_CANDIDATES)) {
+            if (candidate.id != locationId && hasForecast(db, candidate.id, today)) {
+                Bundle result = new Bundle();
+                result.putString(LocationEntry.COLUMN_LOCATION_SETTING, candidate.locationSetting);
+                result.putDouble(LocationEntry.COLUMN_DISTANCE, candidate.distance);
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Great-circle distance by the haversine formula, accurate to well under a percent at
+     * the distances looked at here.
+     */
+    static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double sinLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+        double sinLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        double a = sinLat * sinLat +
+                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinLon * sinLon;
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private static boolean hasForecast(SQLiteDatabase db, long locationId, long today) {
+        return DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME,
+                sCurrentForecastSelection,
+                new String[]{Long.toString(locationId), Long.toString(today)}) != 0;
+    }
+
+    /*
+        A degree of latitude is the same length everywhere, a degree of longitude shrinks
+        with the cosine of the latitude.  Boxes reaching a pole or across the antimeridian
+        take every longitude instead; the distance filter drops what they pick up in excess.
+     */
+    private static ArrayList<Candidate> find(SQLiteDatabase db, boolean spatialIndex,
+                                             double lat, double lon, double radiusKm,
+                                             int limit) {
+        double latDelta = Math.toDegrees(radiusKm / EARTH_RADIUS_KM);
+        double minLat = lat - latDelta;
+        double maxLat = lat + latDelta;
+        double minLong = -180;
+        double maxLong = 180;
+        if (minLat > -90 && maxLat < 90) {
+            double longDelta = latDelta / Math.cos(Math.toRadians(lat));
+            if (lon - longDelta >= -180 && lon + longDelta <= 180) {
+                minLong = lon - longDelta;
+                maxLong = lon + longDelta;
+            }
+        }
+
+        ArrayList<Candidate> candidates = new ArrayList<Candidate>();
+        Cursor cursor = db.rawQuery(spatialIndex ? SQL_SPATIAL_BOX : SQL_INDEXED_BOX,
+                new String[]{Double.toString(maxLat), Double.toString(minLat),
+                        Double.toString(maxLong), Double.toString(minLong)});
+        try {
+            while (cursor.moveToNext()) {
+                Candidate candidate = new Candidate();
+                candidate.lat = cursor.getDouble(3);
+                candidate.lon = cursor.getDouble(4);
+                candidate.distance = distanceKm(lat, lon, candidate.lat, candidate.lon);
+                if (candidate.distance > radiusKm) {
+                    continue;
+                }
+                candidate.id = cursor.getLong(0);
+                candidate.locationSetting = cursor.getString(1);
+                candidate.cityName = cursor.getString(2);
+                candidates.add(candidate);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Collections.sort(candidates, BY_DISTANCE);
+        while (candidates.size() > limit) {
+            candidates.remove(candidates.size() - 1);
+        }
+        return candidates;
+    }
+}
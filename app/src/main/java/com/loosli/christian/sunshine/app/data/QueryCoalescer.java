@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.loosli.christian.sunshine.app.data;
+
+import android.database.Cursor;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Lets identical queries that arrive while one of them is running share its result.
+ * <p/>
+ * After a sync broadcast the widgets, Muzei, the wear bridge and the forecast list all ask for
+ * the same rows at about the same moment.  The first caller runs the query; callers with the
+ * same key that arrive before it finishes wait for it and get their own {@link ColumnarCursor}
+ * over the same rows, with its own position and observers.  A result that isn't a
+ * ColumnarCursor can't be shared, and those callers run the query themselves.
+ * <p/>
+ * {@link #invalidate()} must be called after every commit, before its change notification, so
+ * that a caller reacting to the notification never joins a query that started before the data
+ * changed.
+ */
+class QueryCoalescer {
+
+    interface Query {
+        Cursor run();
+    }
+
+    private static class Flight {
+        final CountDownLatch done = new CountDownLatch(1);
+        final long generation;
+        // Set before done is counted down; null if the query failed
+        volatile Cursor result;
+
+        Flight(long generation) {
+            this.generation = generation;
+        }
+    }
+
+    private final HashMap<String, Flight> mFlights = new HashMap<String, Flight>();
+    private long mGeneration;
+
+    // For tests and the stress benchmark
+    private int mExecutions;
+    private int mShared;
+
+    void invalidate() {
+        synchronized (mFlights) {
+            mGeneration++;
+        }
+    }
+
+    Cursor query(String key, Query query) {
+        Flight flight;
+        boolean leader = false;
+        synchronized (mFlights) {
+            flight = mFlights.get(key);
+            if (flight == null || flight.generation != mGeneration) {
+                flight = new Flight(mGeneration);
+                mFlights.put(key, flight);
+                leader = true;
+                mExecutions++;
+            }
+        }
+
+        if (leader) {
+            Cursor result = null;
+            try {
+                result = query.run();
+                return result;
+            } finally {
+                flight.result = result;
+                synchronized (mFlights) {
+                    if (mFlights.get(key) == flight) {
+                        mFlights.remove(key);
+                    }
+                }
+                flight.done.countDown();
+            }
+        }
+
+        try {
+            flight.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Cursor result = flight.result;
+        if (result instanceof ColumnarCursor) {
+            synchronized (mFlights) {
+                mShared++;
+            }
+            return new ColumnarCursor((ColumnarCursor) result);
+        }
+        synchronized (mFlights) {
+            mExecutions++;
+        }
+        return query.run();
+    }
+
+    /**
+     * @return how often a query was run rather than shared
+     */
+    int getExecutions() {
+        synchronized (mFlights) {
+            return mExecutions;
+        }
+    }
+
+    /**
+     * @return how often a caller got the result of another caller's query
+     */
+    int getShared() {
+        synchronized (mFlights) {
+            return mShared;
+        }
+    }
+}
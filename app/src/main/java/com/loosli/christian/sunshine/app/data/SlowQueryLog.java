@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.loosli.christian.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteQuery;
+import android.net.Uri;
+import android.util.Log;
+
+import com.loosli.christian.sunshine.app.BuildConfig;
+import com.loosli.christian.sunshine.app.data.WeatherContract.SlowQueryEntry;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Keeps the most recent provider calls that took longer than a threshold, for
+ * {@link SlowQueryEntry#CONTENT_URI}.
+ * <p/>
+ * In debug builds it also records the SQL of every query through {@link #CURSOR_FACTORY}, and
+ * logs the EXPLAIN QUERY PLAN of each query shape the first time it is seen, slow or not.
+ * Shapes are told apart by their SQL, which holds placeholders rather than the arguments.
+ */
+class SlowQueryLog {
+
+    private static final String LOG_TAG = SlowQueryLog.class.getSimpleName();
+
+    private static final int MAX_ENTRIES = 200;
+    private static final String SQL_PREFIX = "SQLiteQuery: ";
+    private static final String EXPLAIN = "EXPLAIN QUERY PLAN ";
+
+    // SQL of the last query run on each thread, set by the cursor factory
+    private static final ThreadLocal<String> sLastSql = new ThreadLocal<String>();
+
+    /**
+     * Cursor factory for the database in debug builds, so the provider can tell which SQL a
+     * query() ended up running.
+     */
+    static final SQLiteDatabase.CursorFactory CURSOR_FACTORY = new SQLiteDatabase.CursorFactory() {
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery,
+                                String editTable, SQLiteQuery query) {
+            String sql = query.toString();
+            sLastSql.set(sql.startsWith(SQL_PREFIX) ? sql.substring(SQL_PREFIX.length()) : sql);
+            return new SQLiteCursor(masterQuery, editTable, query);
+        }
+    };
+
+    private static final String[] COLUMNS = {
+            SlowQueryEntry._ID,
+            SlowQueryEntry.COLUMN_TIME,
+            SlowQueryEntry.COLUMN_OPERATION,
+            SlowQueryEntry.COLUMN_MATCH,
+            SlowQueryEntry.COLUMN_URI,
+            SlowQueryEntry.COLUMN_SELECTION,
+            SlowQueryEntry.COLUMN_ROWS,
+            SlowQueryEntry.COLUMN_DURATION,
+            SlowQueryEntry.COLUMN_SQL,
+            SlowQueryEntry.COLUMN_PLAN
+    };
+
+    private static class Entry {
+        long id;
+        long time;
+        String operation;
+        int match;
+        String uri;
+        String selection;
+        int rows;
+        long duration;
+        String sql;
+        String plan;
+    }
+
+    private final ArrayDeque<Entry> mEntries = new ArrayDeque<Entry>();
+    private final Set<String> mExplainedShapes = new HashSet<String>();
+    private long mNextId = 1;
+    private volatile long mThresholdMillis = BuildConfig.SLOW_QUERY_THRESHOLD_MS;
+
+    void setThresholdMillis(long thresholdMillis) {
+        mThresholdMillis = thresholdMillis;
+    }
+
+    /**
+     * Records a query if it was slow.  Debug builds also explain a query shape that is new.
+     *
+     * @param rows the row count of the result, whose computation is part of the query
+     */
+    void onQuery(SQLiteDatabase db, int match, Uri uri, String selection, int rows,
+                 long duration) {
+        String sql = sLastSql.get();
+        sLastSql.remove();
+        String plan = null;
+        boolean newShape = false;
+        if (BuildConfig.DEBUG && sql != null) {
+            synchronized (this) {
+                newShape = mExplainedShapes.add(sql);
+            }
+            if (newShape) {
+                plan = explain(db, sql);
+                Log.d(LOG_TAG, "Query plan for " + sql + "\n" + plan);
+            }
+        }
+        if (duration >= mThresholdMillis || newShape) {
+            add(SlowQueryEntry.OPERATION_QUERY, match, uri, selection, rows, duration, sql, plan);
+        }
+    }
+
+    /**
+     * Records an insert, bulkInsert, update or delete if it was slow.
+     */
+    void onWrite(String operation, int match, Uri uri, String selection, int rows,
+                 long duration) {
+        if (duration >= mThresholdMillis) {
+            add(operation, match, uri, selection, rows, duration, null, null);
+        }
+    }
+
+    synchronized Cursor query() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, mEntries.size());
+        // Newest first
+        Iterator<Entry> entries = mEntries.descendingIterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            cursor.addRow(new Object[]{entry.id, entry.time, entry.operation, entry.match,
+                    entry.uri, entry.selection, entry.rows, entry.duration, entry.sql, entry.plan});
+        }
+        return cursor;
+    }
+
+    /**
+     * Prints the threshold and the entries, newest first, for dumpsys.
+     */
+    synchronized void dump(PrintWriter writer) {
+        writer.println("Slow queries (threshold " + mThresholdMillis + "ms, " + mEntries.size() +
+                " entries):");
+        Iterator<Entry> entries = mEntries.descendingIterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            writer.println("  #" + entry.id + " " + entry.time + " " + entry.operation + " " +
+                    entry.uri + " match=" + entry.match + " rows=" + entry.rows + " " +
+                    entry.duration + "ms");
+            if (entry.selection != null) {
+                writer.println("    selection: " + entry.selection);
+            }
+            if (entry.sql != null) {
+                writer.println("    sql: " + entry.sql);
+            }
+            if (entry.plan != null) {
+                writer.println("    plan: " + entry.plan.replace("\n", "\n          "));
+            }
+        }
+    }
+
+    synchronized int clear() {
+        int count = mEntries.size();
+        mEntries.clear();
+        return count;
+    }
+
+    private synchronized void add(String operation, int match, Uri uri, String selection,
+                                  int rows, long duration, String sql, String plan) {
+        Entry entry = new Entry();
+        entry.id = mNextId++;
+        entry.time = System.currentTimeMillis();
+        entry.operation = operation;
+        entry.match = match;
+        entry.uri = uri.toString();
+        entry.selection = selection;
+        entry.rows = rows;
+        entry.duration = duration;
+        entry.sql = sql;
+        entry.plan = plan;
+        if (mEntries.size() == MAX_ENTRIES) {
+            mEntries.removeFirst();
+        }
+        mEntries.addLast(entry);
+        if (duration >= mThresholdMillis) {
+            Log.w(LOG_TAG, operation + " " + uri + " took " + duration + "ms for " + rows + " rows");
+        }
+    }
+
+    // Placeholders stay unbound, which is close enough to show which indexes a shape uses
+    private static String explain(SQLiteDatabase db, String sql) {
+        Cursor cursor;
+        try {
+            cursor = db.rawQuery(EXPLAIN + sql, null);
+        } catch (SQLiteException e) {
+            return "Not explained: " + e.getMessage();
+        } finally {
+            sLastSql.remove();
+        }
+        StringBuilder plan = new StringBuilder();
+        try {
+            int detailColumn = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) {
+                    plan.append('\n');
+                }
+                plan.append(cursor.getString(detailColumn));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+}
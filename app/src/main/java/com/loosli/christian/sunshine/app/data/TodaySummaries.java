@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.loosli.christian.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import com.loosli.christian.sunshine.app.data.WeatherContract.LocationEntry;
+import com.loosli.christian.sunshine.app.data.WeatherContract.TodayEntry;
+import com.loosli.christian.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Rebuilds rows of the today table from the location and weather tables.  Every method that
+ * writes expects to be called inside the transaction that changed the underlying rows.
+ */
+class TodaySummaries {
+
+    //SELECT location._id AS location_id, location_setting, ... FROM location
+    //  INNER JOIN weather ON weather._id = (SELECT _id FROM weather
+    //      WHERE location_id = location._id AND date >= ? ORDER BY date LIMIT 1)
+    // The result columns are named like those of the today table.
+    private static final String SQL_SELECT_SUMMARIES = "SELECT " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry._ID + " AS " +
+            TodayEntry.COLUMN_LOC_KEY + ", " +
+            LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+            LocationEntry.COLUMN_CITY_NAME + ", " +
+            LocationEntry.COLUMN_COORD_LAT + ", " +
+            LocationEntry.COLUMN_COORD_LONG + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP +
+            " FROM " + LocationEntry.TABLE_NAME + " INNER JOIN " + WeatherEntry.TABLE_NAME +
+            " ON " + WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID + " = (SELECT " +
+            WeatherEntry._ID + " FROM " + WeatherEntry.TABLE_NAME + " WHERE " +
+            WeatherEntry.COLUMN_LOC_KEY + " = " + LocationEntry.TABLE_NAME + "." + LocationEntry._ID +
+            " AND " + WeatherEntry.COLUMN_DATE + " >= ? ORDER BY " + WeatherEntry.COLUMN_DATE +
+            " LIMIT 1)";
+
+    //INSERT INTO today (...) SELECT ...
+    private static final String SQL_INSERT_SUMMARIES = "INSERT INTO " + TodayEntry.TABLE_NAME + " (" +
+            TodayEntry.COLUMN_LOC_KEY + ", " +
+            TodayEntry.COLUMN_LOCATION_SETTING + ", " +
+            TodayEntry.COLUMN_CITY_NAME + ", " +
+            TodayEntry.COLUMN_COORD_LAT + ", " +
+            TodayEntry.COLUMN_COORD_LONG + ", " +
+            TodayEntry.COLUMN_DATE + ", " +
+            TodayEntry.COLUMN_WEATHER_ID + ", " +
+            TodayEntry.COLUMN_SHORT_DESC + ", " +
+            TodayEntry.COLUMN_MIN_TEMP + ", " +
+            TodayEntry.COLUMN_MAX_TEMP + ") " + SQL_SELECT_SUMMARIES;
+
+    private TodaySummaries() {
+    }
+
+    /**
+     * Rebuilds the summaries of the locations touched by the given changes, and records the
+     * summaries it rewrote in them so their observers get notified too.
+     *
+     * @param today the normalized date of today
+     */
+    static void update(SQLiteDatabase db, WeatherChangeSet changes, long today) {
+        if (changes.hasUnknownWeatherChanges()) {
+            refreshAll(db, today);
+            changes.addUri(TodayEntry.CONTENT_URI);
+            return;
+        }
+        for (String locationSetting : changes.getChangedLocationSettings()) {
+            refresh(db, locationSetting, today);
+            changes.addUri(TodayEntry.buildTodayUri(locationSetting));
+        }
+    }
+
+    /**
+     * Rebuilds the summary of one location.  The row is removed if the location no longer
+     * exists or has no forecast from today on.
+     */
+    static void refresh(SQLiteDatabase db, String locationSetting, long today) {
+        db.delete(TodayEntry.TABLE_NAME, TodayEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting});
+        db.execSQL(SQL_INSERT_SUMMARIES + " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new Object[]{today, locationSetting});
+    }
+
+    /**
+     * Computes the summary of one location from the weather table without storing it, for
+     * when the stored one was written before today.
+     *
+     * @return the summary with the columns of the today table, or the given projection
+     */
+    static Cursor query(SQLiteDatabase db, String locationSetting, long today,
+                        String[] projection) {
+        String columns = projection != null ? TextUtils.join(", ", projection) : "*";
+        return db.rawQuery("SELECT " + columns + " FROM (" + SQL_SELECT_SUMMARIES +
+                        " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?)",
+                new String[]{Long.toString(today), locationSetting});
+    }
+
+    static void refreshAll(SQLiteDatabase db, long today) {
+        db.delete(TodayEntry.TABLE_NAME, null, null);
+        db.execSQL(SQL_INSERT_SUMMARIES, new Object[]{today});
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.loosli.christian.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.loosli.christian.sunshine.app.EpochDays;
+import com.loosli.christian.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.loosli.christian.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Moves weather rows that left the forecast window into the history table and keeps that
+ * table compact.  Every method expects to be called inside a transaction owned by
+ * {@link WeatherProvider}.
+ */
+class WeatherArchiver {
+
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // Archived days keep their full resolution for this long, measured back from the archive
+    // date.  After that they are rolled up into weeks, and weeks into months.
+    static final int DAILY_RESOLUTION_DAYS = 31;
+    static final int WEEKLY_RESOLUTION_DAYS = 182;
+
+    // Used when the caller doesn't say how long history should be kept.
+    static final int DEFAULT_RETENTION_DAYS = 365;
+
+    // Number of weather rows moved per transaction, so that a large backlog doesn't hold the
+    // database lock for long.
+    static final int CHUNK_SIZE = 100;
+
+    private static final int PERIOD_WEEK = 0;
+    private static final int PERIOD_MONTH = 1;
+
+    // Dates are stored at local midnight, and how far that is from UTC midnight changes with
+    // the time zone and DST, so SQL can't compute the week or month of a date by itself.
+    // rollUp writes the period of every date it merges into this table first and groups by it.
+    private static final String PERIODS_TABLE = "temp.history_periods";
+    // Days per location, period and condition, to pick the most frequent condition of a period
+    private static final String CONDITIONS_TABLE = "temp.history_conditions";
+
+    private static final String HISTORY_COLUMNS = HistoryEntry.COLUMN_LOC_KEY + ", " +
+            HistoryEntry.COLUMN_RESOLUTION + ", " +
+            HistoryEntry.COLUMN_DATE + ", " +
+            HistoryEntry.COLUMN_DAYS + ", " +
+            HistoryEntry.COLUMN_WEATHER_ID + ", " +
+            HistoryEntry.COLUMN_SHORT_DESC + ", " +
+            HistoryEntry.COLUMN_MIN_TEMP + ", " +
+            HistoryEntry.COLUMN_MAX_TEMP + ", " +
+            HistoryEntry.COLUMN_HUMIDITY + ", " +
+            HistoryEntry.COLUMN_PRESSURE + ", " +
+            HistoryEntry.COLUMN_WIND_SPEED + ", " +
+            HistoryEntry.COLUMN_DEGREES;
+
+    private WeatherArchiver() {
+    }
+
+    /**
+     * Returns a selection on the weather table for the next chunk of rows to archive: the
+     * oldest {@link #CHUNK_SIZE} rows dated before the given date.  Inside one transaction the
+     * selection always picks the same rows.
+     */
+    static String getChunkSelection(long beforeDate) {
+        return WeatherEntry._ID + " IN (SELECT " + WeatherEntry._ID +
+                " FROM " + WeatherEntry.TABLE_NAME +
+                " WHERE " + WeatherEntry.COLUMN_DATE + " < " + beforeDate +
+                " ORDER BY " + WeatherEntry.COLUMN_DATE + ", " + WeatherEntry._ID +
+                " LIMIT " + CHUNK_SIZE + ")";
+    }
+
+    /**
+     * Copies the selected weather rows into history as single days and deletes them from the
+     * weather table.
+     *
+     * @return the number of rows moved
+     */
+    static int moveToHistory(SQLiteDatabase db, String weatherSelection) {
+        return moveToHistory(db, weatherSelection, null);
+    }
+
+    /**
+     * Like {@link #moveToHistory(SQLiteDatabase, String)}, for a selection with arguments.
+     */
+    static int moveToHistory(SQLiteDatabase db, String weatherSelection, String[] selectionArgs) {
+        Object[] bindArgs = selectionArgs != null ? selectionArgs : new Object[0];
+        db.execSQL("INSERT OR REPLACE INTO " + HistoryEntry.TABLE_NAME +
+                " (" + HISTORY_COLUMNS + ") SELECT " +
+                WeatherEntry.COLUMN_LOC_KEY + ", " +
+                HistoryEntry.RESOLUTION_DAY + ", " +
+                WeatherEntry.COLUMN_DATE + ", 1, " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_HUMIDITY + ", " +
+                WeatherEntry.COLUMN_PRESSURE + ", " +
+                WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                WeatherEntry.COLUMN_DEGREES +
+                " FROM " + WeatherEntry.TABLE_NAME + " WHERE " + weatherSelection, bindArgs);
+        return db.delete(WeatherEntry.TABLE_NAME, weatherSelection, selectionArgs);
+    }
+
+    /**
+     * Rolls old days up into weeks and old weeks up into months, then drops everything older
+     * than the retention period.  Only complete weeks and months are rolled up.
+     *
+     * @param archiveDate   the date archiving ran up to, normally today
+     * @param retentionDays how many days of history to keep
+     * @param changes       gets the locations whose history is rolled up or dropped, since
+     *                      their weather stats change with it
+     */
+    static void compact(SQLiteDatabase db, long archiveDate, int retentionDays,
+                        WeatherChangeSet changes) {
+        long weekBoundary = getWeekStart(archiveDate - DAILY_RESOLUTION_DAYS * DAY_IN_MILLIS);
+        long monthBoundary = getMonthStart(archiveDate - WEEKLY_RESOLUTION_DAYS * DAY_IN_MILLIS);
+        long retentionBoundary = archiveDate - retentionDays * DAY_IN_MILLIS;
+        addCompactedLocations(db, weekBoundary, monthBoundary, retentionBoundary, changes);
+
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + PERIODS_TABLE +
+                " (date INTEGER PRIMARY KEY, period INTEGER NOT NULL)");
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + CONDITIONS_TABLE + " (" +
+                HistoryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, period INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_SHORT_DESC + " TEXT, " +
+                HistoryEntry.COLUMN_DAYS + " INTEGER NOT NULL, PRIMARY KEY (" +
+                HistoryEntry.COLUMN_LOC_KEY + ", period, " + HistoryEntry.COLUMN_WEATHER_ID + "))");
+        try {
+            rollUp(db, HistoryEntry.RESOLUTION_WEEK, PERIOD_WEEK, weekBoundary);
+            rollUp(db, HistoryEntry.RESOLUTION_MONTH, PERIOD_MONTH, monthBoundary);
+        } finally {
+            db.execSQL("DROP TABLE IF EXISTS " + PERIODS_TABLE);
+            db.execSQL("DROP TABLE IF EXISTS " + CONDITIONS_TABLE);
+        }
+
+        db.delete(HistoryEntry.TABLE_NAME, HistoryEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(retentionBoundary)});
+    }
+
+    //SELECT DISTINCT location_setting FROM history INNER JOIN location
+    //  ON history.location_id = location._id WHERE <rows rollUp merges or the trim drops>
+    private static void addCompactedLocations(SQLiteDatabase db, long weekBoundary,
+                                              long monthBoundary, long retentionBoundary,
+                                              WeatherChangeSet changes) {
+        final String date = HistoryEntry.TABLE_NAME + "." + HistoryEntry.COLUMN_DATE;
+        final String resolution = HistoryEntry.TABLE_NAME + "." + HistoryEntry.COLUMN_RESOLUTION;
+        Cursor cursor = db.rawQuery("SELECT DISTINCT " +
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " FROM " +
+                HistoryEntry.TABLE_NAME + " INNER JOIN " +
+                WeatherContract.LocationEntry.TABLE_NAME + " ON " +
+                HistoryEntry.TABLE_NAME + "." + HistoryEntry.COLUMN_LOC_KEY + " = " +
+                WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID +
+                " WHERE (" + resolution + " < " + HistoryEntry.RESOLUTION_WEEK +
+                " AND " + date + " < " + weekBoundary + ")" +
+                " OR (" + resolution + " < " + HistoryEntry.RESOLUTION_MONTH +
+                " AND " + date + " < " + monthBoundary + ")" +
+                " OR " + date + " < " + retentionBoundary, null);
+        try {
+            while (cursor.moveToNext()) {
+                changes.addWeatherLocation(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        Merges all rows finer than the given resolution and dated before the boundary into one
+        row per location and period.  Existing rows at the target resolution take part in the
+        merge, so a period that gains more days later is rewritten rather than lost.
+
+        Weeks stop at the end of a month, so a week across two months becomes two rows, one in
+        each.  That way every week row lies within one month and folds into it whole.
+     */
+    private static void rollUp(SQLiteDatabase db, int resolution, int period, long boundary) {
+        if (!fillPeriods(db, resolution, period, boundary)) {
+            return;
+        }
+        //history AS h INNER JOIN temp.history_periods AS p ON p.date = h.date
+        final String sourceTables = HistoryEntry.TABLE_NAME + " AS h INNER JOIN " +
+                PERIODS_TABLE + " AS p ON p.date = h." + HistoryEntry.COLUMN_DATE;
+
+        db.execSQL("INSERT INTO " + CONDITIONS_TABLE + " SELECT " +
+                "h." + HistoryEntry.COLUMN_LOC_KEY + ", p.period, " +
+                "h." + HistoryEntry.COLUMN_WEATHER_ID + ", " +
+                "MAX(h." + HistoryEntry.COLUMN_SHORT_DESC + "), " +
+                "SUM(h." + HistoryEntry.COLUMN_DAYS + ")" +
+                " FROM " + sourceTables +
+                " WHERE " + sourceRows("h", resolution, boundary) +
+                " GROUP BY h." + HistoryEntry.COLUMN_LOC_KEY + ", p.period, h." +
+                HistoryEntry.COLUMN_WEATHER_ID);
+
+        // Most frequent condition over the period, weighted by the days each row covers; one
+        // primary key lookup per location and period
+        final String mostFrequent = " FROM " + CONDITIONS_TABLE + " AS c WHERE c." +
+                HistoryEntry.COLUMN_LOC_KEY + " = h." + HistoryEntry.COLUMN_LOC_KEY +
+                " AND c.period = p.period ORDER BY c." + HistoryEntry.COLUMN_DAYS + " DESC, c." +
+                HistoryEntry.COLUMN_WEATHER_ID + " LIMIT 1";
+
+        db.execSQL("INSERT OR REPLACE INTO " + HistoryEntry.TABLE_NAME +
+                " (" + HISTORY_COLUMNS + ") SELECT " +
+                "h." + HistoryEntry.COLUMN_LOC_KEY + ", " +
+                resolution + ", " +
+                "p.period, " +
+                "SUM(h." + HistoryEntry.COLUMN_DAYS + "), " +
+                "(SELECT c." + HistoryEntry.COLUMN_WEATHER_ID + mostFrequent + "), " +
+                "(SELECT c." + HistoryEntry.COLUMN_SHORT_DESC + mostFrequent + "), " +
+                "MIN(h." + HistoryEntry.COLUMN_MIN_TEMP + "), " +
+                "MAX(h." + HistoryEntry.COLUMN_MAX_TEMP + "), " +
+                weightedAverage(HistoryEntry.COLUMN_HUMIDITY) + ", " +
+                weightedAverage(HistoryEntry.COLUMN_PRESSURE) + ", " +
+                weightedAverage(HistoryEntry.COLUMN_WIND_SPEED) + ", " +
+                weightedAverage(HistoryEntry.COLUMN_DEGREES) +
+                " FROM " + sourceTables +
+                " WHERE " + sourceRows("h", resolution, boundary) +
+                " GROUP BY h." + HistoryEntry.COLUMN_LOC_KEY + ", p.period" +
+                // Periods with nothing new to merge are left as they are
+                " HAVING MIN(h." + HistoryEntry.COLUMN_RESOLUTION + ") < " + resolution);
+
+        db.delete(HistoryEntry.TABLE_NAME, HistoryEntry.COLUMN_RESOLUTION + " < " + resolution +
+                " AND " + HistoryEntry.COLUMN_DATE + " < " + boundary, null);
+    }
+
+    /*
+        Writes the period of every date among the rows to merge into the periods table, a few
+        hundred rows at most since dates are days.
+
+        Returns false if there is nothing to merge.
+     */
+    private static boolean fillPeriods(SQLiteDatabase db, int resolution, int period,
+                                       long boundary) {
+        db.execSQL("DELETE FROM " + PERIODS_TABLE);
+        db.execSQL("DELETE FROM " + CONDITIONS_TABLE);
+        Cursor cursor = db.rawQuery("SELECT DISTINCT h." + HistoryEntry.COLUMN_DATE + " FROM " +
+                HistoryEntry.TABLE_NAME + " AS h WHERE " +
+                sourceRows("h", resolution, boundary), null);
+        if (cursor.getCount() == 0) {
+            cursor.close();
+            return false;
+        }
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + PERIODS_TABLE +
+                " (date, period) VALUES (?, ?)");
+        try {
+            while (cursor.moveToNext()) {
+                long date = cursor.getLong(0);
+                int day = EpochDays.fromMillis(date);
+                int startDay = period == PERIOD_WEEK
+                        ? Math.max(getWeekStartDay(day), getMonthStartDay(day))
+                        : getMonthStartDay(day);
+                insert.bindLong(1, date);
+                insert.bindLong(2, EpochDays.toMillis(startDay));
+                insert.executeInsert();
+            }
+        } finally {
+            insert.close();
+            cursor.close();
+        }
+        return true;
+    }
+
+    private static String sourceRows(String alias, int resolution, long boundary) {
+        return alias + "." + HistoryEntry.COLUMN_RESOLUTION + " <= " + resolution +
+                " AND " + alias + "." + HistoryEntry.COLUMN_DATE + " < " + boundary;
+    }
+
+    private static String weightedAverage(String column) {
+        return "SUM(h." + column + " * h." + HistoryEntry.COLUMN_DAYS + ") / SUM(h." +
+                HistoryEntry.COLUMN_DAYS + ")";
+    }
+
+    /**
+     * @return local midnight starting the Monday of the week the date falls in
+     */
+    static long getWeekStart(long date) {
+        return EpochDays.toMillis(getWeekStartDay(EpochDays.fromMillis(date)));
+    }
+
+    /**
+     * @return local midnight starting the month the date falls in
+     */
+    static long getMonthStart(long date) {
+        return EpochDays.toMillis(getMonthStartDay(EpochDays.fromMillis(date)));
+    }
+
+    private static int getWeekStartDay(int epochDay) {
+        // getWeekDay counts from Sunday
+        return epochDay - (EpochDays.getWeekDay(epochDay) + 6) % 7;
+    }
+
+    private static int getMonthStartDay(int epochDay) {
+        return epochDay - EpochDays.getMonthDay(epochDay) + 1;
+    }
+}
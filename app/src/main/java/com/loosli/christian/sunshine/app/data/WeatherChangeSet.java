@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.loosli.christian.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects what a write touched so that {@link WeatherProvider} can notify the narrowest uris
+ * that cover it.  Weather rows are tracked per location setting and day:
+ * <ul>
+ * <li>a single changed day notifies weather/&lt;location_setting&gt;/&lt;date&gt;</li>
+ * <li>several changed days notify weather/&lt;location_setting&gt; once</li>
+ * <li>rows whose location could not be resolved notify weather</li>
+ * </ul>
+ * Observers of other locations, and of other days when only one day changed, are left alone.
+ */
+class WeatherChangeSet {
+
+    private final Set<Uri> mUris = new LinkedHashSet<Uri>();
+    private final Map<String, Set<Long>> mChangedDays = new HashMap<String, Set<Long>>();
+    private final Set<String> mChangedLocations = new HashSet<String>();
+    private boolean mUnknownWeatherChanged;
+
+    /**
+     * Records a change that is not about weather rows, e.g. to the location table.
+     */
+    void addUri(Uri uri) {
+        mUris.add(uri);
+    }
+
+    /**
+     * Records a changed weather row.
+     *
+     * @param locationSetting the location setting of the row, or null if it is unknown
+     * @param date            the normalized date of the row
+     */
+    void addWeatherDay(String locationSetting, long date) {
+        if (locationSetting == null) {
+            mUnknownWeatherChanged = true;
+            return;
+        }
+        Set<Long> days = mChangedDays.get(locationSetting);
+        if (days == null) {
+            days = new HashSet<Long>();
+            mChangedDays.put(locationSetting, days);
+        }
+        days.add(date);
+    }
+
+    /**
+     * Records a change affecting every weather row of a location, e.g. a new city name.
+     */
+    void addWeatherLocation(String locationSetting) {
+        if (locationSetting == null) {
+            mUnknownWeatherChanged = true;
+        } else {
+            mChangedLocations.add(locationSetting);
+        }
+    }
+
+    /**
+     * Records a change whose scope is not known, which wakes every weather observer.
+     */
+    void addUnknownWeather() {
+        mUnknownWeatherChanged = true;
+    }
+
+    boolean hasUnknownWeatherChanges() {
+        return mUnknownWeatherChanged;
+    }
+
+    /**
+     * @return the location settings with changed weather rows, whether whole or single days
+     */
+    Set<String> getChangedLocationSettings() {
+        Set<String> locationSettings = new HashSet<String>(mChangedLocations);
+        locationSettings.addAll(mChangedDays.keySet());
+        return locationSettings;
+    }
+
+    /**
+     * Merges the changes recorded by another set into this one.
+     */
+    void addAll(WeatherChangeSet other) {
+        mUris.addAll(other.mUris);
+        for (Map.Entry<String, Set<Long>> entry : other.mChangedDays.entrySet()) {
+            for (Long date : entry.getValue()) {
+                addWeatherDay(entry.getKey(), date);
+            }
+        }
+        mChangedLocations.addAll(other.mChangedLocations);
+        mUnknownWeatherChanged |= other.mUnknownWeatherChanged;
+    }
+
+    /**
+     * Sends one notification per distinct uri covering the recorded changes.
+     */
+    void dispatch(ContentResolver resolver) {
+        for (Uri uri : mUris) {
+            resolver.notifyChange(uri, null);
+        }
+        if (mUnknownWeatherChanged) {
+            // Notifying the root reaches every weather observer, so nothing narrower is needed
+            resolver.notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            return;
+        }
+        for (String locationSetting : mChangedLocations) {
+            resolver.notifyChange(
+                    WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting), null);
+        }
+        for (Map.Entry<String, Set<Long>> entry : mChangedDays.entrySet()) {
+            String locationSetting = entry.getKey();
+            if (mChangedLocations.contains(locationSetting)) {
+                continue;
+            }
+            Set<Long> days = entry.getValue();
+            Uri uri;
+            if (days.size() == 1) {
+                uri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                        locationSetting, days.iterator().next());
+            } else {
+                uri = WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting);
+            }
+            resolver.notifyChange(uri, null);
+        }
+    }
+}
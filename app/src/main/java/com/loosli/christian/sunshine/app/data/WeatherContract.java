@@ -19,7 +19,8 @@ package com.loosli.christian.sunshine.app.data;
         import android.content.ContentUris;
         import android.net.Uri;
         import android.provider.BaseColumns;
-        import android.text.format.Time;
+
+        import com.loosli.christian.sunshine.app.EpochDays;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +44,56 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HISTORY = "history";
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_TODAY = "today";
+    public static final String PATH_SLOW_QUERIES = "slow_queries";
+    public static final String PATH_SEARCH = "search";
+    public static final String PATH_NEAREST = "nearest";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
-    // the database to the start of the the Julian day at UTC.
+    // the database to the start of the local day.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return EpochDays.normalize(startDate);
+    }
+
+    // ContentProvider#call method, on BASE_CONTENT_URI, that runs storage maintenance on the
+    // database: ANALYZE, incremental vacuum and a WAL checkpoint.  The result holds the page
+    // size and the page and free-list counts before and after.
+    public static final String METHOD_MAINTAIN = "maintain";
+    public static final String EXTRA_PAGE_SIZE = "page_size";
+    public static final String EXTRA_PAGES_BEFORE = "pages_before";
+    public static final String EXTRA_FREE_PAGES_BEFORE = "free_pages_before";
+    public static final String EXTRA_PAGES_AFTER = "pages_after";
+    public static final String EXTRA_FREE_PAGES_AFTER = "free_pages_after";
+
+    // Keyset paging for weather/<location_setting> and history/<location_setting>: rows dated
+    // after PARAM_AFTER, in ascending date order, at most PARAM_LIMIT of them.  The next page
+    // starts after the date of the last row of this one, so a page costs the same however deep
+    // into the range it is.
+    public static final String PARAM_AFTER = "after";
+    public static final String PARAM_LIMIT = "limit";
+
+    public static Uri buildPageUri(Uri locationUri, long afterDate, int limit) {
+        return locationUri.buildUpon()
+                .appendQueryParameter(PARAM_AFTER, Long.toString(afterDate))
+                .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+    }
+
+    public static boolean isPageUri(Uri uri) {
+        return uri.getQueryParameter(PARAM_LIMIT) != null;
+    }
+
+    public static long getAfterDateFromUri(Uri uri) {
+        String dateString = uri.getQueryParameter(PARAM_AFTER);
+        if (null != dateString && dateString.length() > 0)
+            return Long.parseLong(dateString);
+        else
+            return Long.MIN_VALUE;
+    }
+
+    public static int getLimitFromUri(Uri uri) {
+        return Integer.parseInt(uri.getQueryParameter(PARAM_LIMIT));
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -81,9 +123,87 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // Full-text index over the city name, which ends in the country, and the location
+        // setting.  Its docid is the _id of the location; triggers keep it in step.
+        public static final String SEARCH_TABLE_NAME = "location_search";
+        public static final String COLUMN_SEARCH_TEXT = "search_text";
+
+        // location/search?q=<text>&limit=<n>: the locations with a word starting with each
+        // word of the text, by city name.  PARAM_LIMIT is optional.
+        public static final Uri SEARCH_URI = CONTENT_URI.buildUpon().appendPath(PATH_SEARCH).build();
+        public static final String PARAM_QUERY = "q";
+        public static final int DEFAULT_SEARCH_LIMIT = 10;
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        public static Uri buildLocationSearchUri(String text, int limit) {
+            return SEARCH_URI.buildUpon()
+                    .appendQueryParameter(PARAM_QUERY, text)
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
+        // Spatial index over the coordinates, an R*Tree keyed by the location _id.  The R*Tree
+        // module isn't part of every platform SQLite; where it's missing the database has an
+        // index on (coord_lat, coord_long) instead and this table doesn't exist.
+        public static final String SPATIAL_TABLE_NAME = "location_rtree";
+
+        // location/nearest?lat=<lat>&long=<long>&radius_km=<km>&limit=<n>: the locations
+        // within the radius, nearest first, with their distance.  The columns are fixed: _ID,
+        // the location columns and COLUMN_DISTANCE.  PARAM_LIMIT is optional.
+        public static final Uri NEAREST_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_NEAREST).build();
+        public static final String PARAM_LAT = "lat";
+        public static final String PARAM_LONG = "long";
+        public static final String PARAM_RADIUS = "radius_km";
+        public static final String COLUMN_DISTANCE = "distance_km";
+
+        // Close enough that the forecast of one location serves the other
+        public static final double DEFAULT_NEARBY_RADIUS_KM = 10;
+
+        // ContentProvider#call method, on CONTENT_URI, that has the forecast of the nearest
+        // stored location within the radius stand in for the location setting passed as arg,
+        // unless that has a forecast of its own.  Nothing is copied: while the location has no
+        // rows, weather/<location_setting>, its days, today/<location_setting> and
+        // METHOD_GET_TODAY answer with the stand-in's, city name included.  The extras hold
+        // COLUMN_COORD_LAT, COLUMN_COORD_LONG and optionally PARAM_RADIUS.  The result holds
+        // the COLUMN_LOCATION_SETTING and COLUMN_DISTANCE of the stand-in, or is null if there
+        // is none.
+        public static final String METHOD_ADOPT_NEARBY = "adopt_nearby";
+
+        public static Uri buildNearestUri(double lat, double lon, double radiusKm, int limit) {
+            return NEAREST_URI.buildUpon()
+                    .appendQueryParameter(PARAM_LAT, Double.toString(lat))
+                    .appendQueryParameter(PARAM_LONG, Double.toString(lon))
+                    .appendQueryParameter(PARAM_RADIUS, Double.toString(radiusKm))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
+        public static String getSearchTextFromUri(Uri uri) {
+            String text = uri.getQueryParameter(PARAM_QUERY);
+            return text != null ? text : "";
+        }
+
+        public static int getSearchLimitFromUri(Uri uri) {
+            String limit = uri.getQueryParameter(PARAM_LIMIT);
+            return limit != null ? Integer.parseInt(limit) : DEFAULT_SEARCH_LIMIT;
+        }
+
+        public static double getLatFromUri(Uri uri) {
+            return Double.parseDouble(uri.getQueryParameter(PARAM_LAT));
+        }
+
+        public static double getLongFromUri(Uri uri) {
+            return Double.parseDouble(uri.getQueryParameter(PARAM_LONG));
+        }
+
+        public static double getRadiusFromUri(Uri uri) {
+            String radius = uri.getQueryParameter(PARAM_RADIUS);
+            return radius != null ? Double.parseDouble(radius) : DEFAULT_NEARBY_RADIUS_KM;
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -126,10 +246,21 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Deleting from ARCHIVE_URI moves the selected rows into history instead of dropping
+        // them, so that past days can leave the forecast in the same applyBatch that writes the
+        // new one.  It only does the move; METHOD_ARCHIVE compacts history afterwards.
+        public static final String PARAM_ARCHIVE = "archive";
+        public static final Uri ARCHIVE_URI =
+                CONTENT_URI.buildUpon().appendQueryParameter(PARAM_ARCHIVE, "1").build();
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
 
+        public static boolean isArchiveUri(Uri uri) {
+            return uri.getQueryParameter(PARAM_ARCHIVE) != null;
+        }
+
         /*
             Student: Fill in this buildWeatherLocation function
          */
@@ -157,6 +288,13 @@ public class WeatherContract {
             return Long.parseLong(uri.getPathSegments().get(2));
         }
 
+        // ContentProvider#call method returning the next days of a location's forecast as
+        // parallel arrays, keyed by the column names: COLUMN_DATE (long[]), COLUMN_WEATHER_ID
+        // (int[]), COLUMN_SHORT_DESC (String[]), COLUMN_MAX_TEMP and COLUMN_MIN_TEMP (double[]).
+        // The arg is the location setting; EXTRA_DAYS limits the number of days.
+        public static final String METHOD_GET_FORECAST = "get_forecast";
+        public static final String EXTRA_DAYS = "days";
+
         public static long getStartDateFromUri(Uri uri) {
             String dateString = uri.getQueryParameter(COLUMN_DATE);
             if (null != dateString && dateString.length() > 0)
@@ -165,4 +303,235 @@ public class WeatherContract {
                 return 0;
         }
     }
-}
\ No newline at end of file
+
+    /*
+        Inner class that defines the table contents of the history table.  Weather rows that
+        leave the forecast window are folded into this table instead of being deleted: recent
+        days are kept as they were, older ones are rolled up into weekly and then monthly rows.
+     */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "history";
+
+        // Values of COLUMN_RESOLUTION
+        public static final int RESOLUTION_DAY = 0;
+        public static final int RESOLUTION_WEEK = 1;
+        public static final int RESOLUTION_MONTH = 2;
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // How much time a row covers, one of the RESOLUTION_ values
+        public static final String COLUMN_RESOLUTION = "resolution";
+        // Start of the covered period, stored as long in milliseconds since the epoch
+        public static final String COLUMN_DATE = "date";
+        // Number of days folded into this row
+        public static final String COLUMN_DAYS = "days";
+        // Most frequent weather id and its description over the period
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+
+        // Lowest min and highest max temperature over the period
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+
+        // Averages over the period
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_DEGREES = "degrees";
+
+        // ContentProvider#call method that moves weather rows dated before EXTRA_BEFORE_DATE
+        // into history and compacts it, keeping EXTRA_RETENTION_DAYS days.  The result holds
+        // the number of archived rows under EXTRA_ARCHIVED_ROWS.
+        public static final String METHOD_ARCHIVE = "archive";
+        public static final String EXTRA_BEFORE_DATE = "before_date";
+        public static final String EXTRA_RETENTION_DAYS = "retention_days";
+        public static final String EXTRA_ARCHIVED_ROWS = "archived_rows";
+
+        public static Uri buildHistoryLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the today table.  It holds one row per
+        location with what the widgets, the notification, Muzei and the wearable show for today,
+        so they can read it by primary key instead of joining and filtering the forecast.  The
+        provider keeps it in step with the weather table in the same transaction as every write.
+     */
+    public static final class TodayEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_TODAY).build();
+
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_TODAY;
+
+        public static final String TABLE_NAME = "today";
+
+        // Primary key, the location setting the row belongs to
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+        public static final String COLUMN_LOC_KEY = "location_id";
+
+        // The first forecast day that isn't in the past, normally today
+        public static final String COLUMN_DATE = "date";
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+
+        public static final String COLUMN_CITY_NAME = "city_name";
+        public static final String COLUMN_COORD_LAT = "coord_lat";
+        public static final String COLUMN_COORD_LONG = "coord_long";
+
+        // ContentProvider#call method returning the summary of the location given as arg, keyed by
+        // the column names, or null if there is none.  Cheaper than a query for a single row.
+        public static final String METHOD_GET_TODAY = "get_today";
+
+        public static Uri buildTodayUri(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
+
+    /*
+        Inner class that defines the columns of the single-row aggregate returned for
+        weather/<location_setting>/stats.  The aggregate covers the forecast and the history
+        archive, so it can span anything from the next few days to years.  History rows that
+        stand for several days are weighted by the days they cover.
+     */
+    public static final class StatsEntry {
+
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        // Query parameters bounding the range, both inclusive and both optional
+        public static final String PARAM_START_DATE = "start";
+        public static final String PARAM_END_DATE = "end";
+
+        // Number of days in the range that have data
+        public static final String COLUMN_DAYS = "days";
+
+        // Lowest low and highest high, and the average low and high
+        public static final String COLUMN_MIN_TEMP = "min_temp";
+        public static final String COLUMN_MAX_TEMP = "max_temp";
+        public static final String COLUMN_AVG_MIN_TEMP = "avg_min_temp";
+        public static final String COLUMN_AVG_MAX_TEMP = "avg_max_temp";
+
+        public static final String COLUMN_MIN_HUMIDITY = "min_humidity";
+        public static final String COLUMN_MAX_HUMIDITY = "max_humidity";
+        public static final String COLUMN_AVG_HUMIDITY = "avg_humidity";
+
+        public static final String COLUMN_MIN_PRESSURE = "min_pressure";
+        public static final String COLUMN_MAX_PRESSURE = "max_pressure";
+        public static final String COLUMN_AVG_PRESSURE = "avg_pressure";
+
+        public static final String COLUMN_MIN_WIND_SPEED = "min_wind";
+        public static final String COLUMN_MAX_WIND_SPEED = "max_wind";
+        public static final String COLUMN_AVG_WIND_SPEED = "avg_wind";
+
+        // Number of days per condition group, following the ranges of the OWM weather ids
+        public static final String COLUMN_STORM_DAYS = "storm_days";
+        public static final String COLUMN_DRIZZLE_DAYS = "drizzle_days";
+        public static final String COLUMN_RAIN_DAYS = "rain_days";
+        public static final String COLUMN_SNOW_DAYS = "snow_days";
+        public static final String COLUMN_FOG_DAYS = "fog_days";
+        public static final String COLUMN_CLEAR_DAYS = "clear_days";
+        public static final String COLUMN_CLOUDY_DAYS = "cloudy_days";
+        public static final String COLUMN_EXTREME_DAYS = "extreme_days";
+
+        /**
+         * @param startDate first day of the range, or 0 for no lower bound
+         * @param endDate   last day of the range, or 0 for no upper bound
+         */
+        public static Uri buildStatsUri(String locationSetting, long startDate, long endDate) {
+            Uri.Builder builder = WeatherEntry.CONTENT_URI.buildUpon()
+                    .appendPath(locationSetting)
+                    .appendPath(PATH_STATS);
+            if (startDate != 0) {
+                builder.appendQueryParameter(PARAM_START_DATE,
+                        Long.toString(normalizeDate(startDate)));
+            }
+            if (endDate != 0) {
+                builder.appendQueryParameter(PARAM_END_DATE,
+                        Long.toString(normalizeDate(endDate)));
+            }
+            return builder.build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            return getDateParameter(uri, PARAM_START_DATE, Long.MIN_VALUE);
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            return getDateParameter(uri, PARAM_END_DATE, Long.MAX_VALUE);
+        }
+
+        private static long getDateParameter(Uri uri, String name, long defaultValue) {
+            String dateString = uri.getQueryParameter(name);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return defaultValue;
+        }
+    }
+
+    /*
+        Inner class that defines the columns of the slow query log.  It is kept in memory by the
+        provider and holds the most recent calls that took longer than the threshold, newest
+        first.  Debug builds also list every query shape once with its query plan.  Deleting
+        from the uri clears the log.  The provider isn't exported, so on a test device the log
+        is read through dumpsys instead (API 18 and up):
+        adb shell dumpsys activity provider com.loosli.christian.sunshine.app/.data.WeatherProvider
+     */
+    public static final class SlowQueryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SLOW_QUERIES).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SLOW_QUERIES;
+
+        // Values of COLUMN_OPERATION
+        public static final String OPERATION_QUERY = "query";
+        public static final String OPERATION_INSERT = "insert";
+        public static final String OPERATION_BULK_INSERT = "bulkInsert";
+        public static final String OPERATION_UPDATE = "update";
+        public static final String OPERATION_DELETE = "delete";
+
+        // When the call finished, in milliseconds since the epoch
+        public static final String COLUMN_TIME = "time";
+        public static final String COLUMN_OPERATION = "operation";
+        // UriMatcher code of the uri
+        public static final String COLUMN_MATCH = "match";
+        public static final String COLUMN_URI = "uri";
+        public static final String COLUMN_SELECTION = "selection";
+        // Rows returned or written
+        public static final String COLUMN_ROWS = "rows";
+        public static final String COLUMN_DURATION = "duration_ms";
+        // Debug builds only: the SQL the query ran and its EXPLAIN QUERY PLAN
+        public static final String COLUMN_SQL = "sql";
+        public static final String COLUMN_PLAN = "plan";
+
+        // ContentProvider#call method setting the threshold to the milliseconds given as arg,
+        // a number of at least 0
+        public static final String METHOD_SET_THRESHOLD = "set_slow_query_threshold";
+    }
+}
@@ -15,11 +15,17 @@
  */
 package com.loosli.christian.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import com.loosli.christian.sunshine.app.BuildConfig;
+import com.loosli.christian.sunshine.app.data.WeatherContract.HistoryEntry;
 import com.loosli.christian.sunshine.app.data.WeatherContract.LocationEntry;
+import com.loosli.christian.sunshine.app.data.WeatherContract.TodayEntry;
 import com.loosli.christian.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
@@ -27,17 +33,215 @@ import com.loosli.christian.sunshine.app.data.WeatherContract.WeatherEntry;
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version and add a
+    // Migration to MIGRATIONS that brings the previous version up to it.
+    static final int DATABASE_VERSION = 7;
+
+    // Databases older than this predate the migrations and are rebuilt from scratch.
+    static final int FIRST_MIGRATABLE_VERSION = 2;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Set by onCreate and onUpgrade so that onOpen, which runs outside their transaction, can
+    // switch the new or upgraded database to incremental auto_vacuum
+    private boolean mCreatedOrUpgraded;
+
+    /**
+     * A single schema change, upgrading the database from {@code version - 1} to
+     * {@code version}.  Migrations must keep existing rows intact.
+     */
+    abstract static class Migration {
+        final int version;
+
+        Migration(int version) {
+            this.version = version;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // Ordered by version, one entry per version after FIRST_MIGRATABLE_VERSION.
+    static final Migration[] MIGRATIONS = {
+            // Forecast queries filter by location first and then by date, while the UNIQUE
+            // constraint only gives us an index on (date, location_id).
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX IF NOT EXISTS weather_location_date_idx ON " +
+                            WeatherEntry.TABLE_NAME + " (" +
+                            WeatherEntry.COLUMN_LOC_KEY + ", " +
+                            WeatherEntry.COLUMN_DATE + ");");
+                }
+            },
+            // Past forecasts are folded into history instead of being deleted.  The UNIQUE
+            // constraint doubles as the index for reading a location's history by date.
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + HistoryEntry.TABLE_NAME + " (" +
+                            HistoryEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            HistoryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                            HistoryEntry.COLUMN_RESOLUTION + " INTEGER NOT NULL, " +
+                            HistoryEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                            HistoryEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+                            HistoryEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                            HistoryEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                            HistoryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                            HistoryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                            HistoryEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                            HistoryEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                            HistoryEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                            HistoryEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                            " FOREIGN KEY (" + HistoryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                            " UNIQUE (" + HistoryEntry.COLUMN_LOC_KEY + ", " +
+                            HistoryEntry.COLUMN_DATE + ", " +
+                            HistoryEntry.COLUMN_RESOLUTION + ") ON CONFLICT REPLACE);");
+                }
+            },
+            // Today's forecast per location, kept up to date by WeatherProvider so that readers
+            // get it by primary key
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + TodayEntry.TABLE_NAME + " (" +
+                            TodayEntry.COLUMN_LOCATION_SETTING + " TEXT PRIMARY KEY, " +
+                            TodayEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                            TodayEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                            TodayEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                            TodayEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                            TodayEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                            TodayEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                            TodayEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+                            TodayEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+                            TodayEntry.COLUMN_COORD_LONG + " REAL NOT NULL);");
+                    TodaySummaries.refreshAll(db,
+                            WeatherContract.normalizeDate(System.currentTimeMillis()));
+                }
+            },
+            // Prefix search over the saved locations.  FTS4 with docid = location._id rather
+            // than an external content table, which needs a newer SQLite than API 15 has.
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    final String insertNew = "INSERT INTO " + LocationEntry.SEARCH_TABLE_NAME +
+                            " (docid, " + LocationEntry.COLUMN_SEARCH_TEXT + ") VALUES (" +
+                            "new." + LocationEntry._ID + ", " +
+                            "new." + LocationEntry.COLUMN_CITY_NAME + " || ' ' || " +
+                            "new." + LocationEntry.COLUMN_LOCATION_SETTING + ");";
+                    final String deleteOld = "DELETE FROM " + LocationEntry.SEARCH_TABLE_NAME +
+                            " WHERE docid = old." + LocationEntry._ID + ";";
+
+                    db.execSQL("CREATE VIRTUAL TABLE " + LocationEntry.SEARCH_TABLE_NAME +
+                            " USING fts4(" + LocationEntry.COLUMN_SEARCH_TEXT + ");");
+                    db.execSQL("INSERT INTO " + LocationEntry.SEARCH_TABLE_NAME +
+                            " (docid, " + LocationEntry.COLUMN_SEARCH_TEXT + ") SELECT " +
+                            LocationEntry._ID + ", " +
+                            LocationEntry.COLUMN_CITY_NAME + " || ' ' || " +
+                            LocationEntry.COLUMN_LOCATION_SETTING + " FROM " +
+                            LocationEntry.TABLE_NAME + ";");
+                    db.execSQL("CREATE TRIGGER location_search_insert AFTER INSERT ON " +
+                            LocationEntry.TABLE_NAME + " BEGIN " + insertNew + " END;");
+                    db.execSQL("CREATE TRIGGER location_search_update AFTER UPDATE ON " +
+                            LocationEntry.TABLE_NAME + " BEGIN " + deleteOld + " " + insertNew +
+                            " END;");
+                    db.execSQL("CREATE TRIGGER location_search_delete AFTER DELETE ON " +
+                            LocationEntry.TABLE_NAME + " BEGIN " + deleteOld + " END;");
+                }
+            },
+            // Finding stored locations near a point.  Each location is a zero-size box in an
+            // R*Tree; where the platform SQLite lacks the module, an index on the coordinates
+            // still narrows a bounding box query down to a latitude band.
+            new Migration(7) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    try {
+                        db.execSQL("CREATE VIRTUAL TABLE " + LocationEntry.SPATIAL_TABLE_NAME +
+                                " USING rtree(id, min_lat, max_lat, min_long, max_long);");
+                    } catch (SQLiteException e) {
+                        db.execSQL("CREATE INDEX location_coord_idx ON " +
+                                LocationEntry.TABLE_NAME + " (" +
+                                LocationEntry.COLUMN_COORD_LAT + ", " +
+                                LocationEntry.COLUMN_COORD_LONG + ");");
+                        return;
+                    }
+                    final String box = LocationEntry.COLUMN_COORD_LAT + ", " +
+                            LocationEntry.COLUMN_COORD_LAT + ", " +
+                            LocationEntry.COLUMN_COORD_LONG + ", " +
+                            LocationEntry.COLUMN_COORD_LONG;
+                    db.execSQL("INSERT INTO " + LocationEntry.SPATIAL_TABLE_NAME + " SELECT " +
+                            LocationEntry._ID + ", " + box + " FROM " +
+                            LocationEntry.TABLE_NAME + ";");
+                    db.execSQL("CREATE TRIGGER location_rtree_insert AFTER INSERT ON " +
+                            LocationEntry.TABLE_NAME + " BEGIN INSERT INTO " +
+                            LocationEntry.SPATIAL_TABLE_NAME + " VALUES (" +
+                            "new." + LocationEntry._ID + ", " +
+                            "new." + LocationEntry.COLUMN_COORD_LAT + ", " +
+                            "new." + LocationEntry.COLUMN_COORD_LAT + ", " +
+                            "new." + LocationEntry.COLUMN_COORD_LONG + ", " +
+                            "new." + LocationEntry.COLUMN_COORD_LONG + "); END;");
+                    db.execSQL("CREATE TRIGGER location_rtree_update AFTER UPDATE OF " +
+                            LocationEntry.COLUMN_COORD_LAT + ", " +
+                            LocationEntry.COLUMN_COORD_LONG + " ON " +
+                            LocationEntry.TABLE_NAME + " BEGIN UPDATE " +
+                            LocationEntry.SPATIAL_TABLE_NAME + " SET " +
+                            "min_lat = new." + LocationEntry.COLUMN_COORD_LAT + ", " +
+                            "max_lat = new." + LocationEntry.COLUMN_COORD_LAT + ", " +
+                            "min_long = new." + LocationEntry.COLUMN_COORD_LONG + ", " +
+                            "max_long = new." + LocationEntry.COLUMN_COORD_LONG +
+                            " WHERE id = new." + LocationEntry._ID + "; END;");
+                    db.execSQL("CREATE TRIGGER location_rtree_delete AFTER DELETE ON " +
+                            LocationEntry.TABLE_NAME + " BEGIN DELETE FROM " +
+                            LocationEntry.SPATIAL_TABLE_NAME +
+                            " WHERE id = old." + LocationEntry._ID + "; END;");
+                }
+            }
+    };
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // Debug builds record the SQL of each query so the slow query log can explain it
+        super(context, DATABASE_NAME, BuildConfig.DEBUG ? SlowQueryLog.CURSOR_FACTORY : null,
+                DATABASE_VERSION);
+    }
+
+    /*
+        Write-ahead logging lets the UI read while a sync writes.  It is set before the database
+        is created or upgraded, so the migrations already run in WAL mode and the connection
+        pool is sized for it from the start.
+     */
+    @Override
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void onConfigure(SQLiteDatabase sqLiteDatabase) {
+        super.onConfigure(sqLiteDatabase);
+        sqLiteDatabase.enableWriteAheadLogging();
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase sqLiteDatabase) {
+        super.onOpen(sqLiteDatabase);
+        // There is no onConfigure before Jelly Bean
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !sqLiteDatabase.isReadOnly()) {
+            sqLiteDatabase.enableWriteAheadLogging();
+        }
+        if (mCreatedOrUpgraded) {
+            mCreatedOrUpgraded = false;
+            WeatherDbMaintenance.setUpAutoVacuum(sqLiteDatabase);
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        createSchema(sqLiteDatabase, DATABASE_VERSION);
+        // The tables are empty, so the VACUUM in onOpen costs next to nothing
+        mCreatedOrUpgraded = true;
+    }
+
+    /**
+     * Creates the schema as it looks at the given version.  New databases are built by creating
+     * the first migratable schema and running every migration on top of it, so a fresh install
+     * and an upgraded install always end up with the same schema.
+     */
+    static void createSchema(SQLiteDatabase sqLiteDatabase, int version) {
         // Create a table to hold locations.  A location consists of the string supplied in the
         // location setting, the city name, and the latitude and longitude
         final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
@@ -81,18 +285,38 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+
+        migrate(sqLiteDatabase, FIRST_MIGRATABLE_VERSION, version);
+    }
+
+    private static void migrate(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version > oldVersion && migration.version <= newVersion) {
+                migration.migrate(sqLiteDatabase);
+            }
+        }
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        // SQLiteOpenHelper runs this inside a transaction, so a failing migration leaves the
+        // database at its old version.
+        if (oldVersion < FIRST_MIGRATABLE_VERSION) {
+            // There is no migration path from these versions.  This database is a cache for
+            // online data, so discard it and start over.
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TodayEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.SEARCH_TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.SPATIAL_TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        migrate(sqLiteDatabase, oldVersion, newVersion);
+        // The first open already waits for the migrations, and archiving keeps the file small
+        mCreatedOrUpgraded = true;
     }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.loosli.christian.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Storage setup and upkeep of the weather database.  Syncs replace the forecast and archiving
+ * moves and rolls up rows every day, so without upkeep the file only grows and the planner
+ * works from statistics that no longer match the data.
+ */
+class WeatherDbMaintenance {
+
+    private static final String LOG_TAG = WeatherDbMaintenance.class.getSimpleName();
+
+    // Value of PRAGMA auto_vacuum
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private WeatherDbMaintenance() {
+    }
+
+    /**
+     * Switches a database to incremental auto_vacuum unless it already uses it.
+     * <p/>
+     * auto_vacuum only takes effect on an empty database or through a VACUUM, and Android
+     * creates its metadata table before onCreate, so even a new database needs the VACUUM.
+     * That rewrites the whole file, so {@link WeatherDbHelper} only calls this right after
+     * creating or upgrading the database, when it holds no forecast yet or is being rewritten
+     * anyway, and never from a sync.  It has to run outside of any transaction.
+     */
+    static void setUpAutoVacuum(SQLiteDatabase db) {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            long start = SystemClock.elapsedRealtime();
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+            Log.i(LOG_TAG, "Switched to incremental auto_vacuum in " +
+                    (SystemClock.elapsedRealtime() - start) + "ms");
+        }
+    }
+
+    /**
+     * Refreshes the planner statistics, returns free pages to the file system and checkpoints
+     * the write-ahead log.  Cheap enough for the sync to run: nothing here rewrites the file.
+     *
+     * @return page counts before and after, under the WeatherContract.EXTRA_ keys
+     */
+    static Bundle run(SQLiteDatabase db) {
+        long start = SystemClock.elapsedRealtime();
+        long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        long pagesBefore = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        long freePagesBefore = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+
+        db.execSQL("ANALYZE");
+        // Both pragmas produce their work one row at a time, so they only finish once every
+        // row has been stepped through
+        stepThrough(db, "PRAGMA incremental_vacuum");
+        stepThrough(db, "PRAGMA wal_checkpoint(RESTART)");
+
+        long pagesAfter = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        long freePagesAfter = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        Log.i(LOG_TAG, "Maintenance took " + (SystemClock.elapsedRealtime() - start) +
+                "ms, pages of " + pageSize + " bytes: " + pagesBefore + " (" + freePagesBefore +
+                " free) before, " + pagesAfter + " (" + freePagesAfter + " free) after");
+
+        Bundle result = new Bundle();
+        result.putLong(WeatherContract.EXTRA_PAGE_SIZE, pageSize);
+        result.putLong(WeatherContract.EXTRA_PAGES_BEFORE, pagesBefore);
+        result.putLong(WeatherContract.EXTRA_FREE_PAGES_BEFORE, freePagesBefore);
+        result.putLong(WeatherContract.EXTRA_PAGES_AFTER, pagesAfter);
+        result.putLong(WeatherContract.EXTRA_FREE_PAGES_AFTER, freePagesAfter);
+        return result;
+    }
+
+    private static void stepThrough(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
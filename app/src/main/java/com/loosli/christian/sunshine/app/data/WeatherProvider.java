@@ -17,12 +17,28 @@ package com.loosli.christian.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.v4.util.LongSparseArray;
+import android.text.TextUtils;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 
 public class WeatherProvider extends ContentProvider {
 
@@ -30,12 +46,47 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // While applyBatch is running on a thread, changes made by the individual operations are
+    // collected here instead of being notified right away, so observers only hear about the
+    // batch once it has been committed.
+    private final ThreadLocal<WeatherChangeSet> mPendingChanges = new ThreadLocal<WeatherChangeSet>();
+
+    // location._id -> location.location_setting, used to build scoped notification uris
+    private final LongSparseArray<String> mLocationSettings = new LongSparseArray<String>();
+
+    // location_setting -> the location_setting found by adopt_nearby whose forecast is served
+    // for it while it has none of its own.  Only kept in memory, nothing is copied.
+    private final HashMap<String, String> mStandIns = new HashMap<String, String>();
+
+    private final SlowQueryLog mSlowQueryLog = new SlowQueryLog();
+
+    private final QueryCoalescer mQueryCoalescer = new QueryCoalescer();
+
+    // Whether the database has the R*Tree or only the coordinate index, known once it's open
+    private volatile Boolean mSpatialIndex;
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_STATS = 103;
     static final int LOCATION = 300;
+    static final int LOCATION_SEARCH = 301;
+    static final int LOCATION_NEAREST = 302;
+    static final int HISTORY = 400;
+    static final int HISTORY_WITH_LOCATION = 401;
+    static final int TODAY_WITH_LOCATION = 500;
+    static final int SLOW_QUERIES = 600;
+
+    // Days returned by METHOD_GET_FORECAST when the caller doesn't say, all that a sync fetches
+    private static final int DEFAULT_FORECAST_DAYS = 14;
+
+    // Location results up to this size are handed out as a ColumnarCursor rather than holding a
+    // CursorWindow open.  Comfortably above a synced forecast, which archiving keeps it near.
+    private static final int MAX_COLUMNAR_ROWS = 32;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sHistoryByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sLocationSearchQueryBuilder;
 
     static {
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -49,6 +100,27 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        sHistoryByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+
+        //history INNER JOIN location ON history.location_id = location._id
+        sHistoryByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HistoryEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HistoryEntry.TABLE_NAME +
+                        "." + WeatherContract.HistoryEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+
+        sLocationSearchQueryBuilder = new SQLiteQueryBuilder();
+
+        //location_search INNER JOIN location ON location_search.docid = location._id
+        sLocationSearchQueryBuilder.setTables(
+                WeatherContract.LocationEntry.SEARCH_TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.LocationEntry.SEARCH_TABLE_NAME + ".docid" +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
     }
 
     //location.location_setting = ?
@@ -68,8 +140,71 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location.location_setting = ? AND date > ?
+    private static final String sLocationSettingAfterDateSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " > ? ";
+
+    // Pages are ordered by date whatever sort order the caller asked for, since the next page
+    // is keyed on the last date of this one.  Dates are unique per location in both tables.
+    private Cursor getPageByLocationSetting(SQLiteQueryBuilder builder, Uri uri,
+                                            String locationSetting, String[] projection) {
+        return builder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingAfterDateSelection,
+                new String[]{locationSetting,
+                        Long.toString(WeatherContract.getAfterDateFromUri(uri))},
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC",
+                Integer.toString(WeatherContract.getLimitFromUri(uri))
+        );
+    }
+
+    //location_search MATCH ?
+    private static final String sLocationSearchSelection =
+            WeatherContract.LocationEntry.SEARCH_TABLE_NAME + " MATCH ?";
+
+    /*
+        Every word of the text becomes a prefix term, so "mount vi" finds "Mountain View, US"
+        and "94" finds "94043".  Only letters and digits are kept, which also keeps the FTS
+        query syntax out of user input.  The FTS lookup plus a join on the primary key stays
+        well under a millisecond for thousands of locations.
+     */
+    private Cursor searchLocations(Uri uri, String[] projection) {
+        String[] words = WeatherContract.LocationEntry.getSearchTextFromUri(uri)
+                .toLowerCase(Locale.US).split("[^\\p{L}\\p{N}]+");
+        StringBuilder match = new StringBuilder();
+        for (String word : words) {
+            if (word.length() > 0) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append(word).append('*');
+            }
+        }
+        if (match.length() == 0) {
+            return new MatrixCursor(projection != null ? projection : new String[]{
+                    WeatherContract.LocationEntry._ID});
+        }
+        return sLocationSearchQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSearchSelection,
+                new String[]{match.toString()},
+                null,
+                null,
+                WeatherContract.LocationEntry.COLUMN_CITY_NAME + " ASC",
+                Integer.toString(WeatherContract.LocationEntry.getSearchLimitFromUri(uri))
+        );
+    }
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        if (WeatherContract.isPageUri(uri)) {
+            return getPageByLocationSetting(
+                    sWeatherByLocationSettingQueryBuilder, uri, locationSetting, projection);
+        }
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
         String[] selectionArgs;
@@ -108,6 +243,230 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    private static final String sStatsValueColumns =
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED;
+
+    //location_id = (SELECT _id FROM location WHERE location_setting = ?) AND date BETWEEN ? AND ?
+    private static final String sStatsRowSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = (SELECT " +
+                    WeatherContract.LocationEntry._ID + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?) AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " BETWEEN ? AND ?";
+
+    // Aggregates the forecast and the history archive of one location in a single pass.  Both
+    // tables are read through their (location_id, date) indexes.  History rows covering several
+    // days are weighted by those days; their humidity, pressure and wind are already averages,
+    // so the extremes of those are the extremes of the period averages.
+    private static final String sStatsQuery = "SELECT " +
+            "IFNULL(SUM(days), 0) AS " + WeatherContract.StatsEntry.COLUMN_DAYS + ", " +
+            "MIN(" + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ") AS " +
+            WeatherContract.StatsEntry.COLUMN_MIN_TEMP + ", " +
+            "MAX(" + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ") AS " +
+            WeatherContract.StatsEntry.COLUMN_MAX_TEMP + ", " +
+            statsAverage(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                    WeatherContract.StatsEntry.COLUMN_AVG_MIN_TEMP) + ", " +
+            statsAverage(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                    WeatherContract.StatsEntry.COLUMN_AVG_MAX_TEMP) + ", " +
+            statsRange(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                    WeatherContract.StatsEntry.COLUMN_MIN_HUMIDITY,
+                    WeatherContract.StatsEntry.COLUMN_MAX_HUMIDITY,
+                    WeatherContract.StatsEntry.COLUMN_AVG_HUMIDITY) + ", " +
+            statsRange(WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                    WeatherContract.StatsEntry.COLUMN_MIN_PRESSURE,
+                    WeatherContract.StatsEntry.COLUMN_MAX_PRESSURE,
+                    WeatherContract.StatsEntry.COLUMN_AVG_PRESSURE) + ", " +
+            statsRange(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                    WeatherContract.StatsEntry.COLUMN_MIN_WIND_SPEED,
+                    WeatherContract.StatsEntry.COLUMN_MAX_WIND_SPEED,
+                    WeatherContract.StatsEntry.COLUMN_AVG_WIND_SPEED) + ", " +
+            statsConditionDays(200, 299, WeatherContract.StatsEntry.COLUMN_STORM_DAYS) + ", " +
+            statsConditionDays(300, 399, WeatherContract.StatsEntry.COLUMN_DRIZZLE_DAYS) + ", " +
+            statsConditionDays(500, 599, WeatherContract.StatsEntry.COLUMN_RAIN_DAYS) + ", " +
+            statsConditionDays(600, 699, WeatherContract.StatsEntry.COLUMN_SNOW_DAYS) + ", " +
+            statsConditionDays(700, 799, WeatherContract.StatsEntry.COLUMN_FOG_DAYS) + ", " +
+            statsConditionDays(800, 800, WeatherContract.StatsEntry.COLUMN_CLEAR_DAYS) + ", " +
+            statsConditionDays(801, 899, WeatherContract.StatsEntry.COLUMN_CLOUDY_DAYS) + ", " +
+            statsConditionDays(900, 999, WeatherContract.StatsEntry.COLUMN_EXTREME_DAYS) +
+            " FROM (SELECT 1 AS days, " + sStatsValueColumns +
+            " FROM " + WeatherContract.WeatherEntry.TABLE_NAME +
+            " WHERE " + sStatsRowSelection +
+            " UNION ALL SELECT " + WeatherContract.HistoryEntry.COLUMN_DAYS + ", " + sStatsValueColumns +
+            " FROM " + WeatherContract.HistoryEntry.TABLE_NAME +
+            " WHERE " + sStatsRowSelection + ")";
+
+    private static String statsAverage(String column, String alias) {
+        return "SUM(" + column + " * days) / SUM(days) AS " + alias;
+    }
+
+    private static String statsRange(String column, String minAlias, String maxAlias,
+                                     String avgAlias) {
+        return "MIN(" + column + ") AS " + minAlias + ", " +
+                "MAX(" + column + ") AS " + maxAlias + ", " +
+                statsAverage(column, avgAlias);
+    }
+
+    private static String statsConditionDays(int firstId, int lastId, String alias) {
+        return "IFNULL(SUM(CASE WHEN " + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID +
+                " BETWEEN " + firstId + " AND " + lastId + " THEN days ELSE 0 END), 0) AS " + alias;
+    }
+
+    private Cursor getWeatherStats(Uri uri, String[] projection) {
+        String locationSetting = WeatherContract.StatsEntry.getLocationSettingFromUri(uri);
+        String startDate = Long.toString(WeatherContract.StatsEntry.getStartDateFromUri(uri));
+        String endDate = Long.toString(WeatherContract.StatsEntry.getEndDateFromUri(uri));
+
+        String sql = sStatsQuery;
+        if (projection != null) {
+            sql = "SELECT " + TextUtils.join(", ", projection) + " FROM (" + sql + ")";
+        }
+        return mOpenHelper.getReadableDatabase().rawQuery(sql, new String[]{
+                locationSetting, startDate, endDate,
+                locationSetting, startDate, endDate});
+    }
+
+    //today.location_setting = ?
+    private static final String sTodayLocationSettingSelection =
+            WeatherContract.TodayEntry.COLUMN_LOCATION_SETTING + " = ? ";
+
+    private static final String[] sTodayColumns = {
+            WeatherContract.TodayEntry.COLUMN_DATE,
+            WeatherContract.TodayEntry.COLUMN_WEATHER_ID,
+            WeatherContract.TodayEntry.COLUMN_SHORT_DESC,
+            WeatherContract.TodayEntry.COLUMN_MAX_TEMP,
+            WeatherContract.TodayEntry.COLUMN_MIN_TEMP,
+            WeatherContract.TodayEntry.COLUMN_CITY_NAME,
+            WeatherContract.TodayEntry.COLUMN_COORD_LAT,
+            WeatherContract.TodayEntry.COLUMN_COORD_LONG
+    };
+
+    private Cursor getTodayByLocationSetting(Uri uri, String[] projection) {
+        return queryToday(WeatherContract.TodayEntry.getLocationSettingFromUri(uri), projection);
+    }
+
+    /*
+        The summary only moves on when the forecast is written, so right after midnight it
+        still shows yesterday.  A stale summary is then computed from the forecast instead, so
+        reads never write; the next write stores the current one.
+     */
+    private Cursor queryToday(String locationSetting, String[] projection) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        long summaryDate = 0;
+        Cursor summary = db.query(WeatherContract.TodayEntry.TABLE_NAME,
+                new String[]{WeatherContract.TodayEntry.COLUMN_DATE},
+                sTodayLocationSettingSelection, new String[]{locationSetting}, null, null, null);
+        try {
+            if (summary.moveToFirst()) {
+                summaryDate = summary.getLong(0);
+            }
+        } finally {
+            summary.close();
+        }
+        if (summaryDate != 0 && summaryDate < today) {
+            return TodaySummaries.query(db, locationSetting, today, projection);
+        }
+        return db.query(WeatherContract.TodayEntry.TABLE_NAME,
+                projection,
+                sTodayLocationSettingSelection,
+                new String[]{locationSetting},
+                null,
+                null,
+                null
+        );
+    }
+
+    private Bundle getTodayBundle(String locationSetting) {
+        Cursor cursor = queryToday(locationSetting, sTodayColumns);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            // Indices follow sTodayColumns
+            Bundle today = new Bundle();
+            today.putLong(WeatherContract.TodayEntry.COLUMN_DATE, cursor.getLong(0));
+            today.putInt(WeatherContract.TodayEntry.COLUMN_WEATHER_ID, cursor.getInt(1));
+            today.putString(WeatherContract.TodayEntry.COLUMN_SHORT_DESC, cursor.getString(2));
+            today.putDouble(WeatherContract.TodayEntry.COLUMN_MAX_TEMP, cursor.getDouble(3));
+            today.putDouble(WeatherContract.TodayEntry.COLUMN_MIN_TEMP, cursor.getDouble(4));
+            today.putString(WeatherContract.TodayEntry.COLUMN_CITY_NAME, cursor.getString(5));
+            today.putDouble(WeatherContract.TodayEntry.COLUMN_COORD_LAT, cursor.getDouble(6));
+            today.putDouble(WeatherContract.TodayEntry.COLUMN_COORD_LONG, cursor.getDouble(7));
+            return today;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static final String[] sCompactForecastColumns = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    private Bundle getCompactForecast(String locationSetting, int days) {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        Cursor cursor = sWeatherByLocationSettingQueryBuilder.query(
+                mOpenHelper.getReadableDatabase(),
+                sCompactForecastColumns,
+                sLocationSettingWithStartDateSelection,
+                new String[]{locationSetting, Long.toString(today)},
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC",
+                Integer.toString(days)
+        );
+        try {
+            int count = cursor.getCount();
+            long[] dates = new long[count];
+            int[] weatherIds = new int[count];
+            String[] descriptions = new String[count];
+            double[] high = new double[count];
+            double[] low = new double[count];
+            // Indices follow sCompactForecastColumns
+            for (int i = 0; cursor.moveToNext(); i++) {
+                dates[i] = cursor.getLong(0);
+                weatherIds[i] = cursor.getInt(1);
+                descriptions[i] = cursor.getString(2);
+                high[i] = cursor.getDouble(3);
+                low[i] = cursor.getDouble(4);
+            }
+            Bundle forecast = new Bundle();
+            forecast.putLongArray(WeatherContract.WeatherEntry.COLUMN_DATE, dates);
+            forecast.putIntArray(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherIds);
+            forecast.putStringArray(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, descriptions);
+            forecast.putDoubleArray(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+            forecast.putDoubleArray(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
+            return forecast;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Cursor getHistoryByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HistoryEntry.getLocationSettingFromUri(uri);
+        if (WeatherContract.isPageUri(uri)) {
+            return getPageByLocationSetting(
+                    sHistoryByLocationSettingQueryBuilder, uri, locationSetting, projection);
+        }
+
+        return sHistoryByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingSelection,
+                new String[]{locationSetting},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -128,8 +487,21 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_STATS,
+                WEATHER_STATS);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_SEARCH,
+                LOCATION_SEARCH);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_NEAREST,
+                LOCATION_NEAREST);
+
+        matcher.addURI(authority, WeatherContract.PATH_TODAY + "/*", TODAY_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_SLOW_QUERIES, SLOW_QUERIES);
         return matcher;
     }
 
@@ -160,30 +532,221 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER_WITH_LOCATION:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_STATS:
+                return WeatherContract.StatsEntry.CONTENT_ITEM_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
+            case LOCATION_SEARCH:
+            case LOCATION_NEAREST:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case TODAY_WITH_LOCATION:
+                return WeatherContract.TodayEntry.CONTENT_ITEM_TYPE;
+            case HISTORY:
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
+            case SLOW_QUERIES:
+                return WeatherContract.SlowQueryEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
     }
 
+    /*
+        The public entry points time each call and hand it to the slow query log; the work is
+        done by the do* methods below.  The log itself is served without being timed.
+     */
     @Override
-    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
-                        String sortOrder) {
+    public Cursor query(final Uri uri, final String[] projection, final String selection,
+                        final String[] selectionArgs, final String sortOrder) {
+        final int match = sUriMatcher.match(uri);
+        if (match == SLOW_QUERIES) {
+            Cursor cursor = mSlowQueryLog.query();
+            cursor.setNotificationUri(getContext().getContentResolver(), uri);
+            return cursor;
+        }
+        long start = SystemClock.elapsedRealtime();
+        Cursor cursor;
+        if (isCoalesced(match)) {
+            cursor = mQueryCoalescer.query(
+                    getQueryKey(uri, projection, selection, selectionArgs, sortOrder),
+                    new QueryCoalescer.Query() {
+                        @Override
+                        public Cursor run() {
+                            return doQueryOrStandIn(
+                                    match, uri, projection, selection, selectionArgs, sortOrder);
+                        }
+                    });
+        } else {
+            cursor = doQueryOrStandIn(match, uri, projection, selection, selectionArgs, sortOrder);
+        }
+        cursor.setNotificationUri(getContext().getContentResolver(), getNotificationUri(match, uri));
+        // SQLite only runs the query once the rows are counted, so count them in the timing
+        int rows = cursor.getCount();
+        mSlowQueryLog.onQuery(mOpenHelper.getReadableDatabase(), match, uri, selection, rows,
+                SystemClock.elapsedRealtime() - start);
+        return cursor;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        long start = SystemClock.elapsedRealtime();
+        Uri returnUri = doInsert(uri, values);
+        mSlowQueryLog.onWrite(WeatherContract.SlowQueryEntry.OPERATION_INSERT,
+                sUriMatcher.match(uri), uri, null, 1, SystemClock.elapsedRealtime() - start);
+        return returnUri;
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long start = SystemClock.elapsedRealtime();
+        int rows = doBulkInsert(uri, values);
+        mSlowQueryLog.onWrite(WeatherContract.SlowQueryEntry.OPERATION_BULK_INSERT,
+                sUriMatcher.match(uri), uri, null, rows, SystemClock.elapsedRealtime() - start);
+        return rows;
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        long start = SystemClock.elapsedRealtime();
+        int rows = doUpdate(uri, values, selection, selectionArgs);
+        mSlowQueryLog.onWrite(WeatherContract.SlowQueryEntry.OPERATION_UPDATE,
+                sUriMatcher.match(uri), uri, selection, rows, SystemClock.elapsedRealtime() - start);
+        return rows;
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        int match = sUriMatcher.match(uri);
+        if (match == SLOW_QUERIES) {
+            int rows = mSlowQueryLog.clear();
+            getContext().getContentResolver().notifyChange(uri, null);
+            return rows;
+        }
+        long start = SystemClock.elapsedRealtime();
+        int rows = doDelete(uri, selection, selectionArgs);
+        mSlowQueryLog.onWrite(WeatherContract.SlowQueryEntry.OPERATION_DELETE,
+                match, uri, selection, rows, SystemClock.elapsedRealtime() - start);
+        return rows;
+    }
+
+    /*
+        The location queries are the ones several components ask at the same moment, and the
+        ones whose small results come back as a ColumnarCursor that can be shared.
+     */
+    private static boolean isCoalesced(int match) {
+        switch (match) {
+            case WEATHER_WITH_LOCATION_AND_DATE:
+            case WEATHER_STATS:
+            case WEATHER_WITH_LOCATION:
+            case TODAY_WITH_LOCATION:
+            case HISTORY_WITH_LOCATION:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Arrays print their elements and null prints as "null", so equal queries get equal keys
+    private static String getQueryKey(Uri uri, String[] projection, String selection,
+                                      String[] selectionArgs, String sortOrder) {
+        StringBuilder key = new StringBuilder(uri.toString());
+        key.append('\n').append(Arrays.toString(projection));
+        key.append('\n').append(selection);
+        key.append('\n').append(Arrays.toString(selectionArgs));
+        key.append('\n').append(sortOrder);
+        return key.toString();
+    }
+
+    private static Uri getNotificationUri(int match, Uri uri) {
+        if (match == WEATHER_STATS) {
+            // Any day of the location can change the aggregate
+            return WeatherContract.WeatherEntry.buildWeatherLocation(
+                    WeatherContract.StatsEntry.getLocationSettingFromUri(uri));
+        }
+        return uri;
+    }
+
+    /*
+        A location with nothing stored that adopt_nearby found a stand-in for is answered with
+        the stand-in's rows, city name included, read through the stand-in's uri.  The cursor
+        is still notified on the location's uri, so it moves to the location's own forecast
+        once the sync stores it.
+     */
+    private Cursor doQueryOrStandIn(int match, Uri uri, String[] projection, String selection,
+                                    String[] selectionArgs, String sortOrder) {
+        Cursor cursor = doQuery(uri, projection, selection, selectionArgs, sortOrder);
+        if (!hasStandIn(match, uri) || cursor.getCount() != 0) {
+            return cursor;
+        }
+        String standIn = getStandIn(uri.getPathSegments().get(1));
+        if (standIn == null) {
+            return cursor;
+        }
+        cursor.close();
+        return doQuery(replaceLocationSetting(uri, standIn), projection, selection,
+                selectionArgs, sortOrder);
+    }
+
+    // The forecast and today views; stats, history and pages are only ever the location's own
+    private static boolean hasStandIn(int match, Uri uri) {
+        switch (match) {
+            case WEATHER_WITH_LOCATION:
+                return !WeatherContract.isPageUri(uri);
+            case WEATHER_WITH_LOCATION_AND_DATE:
+            case TODAY_WITH_LOCATION:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // The location setting is the second path segment of every uri hasStandIn() accepts
+    private static Uri replaceLocationSetting(Uri uri, String locationSetting) {
+        List<String> segments = uri.getPathSegments();
+        Uri.Builder builder = new Uri.Builder()
+                .scheme(uri.getScheme())
+                .encodedAuthority(uri.getEncodedAuthority())
+                .encodedQuery(uri.getEncodedQuery());
+        for (int i = 0; i < segments.size(); i++) {
+            builder.appendPath(i == 1 ? locationSetting : segments.get(i));
+        }
+        return builder.build();
+    }
+
+    private String getStandIn(String locationSetting) {
+        synchronized (mStandIns) {
+            return mStandIns.get(locationSetting);
+        }
+    }
+
+    QueryCoalescer getQueryCoalescer() {
+        return mQueryCoalescer;
+    }
+
+    private Cursor doQuery(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                           String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
         switch (sUriMatcher.match(uri)) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE: {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+                retCursor = ColumnarCursor.copyOf(
+                        getWeatherByLocationSettingAndDate(uri, projection, sortOrder),
+                        MAX_COLUMNAR_ROWS);
+                break;
+            }
+            // "weather/*/stats"
+            case WEATHER_STATS: {
+                retCursor = ColumnarCursor.copyOf(getWeatherStats(uri, projection),
+                        MAX_COLUMNAR_ROWS);
                 break;
             }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = ColumnarCursor.copyOf(
+                        getWeatherByLocationSetting(uri, projection, sortOrder), MAX_COLUMNAR_ROWS);
                 break;
             }
             // "weather"
@@ -212,70 +775,148 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "location/search"
+            case LOCATION_SEARCH: {
+                retCursor = ColumnarCursor.copyOf(searchLocations(uri, projection),
+                        MAX_COLUMNAR_ROWS);
+                break;
+            }
+            // "location/nearest"
+            case LOCATION_NEAREST: {
+                retCursor = NearbyLocations.query(mOpenHelper.getReadableDatabase(),
+                        hasSpatialIndex(),
+                        WeatherContract.LocationEntry.getLatFromUri(uri),
+                        WeatherContract.LocationEntry.getLongFromUri(uri),
+                        WeatherContract.LocationEntry.getRadiusFromUri(uri),
+                        WeatherContract.LocationEntry.getSearchLimitFromUri(uri));
+                break;
+            }
+            // "today/*"
+            case TODAY_WITH_LOCATION: {
+                retCursor = ColumnarCursor.copyOf(getTodayByLocationSetting(uri, projection),
+                        MAX_COLUMNAR_ROWS);
+                break;
+            }
+            // "history/*"
+            case HISTORY_WITH_LOCATION: {
+                retCursor = ColumnarCursor.copyOf(
+                        getHistoryByLocationSetting(uri, projection, sortOrder), MAX_COLUMNAR_ROWS);
+                break;
+            }
+            // "history"
+            case HISTORY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
         return retCursor;
     }
 
     /*
         Student: Add the ability to insert Locations to the implementation of this function.
      */
-    @Override
-    public Uri insert(Uri uri, ContentValues values) {
+    private Uri doInsert(Uri uri, ContentValues values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        final WeatherChangeSet changes = new WeatherChangeSet();
         Uri returnUri;
+        boolean successful = false;
 
-        switch (match) {
-            case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
-                if (_id > 0)
-                    returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
-            }
-            case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
-                if (_id > 0)
-                    returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
+        db.beginTransaction();
+        try {
+            switch (match) {
+                case WEATHER: {
+                    normalizeDate(values);
+                    long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                    if (_id > 0)
+                        returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
+                    else
+                        throw new android.database.SQLException("Failed to insert row into " + uri);
+                    addInsertedWeather(db, values, changes);
+                    break;
+                }
+                case LOCATION: {
+                    long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                    if (_id > 0)
+                        returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
+                    else
+                        throw new android.database.SQLException("Failed to insert row into " + uri);
+                    changes.addUri(uri);
+                    break;
+                }
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
             }
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+            updateTodaySummaries(db, changes);
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            endTransaction(db, successful);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(changes);
         return returnUri;
     }
 
-    @Override
-    public int delete(Uri uri, String selection, String[] selectionArgs) {
+    private int doDelete(Uri uri, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        final WeatherChangeSet changes = new WeatherChangeSet();
         int rowsDeleted;
         // this makes delete all rows return the number of rows deleted
         if (null == selection) selection = "1";
-        switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        boolean successful = false;
+
+        // The affected rows are looked up before they are gone, in the same transaction as the
+        // delete itself, so that only their observers get notified.
+        db.beginTransaction();
+        try {
+            switch (match) {
+                case WEATHER:
+                    addSelectedWeather(db, selection, selectionArgs, changes);
+                    if (WeatherContract.WeatherEntry.isArchiveUri(uri)) {
+                        rowsDeleted = WeatherArchiver.moveToHistory(db, selection, selectionArgs);
+                        changes.addUri(WeatherContract.HistoryEntry.CONTENT_URI);
+                    } else {
+                        rowsDeleted = db.delete(
+                                WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    }
+                    break;
+                case LOCATION:
+                    addSelectedLocations(db, selection, selectionArgs, changes);
+                    rowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                    clearLocationSettings();
+                    clearStandIns();
+                    changes.addUri(uri);
+                    break;
+                case HISTORY:
+                    rowsDeleted = db.delete(
+                            WeatherContract.HistoryEntry.TABLE_NAME, selection, selectionArgs);
+                    changes.addUri(uri);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+            updateTodaySummaries(db, changes);
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            endTransaction(db, successful);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(changes);
         }
         return rowsDeleted;
     }
@@ -288,59 +929,413 @@ public class WeatherProvider extends ContentProvider {
         }
     }
 
-    @Override
-    public int update(
+    private int doUpdate(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        final WeatherChangeSet changes = new WeatherChangeSet();
         int rowsUpdated;
+        boolean successful = false;
 
-        switch (match) {
-            case WEATHER:
-                normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        db.beginTransaction();
+        try {
+            switch (match) {
+                case WEATHER:
+                    normalizeDate(values);
+                    if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                            || values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+                        // Rows are moving to another day or location; we can't tell where
+                        // they end up without another query, so wake every weather observer.
+                        changes.addUnknownWeather();
+                    } else {
+                        addSelectedWeather(db, selection, selectionArgs, changes);
+                    }
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
+                            selectionArgs);
+                    break;
+                case LOCATION:
+                    // Weather queries join in the location, so its forecast changes too
+                    addSelectedLocations(db, selection, selectionArgs, changes);
+                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
+                            selectionArgs);
+                    if (values.containsKey(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)) {
+                        changes.addWeatherLocation(values.getAsString(
+                                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING));
+                    }
+                    clearLocationSettings();
+                    changes.addUri(uri);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+            updateTodaySummaries(db, changes);
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            endTransaction(db, successful);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(changes);
         }
         return rowsUpdated;
     }
 
-    @Override
-    public int bulkInsert(Uri uri, ContentValues[] values) {
+    private int doBulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                final WeatherChangeSet changes = new WeatherChangeSet();
                 db.beginTransaction();
                 int returnCount = 0;
+                boolean successful = false;
                 try {
                     for (ContentValues value : values) {
                         normalizeDate(value);
                         long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
                         if (_id != -1) {
                             returnCount++;
+                            addInsertedWeather(db, value, changes);
                         }
                     }
+                    updateTodaySummaries(db, changes);
                     db.setTransactionSuccessful();
+                    successful = true;
                 } finally {
-                    db.endTransaction();
+                    endTransaction(db, successful);
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChange(changes);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Applies all operations inside a single database transaction.  Either every operation is
+     * committed or none of them is, so readers never see a half-written forecast.  Change
+     * notifications are deferred until the commit and sent once per distinct uri.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final WeatherChangeSet pending = new WeatherChangeSet();
+        ContentProviderResult[] results;
+        boolean successful = false;
+
+        mPendingChanges.set(pending);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            TodaySummaries.update(db, pending, WeatherContract.normalizeDate(System.currentTimeMillis()));
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            endTransaction(db, successful);
+            mPendingChanges.remove();
+        }
+
+        mQueryCoalescer.invalidate();
+        pending.dispatch(getContext().getContentResolver());
+        return results;
+    }
+
+    /*
+        Small reads are offered as call() methods as well.  They hand back a Bundle instead of a
+        cursor, which saves the cursor window, the cursor proxy and the observer registration
+        of a query() for callers that only want a few values once.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_MAINTAIN.equals(method)) {
+            return WeatherDbMaintenance.run(mOpenHelper.getWritableDatabase());
+        }
+        if (WeatherContract.SlowQueryEntry.METHOD_SET_THRESHOLD.equals(method)) {
+            mSlowQueryLog.setThresholdMillis(requireThreshold(arg));
+            return null;
+        }
+        if (WeatherContract.TodayEntry.METHOD_GET_TODAY.equals(method)) {
+            String locationSetting = requireLocationSetting(arg);
+            Bundle today = getTodayBundle(locationSetting);
+            if (today == null) {
+                String standIn = getStandIn(locationSetting);
+                if (standIn != null) {
+                    today = getTodayBundle(standIn);
+                }
+            }
+            return today;
+        }
+        if (WeatherContract.WeatherEntry.METHOD_GET_FORECAST.equals(method)) {
+            int days = extras != null
+                    ? extras.getInt(WeatherContract.WeatherEntry.EXTRA_DAYS, DEFAULT_FORECAST_DAYS)
+                    : DEFAULT_FORECAST_DAYS;
+            return getCompactForecast(requireLocationSetting(arg), days);
+        }
+        if (WeatherContract.HistoryEntry.METHOD_ARCHIVE.equals(method)) {
+            return archive(extras);
+        }
+        if (WeatherContract.LocationEntry.METHOD_ADOPT_NEARBY.equals(method)) {
+            return adoptNearby(requireLocationSetting(arg), extras);
+        }
+        return super.call(method, arg, extras);
+    }
+
+    private static long requireThreshold(String arg) {
+        long thresholdMillis;
+        try {
+            thresholdMillis = Long.parseLong(arg);
+        } catch (NumberFormatException e) {
+            // Also thrown for a null arg
+            throw new IllegalArgumentException("Invalid slow query threshold: " + arg);
+        }
+        if (thresholdMillis < 0) {
+            throw new IllegalArgumentException("Invalid slow query threshold: " + arg);
+        }
+        return thresholdMillis;
+    }
+
+    private static String requireLocationSetting(String arg) {
+        if (arg == null) {
+            throw new IllegalArgumentException("Missing location setting");
+        }
+        return arg;
+    }
+
+    /*
+        Moves past weather rows into history a chunk at a time, each chunk in its own
+        transaction, so readers and the sync adapter are never blocked for long.  Once the
+        backlog is drained, history is compacted and trimmed to the retention period.
+     */
+    private Bundle archive(Bundle extras) {
+        if (extras == null || !extras.containsKey(WeatherContract.HistoryEntry.EXTRA_BEFORE_DATE)) {
+            throw new IllegalArgumentException("Missing " +
+                    WeatherContract.HistoryEntry.EXTRA_BEFORE_DATE);
+        }
+        final long beforeDate = WeatherContract.normalizeDate(
+                extras.getLong(WeatherContract.HistoryEntry.EXTRA_BEFORE_DATE));
+        final int retentionDays = extras.getInt(WeatherContract.HistoryEntry.EXTRA_RETENTION_DAYS,
+                WeatherArchiver.DEFAULT_RETENTION_DAYS);
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final String selection = WeatherArchiver.getChunkSelection(beforeDate);
+        int archivedRows = 0;
+        int movedRows;
+
+        do {
+            final WeatherChangeSet changes = new WeatherChangeSet();
+            db.beginTransaction();
+            try {
+                addSelectedWeather(db, selection, null, changes);
+                movedRows = WeatherArchiver.moveToHistory(db, selection);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (movedRows != 0) {
+                changes.addUri(WeatherContract.HistoryEntry.CONTENT_URI);
+                notifyChange(changes);
+            }
+            archivedRows += movedRows;
+        } while (movedRows == WeatherArchiver.CHUNK_SIZE);
+
+        // Stats cursors are notified on weather/<location_setting> and count history too
+        final WeatherChangeSet changes = new WeatherChangeSet();
+        db.beginTransaction();
+        try {
+            WeatherArchiver.compact(db, beforeDate, retentionDays, changes);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        changes.addUri(WeatherContract.HistoryEntry.CONTENT_URI);
+        notifyChange(changes);
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.HistoryEntry.EXTRA_ARCHIVED_ROWS, archivedRows);
+        return result;
+    }
+
+    /*
+        Lets a newly picked location show the forecast of a stored location close by, so that
+        the list and the widgets have something right away instead of after the sync's network
+        round trip.  Nothing is written: the location's queries fall back to the stand-in's rows
+        until it has a forecast of its own, and a failed fetch leaves nothing behind.
+     */
+    private Bundle adoptNearby(String locationSetting, Bundle extras) {
+        if (extras == null || !extras.containsKey(WeatherContract.LocationEntry.COLUMN_COORD_LAT)
+                || !extras.containsKey(WeatherContract.LocationEntry.COLUMN_COORD_LONG)) {
+            throw new IllegalArgumentException("Missing coordinates");
+        }
+        Bundle result = NearbyLocations.findStandIn(mOpenHelper.getReadableDatabase(),
+                hasSpatialIndex(), locationSetting,
+                extras.getDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT),
+                extras.getDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG),
+                extras.getDouble(WeatherContract.LocationEntry.PARAM_RADIUS,
+                        WeatherContract.LocationEntry.DEFAULT_NEARBY_RADIUS_KM),
+                WeatherContract.normalizeDate(System.currentTimeMillis()));
+        String standIn = result != null
+                ? result.getString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)
+                : null;
+        String previous;
+        synchronized (mStandIns) {
+            previous = standIn != null
+                    ? mStandIns.put(locationSetting, standIn)
+                    : mStandIns.remove(locationSetting);
+        }
+        if (!TextUtils.equals(previous, standIn)) {
+            WeatherChangeSet changes = new WeatherChangeSet();
+            changes.addWeatherLocation(locationSetting);
+            notifyChange(changes);
+        }
+        return result;
+    }
+
+    private boolean hasSpatialIndex() {
+        Boolean spatialIndex = mSpatialIndex;
+        if (spatialIndex == null) {
+            spatialIndex = NearbyLocations.hasSpatialIndex(mOpenHelper.getReadableDatabase());
+            mSpatialIndex = spatialIndex;
+        }
+        return spatialIndex;
+    }
+
+    /*
+        Rebuilds the today summaries of the locations in changes.  Called at the end of every
+        write transaction; inside applyBatch this is left to the batch, which does it once.
+     */
+    private void updateTodaySummaries(SQLiteDatabase db, WeatherChangeSet changes) {
+        if (mPendingChanges.get() == null) {
+            TodaySummaries.update(db, changes, WeatherContract.normalizeDate(System.currentTimeMillis()));
+        }
+    }
+
+    private void notifyChange(WeatherChangeSet changes) {
+        WeatherChangeSet pending = mPendingChanges.get();
+        if (pending != null) {
+            pending.addAll(changes);
+        } else {
+            mQueryCoalescer.invalidate();
+            changes.dispatch(getContext().getContentResolver());
+        }
+    }
+
+    private void addInsertedWeather(SQLiteDatabase db, ContentValues values,
+                                    WeatherChangeSet changes) {
+        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (locationId == null || date == null) {
+            changes.addUnknownWeather();
+        } else {
+            changes.addWeatherDay(getLocationSetting(db, locationId), date);
+        }
+    }
+
+    //SELECT DISTINCT location_setting, date FROM
+    //  (SELECT location_id, date FROM weather WHERE <selection>) AS w
+    //  LEFT JOIN location ON w.location_id = location._id
+    private void addSelectedWeather(SQLiteDatabase db, String selection, String[] selectionArgs,
+                                    WeatherChangeSet changes) {
+        Cursor cursor = db.rawQuery("SELECT DISTINCT " +
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + ", w." +
+                WeatherContract.WeatherEntry.COLUMN_DATE + " FROM (SELECT " +
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherContract.WeatherEntry.COLUMN_DATE + " FROM " +
+                WeatherContract.WeatherEntry.TABLE_NAME +
+                " WHERE " + (selection == null ? "1" : selection) + ") AS w LEFT JOIN " +
+                WeatherContract.LocationEntry.TABLE_NAME + " ON w." +
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = " +
+                WeatherContract.LocationEntry.TABLE_NAME + "." +
+                WeatherContract.LocationEntry._ID, selectionArgs);
+        try {
+            while (cursor.moveToNext()) {
+                changes.addWeatherDay(cursor.isNull(0) ? null : cursor.getString(0),
+                        cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void addSelectedLocations(SQLiteDatabase db, String selection, String[] selectionArgs,
+                                      WeatherChangeSet changes) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                changes.addWeatherLocation(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Resolves a location row id to its location setting, which is what weather uris are
+     * built from.  Results are kept until the location table is updated or deleted from, or a
+     * write transaction is rolled back.
+     *
+     * @return the location setting, or null if there is no such location
+     */
+    private String getLocationSetting(SQLiteDatabase db, long locationId) {
+        synchronized (mLocationSettings) {
+            String locationSetting = mLocationSettings.get(locationId);
+            if (locationSetting != null) {
+                return locationSetting;
+            }
+        }
+        String locationSetting = null;
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationId)}, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                locationSetting = cursor.getString(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (locationSetting != null) {
+            synchronized (mLocationSettings) {
+                mLocationSettings.put(locationId, locationSetting);
+            }
+        }
+        return locationSetting;
+    }
+
+    /*
+        Ends a write transaction.  The location ids a rolled back transaction inserted are handed
+        out again, possibly to other locations, so the settings cached for them are dropped.
+     */
+    private void endTransaction(SQLiteDatabase db, boolean successful) {
+        db.endTransaction();
+        if (!successful) {
+            clearLocationSettings();
+        }
+    }
+
+    private void clearLocationSettings() {
+        synchronized (mLocationSettings) {
+            mLocationSettings.clear();
+        }
+    }
+
+    private void clearStandIns() {
+        synchronized (mStandIns) {
+            mStandIns.clear();
+        }
+    }
+
+    /*
+        The slow query log, for adb shell dumpsys activity provider, since the provider isn't
+        exported and the shell can't query it.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mSlowQueryLog.dump(writer);
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -0,0 +1,112 @@
+package com.loosli.christian.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+
+import com.loosli.christian.sunshine.app.data.WeatherContract;
+
+import java.util.HashMap;
+
+/**
+ * Maps location settings to location row ids without a provider round-trip per lookup.
+ * <p/>
+ * The first lookup reads every stored location in a single query, and later lookups of those
+ * are served from the map.  Any change to the location table drops the map, and the next
+ * lookup loads it again.  That change is only heard of
+ * asynchronously, so a location inserted just before a lookup may be missing from the map: a
+ * miss is checked with a query for that one location before it is reported.
+ */
+class LocationIdCache {
+
+    private final ContentResolver mContentResolver;
+    private final HashMap<String, Long> mLocationIds = new HashMap<String, Long>();
+    private boolean mLoaded;
+
+    private final ContentObserver mLocationObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            invalidate();
+        }
+    };
+
+    LocationIdCache(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+        mContentResolver.registerContentObserver(
+                WeatherContract.LocationEntry.CONTENT_URI, true, mLocationObserver);
+    }
+
+    /**
+     * @return the row ID of the location, or -1 if it is not stored yet.
+     */
+    synchronized long getLocationId(String locationSetting) {
+        if (!mLoaded) {
+            load();
+        }
+        Long locationId = mLocationIds.get(locationSetting);
+        if (locationId != null) {
+            return locationId;
+        }
+        long storedId = queryLocationId(locationSetting);
+        if (storedId != -1 && mLoaded) {
+            mLocationIds.put(locationSetting, storedId);
+        }
+        return storedId;
+    }
+
+    /**
+     * Records a location this process has just inserted.
+     */
+    synchronized void putLocationId(String locationSetting, long locationId) {
+        if (mLoaded) {
+            mLocationIds.put(locationSetting, locationId);
+        }
+    }
+
+    synchronized void invalidate() {
+        mLoaded = false;
+        mLocationIds.clear();
+    }
+
+    /**
+     * Reads every stored location into the map.
+     */
+    private void load() {
+        Cursor cursor = mContentResolver.query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                        WeatherContract.LocationEntry._ID},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            // Leave mLoaded unset so that the next lookup tries again
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                mLocationIds.put(cursor.getString(0), cursor.getLong(1));
+            }
+            mLoaded = true;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long queryLocationId(String locationSetting) {
+        Cursor cursor = mContentResolver.query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.loosli.christian.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Build;
+
+import com.loosli.christian.sunshine.app.data.WeatherContract;
+
+/**
+ * Runs the storage maintenance of the weather database once a day while the device is idle and
+ * charging, so the VACUUM-like work never competes with the user.  Devices without
+ * JobScheduler get it from the sync adapter instead.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class MaintenanceJobService extends JobService {
+
+    private static final int JOB_ID = 3005;
+    private static final long MAINTENANCE_INTERVAL = 1000 * 60 * 60 * 24;
+
+    private AsyncTask<JobParameters, Void, JobParameters> mTask;
+
+    /**
+     * Schedules the daily job unless it already is; the job survives reboots.
+     */
+    public static void schedule(Context context) {
+        JobScheduler jobScheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : jobScheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, MaintenanceJobService.class))
+                .setPeriodic(MAINTENANCE_INTERVAL)
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPersisted(true)
+                .build();
+        jobScheduler.schedule(job);
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        mTask = new AsyncTask<JobParameters, Void, JobParameters>() {
+            @Override
+            protected JobParameters doInBackground(JobParameters... params) {
+                getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                        WeatherContract.METHOD_MAINTAIN, null, null);
+                return params[0];
+            }
+
+            @Override
+            protected void onPostExecute(JobParameters params) {
+                jobFinished(params, false);
+            }
+        };
+        mTask.execute(params);
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The statements can't be interrupted, but a stopped job must not report back; the next
+        // idle window runs it again
+        mTask.cancel(false);
+        return true;
+    }
+}
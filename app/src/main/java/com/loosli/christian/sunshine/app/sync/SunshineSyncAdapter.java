@@ -7,33 +7,37 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
 import com.loosli.christian.sunshine.app.BuildConfig;
+import com.loosli.christian.sunshine.app.EpochDays;
 import com.loosli.christian.sunshine.app.MainActivity;
 import com.loosli.christian.sunshine.app.R;
 import com.loosli.christian.sunshine.app.Utility;
+import com.loosli.christian.sunshine.app.data.ForecastSnapshot;
 import com.loosli.christian.sunshine.app.data.WeatherContract;
 import com.loosli.christian.sunshine.app.muzei.WeatherMuzeiSource;
 
@@ -49,7 +53,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
 import java.util.concurrent.ExecutionException;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
@@ -63,19 +67,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
-
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID, LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
     public @interface LocationStatus {
@@ -87,8 +78,12 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    // Resolves location settings to row ids; kept for the lifetime of the adapter
+    private final LocationIdCache mLocationIdCache;
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
+        mLocationIdCache = new LocationIdCache(context.getContentResolver());
     }
 
     @Override
@@ -102,6 +97,12 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
         String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
 
+        // A location with nothing stored yet shows the forecast of one nearby while we fetch
+        String nearbyLocation = Utility.adoptNearbyForecast(context);
+        if (nearbyLocation != null) {
+            Log.d(LOG_TAG, "Showing the forecast of " + nearbyLocation + " until the fetch is done");
+        }
+
         // These two need to be declared outside the try/catch
         // so that they can be closed in the finally block.
         HttpURLConnection urlConnection = null;
@@ -286,10 +287,19 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
             double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+            // The whole sync is written as one batch, so the location, the new forecast and the
+            // archiving of past days are committed in a single transaction.
+            ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+
+            long locationId = mLocationIdCache.getLocationId(locationSetting);
+            int locationOperationIndex = -1;
+            if (locationId == -1) {
+                locationOperationIndex = operations.size();
+                operations.add(ContentProviderOperation
+                        .newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                        .withValues(createLocationValues(locationSetting, cityName, cityLatitude, cityLongitude))
+                        .build());
+            }
 
             // OWM returns daily forecasts based upon the local time of the city that is being
             // asked for, which means that we need to know the GMT offset to translate this data
@@ -299,15 +309,14 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             // current day, we're going to take advantage of that to get a nice
             // normalized UTC date for all of our weather.
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
             // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+            int startDay = EpochDays.fromMillis(System.currentTimeMillis());
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
+            // The same days go into the snapshot the UI shows until the provider has loaded
+            ForecastSnapshot.Builder snapshot = new ForecastSnapshot.Builder(
+                    locationSetting, cityName, cityLatitude, cityLongitude);
 
+            int daysInserted = 0;
             for (int i = 0; i < weatherArray.length(); i++) {
                 // These are the values that will be collected.
                 long dateTime;
@@ -325,8 +334,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 // Get the JSON object representing the day
                 JSONObject dayForecast = weatherArray.getJSONObject(i);
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
+                dateTime = EpochDays.toMillis(startDay + i);
 
                 pressure = dayForecast.getDouble(OWM_PRESSURE);
                 humidity = dayForecast.getInt(OWM_HUMIDITY);
@@ -348,7 +356,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
                 ContentValues weatherValues = new ContentValues();
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
@@ -359,27 +366,61 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
 
-                cVVector.add(weatherValues);
+                ContentProviderOperation.Builder builder = ContentProviderOperation
+                        .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                        .withValues(weatherValues);
+                if (locationOperationIndex != -1) {
+                    // The location is inserted by this very batch, so take its id from there
+                    builder.withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                            locationOperationIndex);
+                } else {
+                    builder.withValue(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                }
+                operations.add(builder.build());
+                snapshot.addDay(dateTime, weatherId, description, high, low);
+                daysInserted++;
             }
 
-            int inserted = 0;
             // add to database
-            if (cVVector.size() > 0) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
+            if (daysInserted > 0) {
+                // move past days into the history archive in the same transaction, so readers
+                // never see them next to the new forecast
+                operations.add(ContentProviderOperation
+                        .newDelete(WeatherContract.WeatherEntry.ARCHIVE_URI)
+                        .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                                new String[]{Long.toString(EpochDays.toMillis(startDay))})
+                        .build());
+                ContentProviderResult[] results;
+                try {
+                    results = getContext().getContentResolver().applyBatch(
+                            WeatherContract.CONTENT_AUTHORITY, operations);
+                } catch (RemoteException | OperationApplicationException e) {
+                    Log.e(LOG_TAG, "Error storing forecast", e);
+                    return;
+                }
+                if (locationOperationIndex != -1) {
+                    mLocationIdCache.putLocationId(locationSetting,
+                            ContentUris.parseId(results[locationOperationIndex].uri));
+                }
+                snapshot.write(getContext());
+
+                // Compacting history only touches history and is redone by every sync, so it
+                // runs after the commit; the batch has left no past days for it to move.
+                Bundle archiveExtras = new Bundle();
+                archiveExtras.putLong(WeatherContract.HistoryEntry.EXTRA_BEFORE_DATE,
+                        EpochDays.toMillis(startDay));
+                archiveExtras.putInt(WeatherContract.HistoryEntry.EXTRA_RETENTION_DAYS,
+                        Utility.getHistoryRetentionDays(getContext()));
+                getContext().getContentResolver().call(WeatherContract.HistoryEntry.CONTENT_URI,
+                        WeatherContract.HistoryEntry.METHOD_ARCHIVE, null, archiveExtras);
+                maintainDatabase();
 
                 updateWidgets();
                 updateMuezi();
                 notifyWeather();
             }
 
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
+            Log.d(LOG_TAG, "Sync Complete. " + daysInserted + " Inserted");
             setLocationStatus(getContext(), LOCATION_STATUS_OK);
 
         } catch (JSONException e) {
@@ -389,6 +430,25 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
+    /**
+     * Devices without JobScheduler get the storage maintenance of MaintenanceJobService from the
+     * sync instead, once a week.
+     */
+    private void maintainDatabase() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        Context context = getContext();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String lastMaintenanceKey = context.getString(R.string.pref_last_maintenance);
+        long now = System.currentTimeMillis();
+        if (now - prefs.getLong(lastMaintenanceKey, 0) >= 7 * DAY_IN_MILLIS) {
+            context.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_MAINTAIN, null, null);
+            prefs.edit().putLong(lastMaintenanceKey, now).commit();
+        }
+    }
+
     private void updateMuezi() {
         // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
         // Muzei background on lower API level devices
@@ -423,16 +483,16 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
                 String locationQuery = Utility.getPreferredLocation(context);
 
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
+                // A few values are all we need, so skip the cursor
+                Bundle today = context.getContentResolver().call(
+                        WeatherContract.TodayEntry.CONTENT_URI,
+                        WeatherContract.TodayEntry.METHOD_GET_TODAY, locationQuery, null);
 
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                if (today != null) {
+                    int weatherId = today.getInt(WeatherContract.TodayEntry.COLUMN_WEATHER_ID);
+                    double high = today.getDouble(WeatherContract.TodayEntry.COLUMN_MAX_TEMP);
+                    double low = today.getDouble(WeatherContract.TodayEntry.COLUMN_MIN_TEMP);
+                    String desc = today.getString(WeatherContract.TodayEntry.COLUMN_SHORT_DESC);
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
@@ -509,7 +569,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
                 }
-                cursor.close();
             }
         }
     }
@@ -524,46 +583,37 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @return the row ID of the added location.
      */
     long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
         // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
+        long locationId = mLocationIdCache.getLocationId(locationSetting);
 
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
+        if (locationId == -1) {
+            // Now that the content provider is set up, inserting rows of data is pretty simple.
             Uri insertedUri = getContext().getContentResolver().insert(
                     WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
+                    createLocationValues(locationSetting, cityName, lat, lon)
             );
 
             // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
             locationId = ContentUris.parseId(insertedUri);
+            mLocationIdCache.putLocationId(locationSetting, locationId);
         }
 
-        locationCursor.close();
         // Wait, that worked?  Yes!
         return locationId;
     }
 
+    private static ContentValues createLocationValues(String locationSetting, String cityName,
+                                                      double lat, double lon) {
+        // Add the data, along with the corresponding name of the data type,
+        // so the content provider knows what kind of value is being inserted.
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+        return locationValues;
+    }
+
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
@@ -654,6 +704,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     public static void initializeSyncAdapter(Context context) {
         getSyncAccount(context);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            MaintenanceJobService.schedule(context);
+        }
     }
 
     /**
@@ -2,8 +2,6 @@ package com.loosli.christian.sunshine.app.wearable;
 
 import android.app.IntentService;
 import android.content.Intent;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.util.Log;
@@ -26,22 +24,6 @@ import java.util.Date;
 public class WearableIntentService extends IntentService implements GoogleApiClient.ConnectionCallbacks {
 
     private static final String TAG = WearableIntentService.class.getSimpleName();
-    private static final String[] FORECAST_COLUMNS = {
-            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
-            WeatherContract.WeatherEntry.COLUMN_DATE,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.LocationEntry.COLUMN_CITY_NAME
-    };
-
-    static final int COL_WEATHER_ID = 0;
-    static final int COL_WEATHER_DATE = 1;
-    static final int COL_WEATHER_MAX_TEMP = 2;
-    static final int COL_WEATHER_MIN_TEMP = 3;
-    static final int COL_WEATHER_CONDITION_ID = 4;
-    static final int COL_CITY_NAME = 5;
-
     private static final String REQ_PATH = "/weather";
     private static final String KEY_PACKAGE = "com.loosli.christian.sunshine.app.wearable.key.";
     private static final String KEY_WEATHER_ID = KEY_PACKAGE + "weather_id";
@@ -72,25 +54,21 @@ public class WearableIntentService extends IntentService implements GoogleApiCli
         Log.d(TAG, "onHandleIntent");
 
         String locationSetting = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationSetting, System.currentTimeMillis());
-        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
-        Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null, null, sortOrder);
-
+        Bundle data = getContentResolver().call(WeatherContract.TodayEntry.CONTENT_URI,
+                WeatherContract.TodayEntry.METHOD_GET_TODAY, locationSetting, null);
         if (data == null) {
-            return;
+            data = Utility.getTodayFromSnapshot(this, locationSetting);
         }
 
-        if (!data.moveToFirst()) {
-            data.close();
+        if (data == null) {
             return;
         }
 
-        mWeatherId = data.getInt(COL_WEATHER_DATE);
-        mWeatherConditionId = data.getInt(COL_WEATHER_CONDITION_ID);
-        mWeatherMaxTemp = data.getDouble(COL_WEATHER_MAX_TEMP);
-        mWeatherMinTemp = data.getDouble(COL_WEATHER_MIN_TEMP);
-        mWeatherLocation = data.getString(COL_CITY_NAME);
-        data.close();
+        mWeatherId = (int) data.getLong(WeatherContract.TodayEntry.COLUMN_DATE);
+        mWeatherConditionId = data.getInt(WeatherContract.TodayEntry.COLUMN_WEATHER_ID);
+        mWeatherMaxTemp = data.getDouble(WeatherContract.TodayEntry.COLUMN_MAX_TEMP);
+        mWeatherMinTemp = data.getDouble(WeatherContract.TodayEntry.COLUMN_MIN_TEMP);
+        mWeatherLocation = data.getString(WeatherContract.TodayEntry.COLUMN_CITY_NAME);
 
         if (mGoogleApiClient == null) {
             mGoogleApiClient = new GoogleApiClient.Builder(this)
@@ -0,0 +1,148 @@
+package com.loosli.christian.sunshine.app;
+
+/**
+ * The OpenWeatherMap condition ids and how the app and the watch face show them, as tables
+ * built once and indexed by the id.
+ * <p/>
+ * Every id belongs to a group of conditions that share an icon, an art pack key and a Muzei
+ * image, e.g. all of 300 to 321 are light rain.  Ids outside the groups are {@link #UNKNOWN}.
+ * {@link #buildTable} makes the same kind of table for anything else keyed by the id, like the
+ * condition descriptions of the app.
+ * <p/>
+ * This source is shared by the app and the watch face; the icons it names exist in both.
+ * Conditions based on http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+public final class WeatherConditions {
+
+    public static final int UNKNOWN = 0;
+    public static final int STORM = 1;
+    public static final int LIGHT_RAIN = 2;
+    public static final int RAIN = 3;
+    public static final int SNOW = 4;
+    public static final int FOG = 5;
+    // Dust and tornadoes
+    public static final int DUST_STORM = 6;
+    public static final int CLEAR = 7;
+    public static final int LIGHT_CLOUDS = 8;
+    public static final int CLOUDS = 9;
+    public static final int GROUPS = 10;
+
+    public static final int FIRST_ID = 200;
+    public static final int LAST_ID = 962;
+
+    // Each row is the first id, the last id and the group of the ids in between
+    private static final int[][] GROUP_RANGES = {
+            {200, 232, STORM},
+            {300, 321, LIGHT_RAIN},
+            {500, 504, RAIN},
+            {511, 511, SNOW},
+            {520, 531, RAIN},
+            {600, 622, SNOW},
+            {701, 760, FOG},
+            {761, 761, DUST_STORM},
+            {781, 781, DUST_STORM},
+            {800, 800, CLEAR},
+            {801, 801, LIGHT_CLOUDS},
+            {802, 804, CLOUDS}
+    };
+
+    private static final int[] GROUP_BY_ID = buildTable(GROUP_RANGES);
+
+    // Indexed by group
+    private static final int[] ICON_RESOURCES = {
+            -1,
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_storm,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy
+    };
+
+    private static final String[] ART_KEYS = {
+            null,
+            "storm",
+            "light_rain",
+            "rain",
+            "snow",
+            "fog",
+            "storm",
+            "clear",
+            "light_clouds",
+            "clouds"
+    };
+
+    private static final String[] IMAGE_URLS = {
+            null,
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"
+    };
+
+    private WeatherConditions() {
+    }
+
+    /**
+     * @param ranges rows of the first id, the last id and the value of the ids in between
+     * @return a table of the values indexed by {@link #indexOf}, 0 for ids in no range
+     */
+    public static int[] buildTable(int[][] ranges) {
+        int[] table = new int[LAST_ID - FIRST_ID + 1];
+        for (int[] range : ranges) {
+            for (int weatherId = range[0]; weatherId <= range[1]; weatherId++) {
+                table[weatherId - FIRST_ID] = range[2];
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @return the index of the condition in tables of {@link #buildTable}, or -1 if no table
+     * has it
+     */
+    public static int indexOf(int weatherId) {
+        return weatherId >= FIRST_ID && weatherId <= LAST_ID ? weatherId - FIRST_ID : -1;
+    }
+
+    public static int getGroup(int weatherId) {
+        int index = indexOf(weatherId);
+        return index >= 0 ? GROUP_BY_ID[index] : UNKNOWN;
+    }
+
+    /**
+     * @return the icon of a group, -1 for {@link #UNKNOWN}
+     */
+    public static int getIconResourceForGroup(int group) {
+        return ICON_RESOURCES[group];
+    }
+
+    /**
+     * @return the icon of the condition, -1 if it is unknown
+     */
+    public static int getIconResource(int weatherId) {
+        return ICON_RESOURCES[getGroup(weatherId)];
+    }
+
+    /**
+     * @return the name of the condition's picture in art packs, null if it is unknown
+     */
+    public static String getArtKey(int weatherId) {
+        return ART_KEYS[getGroup(weatherId)];
+    }
+
+    /**
+     * @return the URL of a photo of the condition, null if it is unknown
+     */
+    public static String getImageUrl(int weatherId) {
+        return IMAGE_URLS[getGroup(weatherId)];
+    }
+}
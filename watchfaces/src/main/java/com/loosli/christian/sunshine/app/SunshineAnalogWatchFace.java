@@ -156,15 +156,8 @@ public class SunshineAnalogWatchFace extends CanvasWatchFaceService {
         private String mWeatherLocation;
 
         // bitmaps
-        Bitmap mBitmapStatus;
-        Bitmap mBitmapClear;
-        Bitmap mBitmapClouds;
-        Bitmap mBitmapFog;
-        Bitmap mBitmapLightClouds;
-        Bitmap mBitmapLightRain;
-        Bitmap mBitmapRain;
-        Bitmap mBitmapSnow;
-        Bitmap mBitmapStorm;
+        // Indexed by the groups of WeatherConditions
+        Bitmap[] mConditionBitmaps;
 
         private final Rect mPeekCardBounds = new Rect();
 
@@ -732,46 +725,18 @@ public class SunshineAnalogWatchFace extends CanvasWatchFaceService {
         }
 
         private void initializeBitmaps(Resources resources) {
-            mBitmapStatus = BitmapFactory.decodeResource(resources, R.drawable.ic_status);
-            mBitmapClear = BitmapFactory.decodeResource(resources, R.drawable.ic_clear);
-            mBitmapClouds = BitmapFactory.decodeResource(resources, R.drawable.ic_cloudy);
-            mBitmapFog = BitmapFactory.decodeResource(resources, R.drawable.ic_fog);
-            mBitmapLightClouds = BitmapFactory.decodeResource(resources, R.drawable.ic_light_clouds);
-            mBitmapLightRain = BitmapFactory.decodeResource(resources, R.drawable.ic_light_rain);
-            mBitmapRain = BitmapFactory.decodeResource(resources, R.drawable.ic_rain);
-            mBitmapSnow = BitmapFactory.decodeResource(resources, R.drawable.ic_snow);
-            mBitmapStorm = BitmapFactory.decodeResource(resources, R.drawable.ic_storm);
+            mConditionBitmaps = new Bitmap[WeatherConditions.GROUPS];
+            // default bitmap
+            mConditionBitmaps[WeatherConditions.UNKNOWN] =
+                    BitmapFactory.decodeResource(resources, R.drawable.ic_status);
+            for (int group = WeatherConditions.UNKNOWN + 1; group < WeatherConditions.GROUPS; group++) {
+                mConditionBitmaps[group] = BitmapFactory.decodeResource(resources,
+                        WeatherConditions.getIconResourceForGroup(group));
+            }
         }
 
         private Bitmap getBitmapForWeatherCondition(int weatherId) {
-            // Based on weather code data found at:
-            // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-            if (weatherId >= 200 && weatherId <= 232) {
-                return mBitmapStorm;
-            } else if (weatherId >= 300 && weatherId <= 321) {
-                return mBitmapLightRain;
-            } else if (weatherId >= 500 && weatherId <= 504) {
-                return mBitmapRain;
-            } else if (weatherId == 511) {
-                return mBitmapSnow;
-            } else if (weatherId >= 520 && weatherId <= 531) {
-                return mBitmapRain;
-            } else if (weatherId >= 600 && weatherId <= 622) {
-                return mBitmapSnow;
-            } else if (weatherId >= 701 && weatherId <= 761) {
-                return mBitmapFog;
-            } else if (weatherId == 761 || weatherId == 781) {
-                return mBitmapStorm;
-            } else if (weatherId == 800) {
-                return mBitmapClear;
-            } else if (weatherId == 801) {
-                return mBitmapLightClouds;
-            } else if (weatherId >= 802 && weatherId <= 804) {
-                return mBitmapClouds;
-            }
-
-            // default bitmap
-            return mBitmapStatus;
+            return mConditionBitmaps[WeatherConditions.getGroup(weatherId)];
         }
     }
 